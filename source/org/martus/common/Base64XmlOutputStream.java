@@ -34,43 +34,88 @@ import org.martus.util.StreamableBase64;
 public class Base64XmlOutputStream extends OutputStream
 {
 	public Base64XmlOutputStream(XmlWriterFilter destination)
+	{
+		this(destination, true);
+	}
+
+	public Base64XmlOutputStream(XmlWriterFilter destination, boolean breakLinesToUse)
 	{
 		dest = destination;
+		breakLines = breakLinesToUse;
 		buffer = new byte[StreamableBase64.BYTESPERLINE];
 		offset = 0;
+		line = new char[(buffer.length + 2) / 3 * 4 + 1];
 	}
 
 	public void write(int b) throws IOException
 	{
 		buffer[offset++] = (byte)b;
 		if(offset >= buffer.length)
-			flush();
+			flushBuffer();
+	}
+
+	public void write(byte[] bytes, int start, int length) throws IOException
+	{
+		while(length > 0)
+		{
+			int count = Math.min(length, buffer.length - offset);
+			System.arraycopy(bytes, start, buffer, offset, count);
+			offset += count;
+			start += count;
+			length -= count;
+			if(offset >= buffer.length)
+				flushBuffer();
+		}
 	}
 
 	public void flush() throws IOException
 	{
-		flushBuffer();
+		// NOTE: Without line breaks, a partial group would put padding 
+		// in the middle of the data, so it has to wait for close
+		if(breakLines)
+			flushBuffer();
 	}
 
 	public void close() throws IOException
 	{
-		flush();
+		flushBuffer();
 	}
 
 	private void flushBuffer() throws IOException
 	{
-		String thisLine = StreamableBase64.encode(buffer, 0, offset);
-		writeLine(thisLine);
+		int lineLength = encodeLine();
+		if(breakLines)
+			line[lineLength++] = '\n';
+		if(lineLength > 0)
+			dest.writeAsciiDirect(line, 0, lineLength);
 		offset = 0;
 	}
 
-	private void writeLine(String thisLine) throws IOException
+	// NOTE: Same output as StreamableBase64.encode, but into a reused buffer,
+	// because attachments pass through here one line at a time
+	private int encodeLine()
 	{
-		dest.writeDirect(thisLine);
-		dest.writeDirect("\n");
+		int lineLength = 0;
+		for(int i = 0; i < offset; i += 3)
+		{
+			int remaining = offset - i;
+			int b0 = buffer[i] & 0xff;
+			int b1 = (remaining > 1) ? buffer[i + 1] & 0xff : 0;
+			int b2 = (remaining > 2) ? buffer[i + 2] & 0xff : 0;
+			line[lineLength++] = ALPHABET[b0 >> 2];
+			line[lineLength++] = ALPHABET[((b0 << 4) | (b1 >> 4)) & 0x3f];
+			line[lineLength++] = (remaining > 1) ? ALPHABET[((b1 << 2) | (b2 >> 6)) & 0x3f] : PAD;
+			line[lineLength++] = (remaining > 2) ? ALPHABET[b2 & 0x3f] : PAD;
+		}
+		return lineLength;
 	}
 
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final char PAD = '=';
+
 	XmlWriterFilter dest;
+	boolean breakLines;
 	byte[] buffer;
 	int offset;
+	char[] line;
 }
@@ -0,0 +1,62 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Creates the fixed size pools of daemon threads that we use for packet 
+ * validation, session key wrapping and bulletin searching. Being daemons, 
+ * idle pool threads never keep the client or server from exiting.
+ */
+public class DaemonThreadPool
+{
+	public static ExecutorService create(String threadNamePrefix, int maximumThreads)
+	{
+		int threads = Math.min(maximumThreads, Runtime.getRuntime().availableProcessors());
+		return Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory(threadNamePrefix));
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory
+	{
+		DaemonThreadFactory(String threadNamePrefixToUse)
+		{
+			threadNamePrefix = threadNamePrefixToUse;
+		}
+
+		public synchronized Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, threadNamePrefix + "-" + (++threadCount));
+			thread.setDaemon(true);
+			return thread;
+		}
+
+		private String threadNamePrefix;
+		private int threadCount;
+	}
+}
@@ -27,6 +27,7 @@ Boston, MA 02111-1307, USA.
 package org.martus.common;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 import org.martus.common.field.MartusDateField;
@@ -46,7 +47,14 @@ public class FieldCollection
 {
 	public FieldCollection(FieldSpecCollection specsToUse) throws Exception
 	{
-		specs = reuseExistingSpecCollectionIfPossible(specsToUse);
+		this(specsToUse, true);
+	}
+
+	public FieldCollection(FieldSpecCollection specsToUse, boolean shareExistingSpecs) throws Exception
+	{
+		specs = specsToUse;
+		if(shareExistingSpecs)
+			specs = reuseExistingSpecCollectionIfPossible(specsToUse);
 		fields = new Vector();
 		for(int i=0; i < specs.size(); ++i)
 			add(specs.get(i), specsToUse.getAllReusableChoiceLists());
@@ -54,21 +62,23 @@ public class FieldCollection
 
 	private FieldSpecCollection reuseExistingSpecCollectionIfPossible(FieldSpecCollection specsToUse) throws Exception
 	{
-		StringBuffer key = new StringBuffer();
-		for(int i = 0; i < specsToUse.size(); ++i)
-			key.append(specsToUse.get(i).getId());
-		key.append(specsToUse.getAllReusableChoiceLists().toXml());
-		if(existingFieldSpecTemplates.containsKey(specsToUse))
-		{
-			specsToUse = (FieldSpecCollection)existingFieldSpecTemplates.get(specsToUse);
-		}
-		else
-		{
-			existingFieldSpecTemplates.put(specsToUse, specsToUse);
-		}
-		return specsToUse;
+		return existingFieldSpecTemplates.getCanonical(specsToUse);
 	}
 	
+	// NOTE: For a collection that was built without sharing, because its 
+	// specs came from a packet whose signature hadn't been verified yet
+	public FieldCollection withSharedSpecs() throws Exception
+	{
+		FieldSpecCollection sharedSpecs = reuseExistingSpecCollectionIfPossible(specs);
+		if(sharedSpecs == specs)
+			return this;
+
+		FieldCollection shared = new FieldCollection(sharedSpecs);
+		for(int i = 0; i < count(); ++i)
+			shared.getField(i).setData(getField(i).getData());
+		return shared;
+	}
+
 	public FieldCollection(FieldSpec[] specsToUse) throws Exception
 	{
 		this(new FieldSpecCollection(specsToUse));
@@ -101,14 +111,49 @@ public class FieldCollection
 	
 	public MartusField findByTag(String fieldTag)
 	{
-		for(int i=0; i < count(); ++i)
+		MartusField found = findIndexedTag(fieldTag);
+		if(found != null)
+			return found;
+
+		// NOTE: A spec's tag may have been changed in place since we 
+		// indexed it, which would also have bumped its modification count
+		if(tagIndexModificationCount == getSpecModificationCount())
+			return null;
+		tagToIndex = null;
+		return findIndexedTag(fieldTag);
+	}
+
+	private MartusField findIndexedTag(String fieldTag)
+	{
+		Integer index = (Integer)getTagToIndex().get(fieldTag);
+		if(index == null)
+			return null;
+
+		MartusField found = getField(index.intValue());
+		if(!found.getTag().equals(fieldTag))
+			return null;
+		return found;
+	}
+
+	private Map getTagToIndex()
+	{
+		if(tagToIndex == null)
 		{
-			MartusField thisField = getField(i);
-			if(thisField.getTag().equals(fieldTag))
-				return thisField;
+			tagIndexModificationCount = getSpecModificationCount();
+			Map newTagToIndex = new HashMap();
+			for(int i = count() - 1; i >= 0; --i)
+				newTagToIndex.put(getField(i).getTag(), new Integer(i));
+			tagToIndex = newTagToIndex;
 		}
-		
-		return null;
+		return tagToIndex;
+	}
+
+	private int getSpecModificationCount()
+	{
+		int modificationCount = 0;
+		for(int i = 0; i < count(); ++i)
+			modificationCount += getField(i).getFieldSpec().getModificationCount();
+		return modificationCount;
 	}
 	
 	public FieldSpecCollection getSpecs()
@@ -182,8 +227,10 @@ public class FieldCollection
 		}
 	}
 	
-	public static HashMap existingFieldSpecTemplates = new HashMap();
+	public static FieldSpecCollectionCache existingFieldSpecTemplates = new FieldSpecCollectionCache();
 	
 	private Vector fields;
 	private FieldSpecCollection specs;
+	private Map tagToIndex;
+	private int tagIndexModificationCount;
 }
@@ -27,11 +27,14 @@ package org.martus.common;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
+import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.fieldspec.ChoiceItem;
 import org.martus.common.fieldspec.FieldSpec;
 import org.martus.util.xml.XmlUtilities;
@@ -57,6 +60,8 @@ public class FieldSpecCollection implements Comparable
 	public void add(FieldSpec spec)
 	{
 		specs.add(spec);
+		clearCachedXml();
+		clearTagIndex();
 	}
 	
 	public void addAll(FieldSpecCollection fieldSpecCollectionToAdd)
@@ -79,18 +84,51 @@ public class FieldSpecCollection implements Comparable
 	
 	public FieldSpec findBytag(String tagToFind)
 	{
-		for(int index = 0; index < size(); ++index)
+		FieldSpec found = findIndexedTag(tagToFind);
+		if(found != null)
+			return found;
+
+		// NOTE: A spec's tag may have been changed in place since we 
+		// indexed it, which would also have bumped its modification count
+		if(tagIndexModificationCount == getModificationCount())
+			return null;
+		clearTagIndex();
+		return findIndexedTag(tagToFind);
+	}
+
+	private FieldSpec findIndexedTag(String tagToFind)
+	{
+		Integer index = (Integer)getTagToIndex().get(tagToFind);
+		if(index == null)
+			return null;
+
+		FieldSpec found = get(index.intValue());
+		if(!found.getTag().equals(tagToFind))
+			return null;
+		return found;
+	}
+
+	private synchronized Map getTagToIndex()
+	{
+		if(tagToIndex == null)
 		{
-			FieldSpec thisSpec = get(index);
-			if(thisSpec.getTag().equals(tagToFind))
-				return thisSpec;
+			tagIndexModificationCount = getModificationCount();
+			tagToIndex = new HashMap();
+			for(int index = size() - 1; index >= 0; --index)
+				tagToIndex.put(get(index).getTag(), new Integer(index));
 		}
-		return null;
+		return tagToIndex;
+	}
+
+	private synchronized void clearTagIndex()
+	{
+		tagToIndex = null;
 	}
 
 	public void addReusableChoiceList(ReusableChoices setOfChoices)
 	{
 		reusableChoicesPool.add(setOfChoices);
+		clearCachedXml();
 	}
 
 	public Set getReusableChoiceNames()
@@ -133,9 +171,53 @@ public class FieldSpecCollection implements Comparable
 			ReusableChoices reusableChoices = allReusableChoiceLists.getChoices(name);
 			reusableChoicesPool.add(reusableChoices);
 		}
+		clearCachedXml();
+	}
+
+	public synchronized String toXml()
+	{
+		int modificationCount = getModificationCount();
+		if(cachedXml == null || cachedModificationCount != modificationCount)
+		{
+			cachedXml = buildXml();
+			cachedXmlHashCode = cachedXml.hashCode();
+			cachedDigest = null;
+			cachedModificationCount = modificationCount;
+		}
+		return cachedXml;
+	}
+
+	public synchronized String getContentDigest()
+	{
+		String xml = toXml();
+		if(cachedDigest == null)
+			cachedDigest = MartusCrypto.getHexDigest(xml);
+		return cachedDigest;
 	}
 
-	public String toXml()
+	private synchronized int getXmlHashCode()
+	{
+		toXml();
+		return cachedXmlHashCode;
+	}
+
+	private synchronized void clearCachedXml()
+	{
+		cachedXml = null;
+		cachedDigest = null;
+	}
+
+	// NOTE: Catches specs or choice lists that were modified in place 
+	// after our xml was cached
+	private int getModificationCount()
+	{
+		int count = reusableChoicesPool.getModificationCount();
+		for(int i = 0; i < specs.size(); ++i)
+			count += get(i).getModificationCount();
+		return count;
+	}
+
+	private String buildXml()
 	{
 		StringBuffer result = new StringBuffer();
 		result.append('<');
@@ -206,6 +288,8 @@ public class FieldSpecCollection implements Comparable
 		if (getClass() != obj.getClass())
 			return false;
 		final FieldSpecCollection other = (FieldSpecCollection) obj;
+		if(getXmlHashCode() != other.getXmlHashCode())
+			return false;
 		return (compareTo(other) == 0);
 	}
 
@@ -214,6 +298,8 @@ public class FieldSpecCollection implements Comparable
 		if(!(rawOther instanceof FieldSpecCollection))
 			return 0;
 		FieldSpecCollection other = (FieldSpecCollection)rawOther;
+		if(other == this)
+			return 0;
 		String thisXml = toXml();
 		String otherXml = other.toXml();
 		return thisXml.compareTo(otherXml);
@@ -221,4 +307,10 @@ public class FieldSpecCollection implements Comparable
 	
 	private Vector specs;
 	private PoolOfReusableChoicesLists reusableChoicesPool;
+	private String cachedXml;
+	private int cachedXmlHashCode;
+	private String cachedDigest;
+	private int cachedModificationCount;
+	private Map tagToIndex;
+	private int tagIndexModificationCount;
 }
@@ -0,0 +1,116 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common;
+
+/*
+ * Canonicalizes FieldSpecCollections, so that all the bulletins that use 
+ * the same form template share one copy of it. Entries are found by a 
+ * digest of the template's xml, and the least recently used templates 
+ * are dropped once the cache is full.
+ */
+public class FieldSpecCollectionCache
+{
+	public FieldSpecCollectionCache()
+	{
+		this(DEFAULT_MAXIMUM_ENTRIES);
+	}
+
+	public FieldSpecCollectionCache(int maximumEntriesToUse)
+	{
+		entries = new LruCache(maximumEntriesToUse);
+	}
+
+	public FieldSpecCollection getCanonical(FieldSpecCollection specs)
+	{
+		String digest = specs.getContentDigest();
+		if(digest == null)
+			return specs;
+
+		synchronized(this)
+		{
+			FieldSpecCollection existing = (FieldSpecCollection)entries.get(digest);
+			// NOTE: FieldSpecs can be modified after they are cached, 
+			// so a matching digest alone is not enough, and we count 
+			// hits ourselves
+			if(existing != null && existing.equals(specs))
+			{
+				++hits;
+				return existing;
+			}
+
+			++misses;
+			entries.put(digest, specs);
+			return specs;
+		}
+	}
+
+	public synchronized void setMaximumEntries(int maximumEntriesToUse)
+	{
+		entries.setLimits(maximumEntriesToUse, LruCache.NO_MAXIMUM_AGE);
+		entries.clear();
+	}
+
+	public synchronized int getMaximumEntries()
+	{
+		return entries.getMaximumEntries();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	public synchronized long getHitCount()
+	{
+		return hits;
+	}
+
+	public synchronized long getMissCount()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictionCount()
+	{
+		return entries.getEvictionCount();
+	}
+
+	public String toString()
+	{
+		return "FieldSpecCollectionCache size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() + " evictions=" + getEvictionCount();
+	}
+
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+	private LruCache entries;
+	private long hits;
+	private long misses;
+}
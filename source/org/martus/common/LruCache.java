@@ -0,0 +1,290 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * A map bounded by entry count (least recently used entries are evicted 
+ * first) and optionally by age. It is the shared implementation behind 
+ * our session key, public key, form template and display date caches.
+ *
+ * The map can be split into independently locked segments, so concurrent 
+ * users of different keys don't wait on each other. Each segment holds an 
+ * equal share of the maximum, rounded up, and never less than one entry. 
+ * So a cache that allows fewer entries than it has segments can still 
+ * hold one entry per segment.
+ */
+public class LruCache
+{
+	public LruCache(int maximumEntriesToUse)
+	{
+		this(maximumEntriesToUse, NO_MAXIMUM_AGE, 1);
+	}
+
+	public LruCache(int maximumEntriesToUse, long maximumAgeMillisToUse, int segmentCount)
+	{
+		segments = new Segment[segmentCount];
+		for(int i = 0; i < segments.length; ++i)
+			segments[i] = new Segment();
+		setLimits(maximumEntriesToUse, maximumAgeMillisToUse);
+	}
+
+	public void setLimits(int maximumEntriesToUse, long maximumAgeMillisToUse)
+	{
+		maximumEntries = maximumEntriesToUse;
+		maximumAgeMillis = maximumAgeMillisToUse;
+		int perSegment = (maximumEntries + segments.length - 1) / segments.length;
+		for(int i = 0; i < segments.length; ++i)
+			segments[i].setMaximumEntries(Math.max(1, perSegment));
+	}
+
+	public int getMaximumEntries()
+	{
+		return maximumEntries;
+	}
+
+	public long getMaximumAgeMillis()
+	{
+		return maximumAgeMillis;
+	}
+
+	public Object get(Object key)
+	{
+		return getSegment(key).getValue(key);
+	}
+
+	public void put(Object key, Object value)
+	{
+		getSegment(key).putValue(key, value);
+	}
+
+	public void clear()
+	{
+		for(int i = 0; i < segments.length; ++i)
+			segments[i].clearAndDiscard();
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for(int i = 0; i < segments.length; ++i)
+			size += segments[i].getSize();
+		return size;
+	}
+
+	public Map getSnapshot()
+	{
+		Map snapshot = new HashMap();
+		for(int i = 0; i < segments.length; ++i)
+			segments[i].copyInto(snapshot);
+		return snapshot;
+	}
+
+	public long getHitCount()
+	{
+		long count = 0;
+		for(int i = 0; i < segments.length; ++i)
+			count += segments[i].getHits();
+		return count;
+	}
+
+	public long getMissCount()
+	{
+		long count = 0;
+		for(int i = 0; i < segments.length; ++i)
+			count += segments[i].getMisses();
+		return count;
+	}
+
+	public long getEvictionCount()
+	{
+		long count = 0;
+		for(int i = 0; i < segments.length; ++i)
+			count += segments[i].getEvictions();
+		return count;
+	}
+
+	public String toString()
+	{
+		return "size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() + " evictions=" + getEvictionCount();
+	}
+
+	// NOTE: Called with the segment locked, so a value can't be discarded 
+	// by another thread while it is being copied
+	protected Object copyValue(Object value)
+	{
+		return value;
+	}
+
+	// NOTE: Called whenever a value leaves the cache, whether it was 
+	// evicted, expired, replaced or cleared
+	protected void discardValue(Object value)
+	{
+	}
+
+	private Segment getSegment(Object key)
+	{
+		int hash = key.hashCode() & 0x7FFFFFFF;
+		return segments[hash % segments.length];
+	}
+
+	class Entry
+	{
+		Entry(Object valueToUse)
+		{
+			value = valueToUse;
+			storedAt = System.currentTimeMillis();
+		}
+
+		boolean isExpired(long now)
+		{
+			if(maximumAgeMillis <= NO_MAXIMUM_AGE)
+				return false;
+			return (now - storedAt > maximumAgeMillis);
+		}
+
+		Object value;
+		long storedAt;
+	}
+
+	class Segment extends LinkedHashMap
+	{
+		Segment()
+		{
+			super(16, 0.75f, true);
+		}
+
+		synchronized void setMaximumEntries(int maximumEntriesToUse)
+		{
+			maximumSegmentEntries = maximumEntriesToUse;
+			while(size() > maximumSegmentEntries)
+			{
+				Iterator eldest = entrySet().iterator();
+				evict((Entry)((Map.Entry)eldest.next()).getValue());
+				eldest.remove();
+			}
+		}
+
+		synchronized Object getValue(Object key)
+		{
+			Entry entry = (Entry)get(key);
+			if(entry != null && entry.isExpired(System.currentTimeMillis()))
+			{
+				remove(key);
+				evict(entry);
+				entry = null;
+			}
+
+			if(entry == null)
+			{
+				++misses;
+				return null;
+			}
+
+			++hits;
+			return copyValue(entry.value);
+		}
+
+		synchronized void putValue(Object key, Object value)
+		{
+			Entry old = (Entry)put(key, new Entry(value));
+			if(old != null && old.value != value)
+				discardValue(old.value);
+		}
+
+		synchronized void clearAndDiscard()
+		{
+			Iterator iter = values().iterator();
+			while(iter.hasNext())
+				discardValue(((Entry)iter.next()).value);
+			clear();
+		}
+
+		synchronized int getSize()
+		{
+			return size();
+		}
+
+		synchronized void copyInto(Map snapshot)
+		{
+			long now = System.currentTimeMillis();
+			Iterator iter = entrySet().iterator();
+			while(iter.hasNext())
+			{
+				Map.Entry mapEntry = (Map.Entry)iter.next();
+				Entry entry = (Entry)mapEntry.getValue();
+				if(entry.isExpired(now))
+					continue;
+				snapshot.put(mapEntry.getKey(), copyValue(entry.value));
+			}
+		}
+
+		synchronized long getHits()
+		{
+			return hits;
+		}
+
+		synchronized long getMisses()
+		{
+			return misses;
+		}
+
+		synchronized long getEvictions()
+		{
+			return evictions;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest)
+		{
+			if(size() <= maximumSegmentEntries)
+				return false;
+
+			evict((Entry)eldest.getValue());
+			return true;
+		}
+
+		private void evict(Entry entry)
+		{
+			discardValue(entry.value);
+			++evictions;
+		}
+
+		private int maximumSegmentEntries;
+		private long hits;
+		private long misses;
+		private long evictions;
+	}
+
+	public static final long NO_MAXIMUM_AGE = 0;
+
+	private Segment[] segments;
+	private int maximumEntries;
+	private long maximumAgeMillis;
+}
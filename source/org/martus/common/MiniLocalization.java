@@ -25,8 +25,6 @@ Boston, MA 02111-1307, USA.
 */
 package org.martus.common;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -40,6 +38,7 @@ import java.util.Vector;
 import org.martus.common.fieldspec.ChoiceItem;
 import org.martus.common.utilities.BurmeseUtilities;
 import org.martus.common.utilities.MartusFlexidate;
+import org.martus.common.utilities.PerThreadDateFormat;
 import org.martus.util.DatePreference;
 import org.martus.util.MultiCalendar;
 import org.martus.util.MultiDateFormat;
@@ -65,6 +64,9 @@ public class MiniLocalization
 	public MiniLocalization()
 	{
 		textResources = new TreeMap();
+		labelTables = new HashMap();
+		displayDateCache = new DisplayDateCache(MAXIMUM_CACHED_DISPLAY_DATES);
+		displayDateFormats = new ThreadLocal();
 		rightToLeftLanguages = new Vector();
 		currentDateFormat = new DatePreference();
 		languageSettings = new DefaultLanguageSettingsProvider();
@@ -93,7 +95,7 @@ public class MiniLocalization
 		addTranslation(ENGLISH, entry);
 	}
 
-	public void addTranslation(String languageCode, String entryText)
+	public synchronized void addTranslation(String languageCode, String entryText)
 	{
 		if(entryText == null)
 			return;
@@ -113,6 +115,7 @@ public class MiniLocalization
 		
 		String translatedText = extractValueFromEntry(entryText);
 		availableTranslations.put(languageCode, translatedText);
+		invalidateCompiledLabels();
 	}
 
 	public String extractKeyFromEntry(String entryText)
@@ -242,6 +245,18 @@ public class MiniLocalization
 	}
 	
 	public String getLabel(String languageCode, String key)
+	{
+		if(languageCode != null)
+		{
+			String label = getLabelTable(languageCode).getLabel(key);
+			if(label != null)
+				return label;
+		}
+		
+		return getUncompiledLabel(languageCode, key);
+	}
+
+	private String getUncompiledLabel(String languageCode, String key)
 	{
 		Map availableTranslations = getAvailableTranslations(key);
 		if(availableTranslations == null)
@@ -263,7 +278,71 @@ public class MiniLocalization
 
 	public String getLabel(String languageCode, String category, String tag)
 	{
-		return getLabel(languageCode, category + ":" + tag);
+		if(languageCode != null)
+		{
+			String label = getLabelTable(languageCode).getLabel(category, tag);
+			if(label != null)
+				return label;
+		}
+		
+		return getUncompiledLabel(languageCode, category + KEY_SEPARATOR + tag);
+	}
+
+	protected synchronized void invalidateCompiledLabels()
+	{
+		labelIds = null;
+		labelTables.clear();
+		currentLabelTable = null;
+		synchronized(displayDateCache)
+		{
+			displayDateCache.clear();
+		}
+	}
+
+	private LabelTable getLabelTable(String languageCode)
+	{
+		LabelTable table = currentLabelTable;
+		if(table != null && table.languageCode.equals(languageCode))
+			return table;
+		
+		return getOrCompileLabelTable(languageCode);
+	}
+
+	private synchronized LabelTable getOrCompileLabelTable(String languageCode)
+	{
+		if(labelIds == null)
+			labelIds = new LabelIds(textResources.keySet());
+		
+		LabelTable table = (LabelTable)labelTables.get(languageCode);
+		if(table == null)
+		{
+			table = compileLabelTable(languageCode, labelIds);
+			labelTables.put(languageCode, table);
+		}
+		currentLabelTable = table;
+		return table;
+	}
+
+	private LabelTable compileLabelTable(String languageCode, LabelIds ids)
+	{
+		String[] labels = new String[ids.getKeyCount()];
+		for(int id = 0; id < labels.length; ++id)
+		{
+			Map availableTranslations = getAvailableTranslations(ids.getKey(id));
+			String translatedText = (String)availableTranslations.get(languageCode);
+			if(translatedText != null)
+			{
+				labels[id] = translatedText;
+				continue;
+			}
+			
+			// NOTE: Leave keys with no English text empty, so the 
+			// uncompiled lookup still reports them 
+			String englishText = (String)availableTranslations.get(ENGLISH);
+			if(englishText != null)
+				labels[id] = formatAsUntranslated(englishText);
+		}
+		return new LabelTable(languageCode, ids, labels);
 	}
 
 	public String getFieldLabelHtml(String fieldName)
@@ -460,6 +539,29 @@ public class MiniLocalization
 	}
 
 	public String convertStoredDateToDisplay(String storedDate)
+	{
+		int generation;
+		synchronized(displayDateCache)
+		{
+			displayDateCache.setContext(getCurrentLanguageCode(), getCurrentCalendarSystem(), currentDateFormat.getRawDateTemplate(), getAdjustThaiLegacyDates(), getAdjustPersianLegacyDates(), LanguageOptions.isRightToLeftLanguage());
+			String displayDate = (String)displayDateCache.get(storedDate);
+			if(displayDate != null)
+				return displayDate;
+			generation = displayDateCache.getGeneration();
+		}
+
+		String displayDate = convertStoredDateToDisplayUncached(storedDate);
+		synchronized(displayDateCache)
+		{
+			// NOTE: If the cache was cleared while we converted, the settings 
+			// may have changed, so this value might belong to the old ones
+			if(displayDateCache.getGeneration() == generation)
+				displayDateCache.put(storedDate, displayDate);
+		}
+		return displayDate;
+	}
+
+	private String convertStoredDateToDisplayUncached(String storedDate)
 	{
 		try
 		{
@@ -480,11 +582,22 @@ public class MiniLocalization
 		if(cal.getGregorianYear() == MultiCalendar.YEAR_NOT_SPECIFIED)
 			return getFieldLabel("DateNotSpecified");
 
-		MultiDateFormat dfDisplay = new MultiDateFormat(currentDateFormat);
 		int year = getLocalizedYear(cal);
 		int month = getLocalizedMonth(cal);
 		int day = getLocalizedDay(cal);
-		return dfDisplay.format(year, month, day);
+		return getDisplayDateFormat().format(year, month, day);
+	}
+
+	private MultiDateFormat getDisplayDateFormat()
+	{
+		String template = currentDateFormat.getDateTemplate();
+		DisplayDateFormat cached = (DisplayDateFormat)displayDateFormats.get();
+		if(cached == null || !DisplayDateCache.isSame(template, cached.template))
+		{
+			cached = new DisplayDateFormat(template, new MultiDateFormat(currentDateFormat));
+			displayDateFormats.set(cached);
+		}
+		return cached.format;
 	}
 	
 	public String getViewableDateRange(String newText)
@@ -515,8 +628,6 @@ public class MiniLocalization
 	{
 		if(dateTime == DATE_UNKNOWN)
 			return "";
-		DateFormat time24hour = new SimpleDateFormat("HH:mm");
-		
 		GregorianCalendar cal = new GregorianCalendar();
 		cal.setTimeInMillis(dateTime);
 		
@@ -624,11 +735,197 @@ public class MiniLocalization
 	public static final String AFGHAN_SYSTEM = "Afghan";
 	public static final String[] ALL_CALENDAR_SYSTEMS = {GREGORIAN_SYSTEM, THAI_SYSTEM, PERSIAN_SYSTEM, AFGHAN_SYSTEM, };
 
+	/*
+	 * Gives every translation key a dense id, and indexes the ids both by
+	 * the full "category:tag" key and by category and then tag, so 
+	 * lookups never have to build the combined key. 
+	 */
+	static class LabelIds
+	{
+		LabelIds(Set keySet)
+		{
+			keys = (String[])keySet.toArray(new String[0]);
+			idsByKey = new HashMap();
+			idsByCategory = new HashMap();
+			for(int id = 0; id < keys.length; ++id)
+			{
+				String key = keys[id];
+				Integer idObject = new Integer(id);
+				idsByKey.put(key, idObject);
+				
+				int splitAt = key.indexOf(KEY_SEPARATOR);
+				if(splitAt < 0)
+					continue;
+				String category = key.substring(0, splitAt);
+				String tag = key.substring(splitAt + KEY_SEPARATOR.length());
+				Map idsByTag = (Map)idsByCategory.get(category);
+				if(idsByTag == null)
+				{
+					idsByTag = new HashMap();
+					idsByCategory.put(category, idsByTag);
+				}
+				idsByTag.put(tag, idObject);
+			}
+		}
+		
+		int getKeyCount()
+		{
+			return keys.length;
+		}
+		
+		String getKey(int id)
+		{
+			return keys[id];
+		}
+		
+		int getId(String key)
+		{
+			return toId(idsByKey.get(key));
+		}
+		
+		int getId(String category, String tag)
+		{
+			Map idsByTag = (Map)idsByCategory.get(category);
+			if(idsByTag == null)
+				return NO_SUCH_KEY;
+			return toId(idsByTag.get(tag));
+		}
+		
+		private static int toId(Object idObject)
+		{
+			if(idObject == null)
+				return NO_SUCH_KEY;
+			return ((Integer)idObject).intValue();
+		}
+		
+		private String[] keys;
+		private Map idsByKey;
+		private Map idsByCategory;
+	}
+	
+	/*
+	 * Immutable, fully resolved labels for one language, including the 
+	 * untranslated English fallbacks. Replaced, not updated, whenever 
+	 * a translation is added.
+	 */
+	static class LabelTable
+	{
+		LabelTable(String languageCodeToUse, LabelIds idsToUse, String[] labelsToUse)
+		{
+			languageCode = languageCodeToUse;
+			ids = idsToUse;
+			labels = labelsToUse;
+		}
+		
+		String getLabel(String key)
+		{
+			return getLabel(ids.getId(key));
+		}
+		
+		String getLabel(String category, String tag)
+		{
+			return getLabel(ids.getId(category, tag));
+		}
+		
+		private String getLabel(int id)
+		{
+			if(id == NO_SUCH_KEY)
+				return null;
+			return labels[id];
+		}
+		
+		final String languageCode;
+		private final LabelIds ids;
+		private final String[] labels;
+	}
+
 	public static final String NotTranslatedBeginCharacter = "<";
 	public static final String NotTranslatedEndCharacter = ">";
 	
+	/*
+	 * Remembers recent stored date to display date conversions. Everything
+	 * else the conversion depends on is recorded as the context, and a
+	 * change of context empties the cache.
+	 */
+	static class DisplayDateCache extends LruCache
+	{
+		DisplayDateCache(int maximumEntriesToUse)
+		{
+			super(maximumEntriesToUse);
+		}
+
+		void setContext(String languageCode, String calendarSystem, String dateTemplate, boolean adjustThai, boolean adjustPersian, boolean rightToLeft)
+		{
+			if(isSame(languageCode, cachedLanguageCode) && isSame(calendarSystem, cachedCalendarSystem) &&
+					isSame(dateTemplate, cachedDateTemplate) &&
+					adjustThai == cachedAdjustThai && adjustPersian == cachedAdjustPersian &&
+					rightToLeft == cachedRightToLeft)
+				return;
+
+			clear();
+			cachedLanguageCode = languageCode;
+			cachedCalendarSystem = calendarSystem;
+			cachedDateTemplate = dateTemplate;
+			cachedAdjustThai = adjustThai;
+			cachedAdjustPersian = adjustPersian;
+			cachedRightToLeft = rightToLeft;
+		}
+
+		public void clear()
+		{
+			super.clear();
+			++generation;
+		}
+
+		int getGeneration()
+		{
+			return generation;
+		}
+
+		private static boolean isSame(String a, String b)
+		{
+			if(a == null)
+				return (b == null);
+			return a.equals(b);
+		}
+
+		private String cachedLanguageCode;
+		private String cachedCalendarSystem;
+		private String cachedDateTemplate;
+		private boolean cachedAdjustThai;
+		private boolean cachedAdjustPersian;
+		private boolean cachedRightToLeft;
+		private int generation;
+	}
+
+	/*
+	 * The display format for one date template, kept per thread since
+	 * building it on every date was a noticeable cost.
+	 */
+	static class DisplayDateFormat
+	{
+		DisplayDateFormat(String templateToUse, MultiDateFormat formatToUse)
+		{
+			template = templateToUse;
+			format = formatToUse;
+		}
+
+		String template;
+		MultiDateFormat format;
+	}
+
+	private static final String KEY_SEPARATOR = ":";
+	private static final int NO_SUCH_KEY = -1;
+	private static final int MAXIMUM_CACHED_DISPLAY_DATES = 10000;
+	private static PerThreadDateFormat time24hour = new PerThreadDateFormat("HH:mm");
+	
 	protected Map textResources;
 	protected Vector rightToLeftLanguages;
+	private LabelIds labelIds;
+	private Map labelTables;
+	private volatile LabelTable currentLabelTable;
+	private DisplayDateCache displayDateCache;
+	private ThreadLocal displayDateFormats;
 	private DatePreference currentDateFormat;
 	private LanguageSettingsProvider languageSettings;
 }
@@ -43,6 +43,7 @@ public class PoolOfReusableChoicesLists
 	public void add(ReusableChoices choices)
 	{
 		namedReusableChoices.put(choices.getCode(), choices);
+		++modificationCount;
 	}
 
 	public ChoiceItem findChoiceFromFullOrPartialCode(String[] reusableChoiceListCodes, String fullOrPartialCode)
@@ -138,6 +139,15 @@ public class PoolOfReusableChoicesLists
 		return namedReusableChoices.size();
 	}
 
+	public int getModificationCount()
+	{
+		int count = modificationCount;
+		Iterator iter = namedReusableChoices.values().iterator();
+		while(iter.hasNext())
+			count += ((ReusableChoices)iter.next()).getModificationCount();
+		return count;
+	}
+
 	public Set getAvailableNames()
 	{
 		return namedReusableChoices.keySet();
@@ -167,5 +177,6 @@ public class PoolOfReusableChoicesLists
 	public static final PoolOfReusableChoicesLists EMPTY_POOL = new PoolOfReusableChoicesLists();
 
 	private Map namedReusableChoices;
+	private int modificationCount;
 
 }
@@ -71,6 +71,7 @@ public class ReusableChoices
 	public void add(ChoiceItem choice)
 	{
 		choices.add(choice);
+		++modificationCount;
 	}
 
 	public void addAll(ChoiceItem[] newChoices)
@@ -82,15 +83,18 @@ public class ReusableChoices
 	public void insertAtTop(ChoiceItem choiceItem)
 	{
 		choices.insertElementAt(choiceItem, 0);
+		++modificationCount;
 	}
 
 	public void set(int level, ChoiceItem choiceItem)
 	{
 		choices.set(level, choiceItem);
+		++modificationCount;
 	}
 
 	public ChoiceItem remove(int i)
 	{
+		++modificationCount;
 		return (ChoiceItem) choices.remove(i);
 	}
 
@@ -136,6 +140,21 @@ public class ReusableChoices
 	{
 		ChoiceItemByLabelSorter sorter = new ChoiceItemByLabelSorter();
 		Collections.sort(choices, sorter);
+		++modificationCount;
+	}
+
+	public synchronized int getModificationCount()
+	{
+		// NOTE: A choice can be relabeled in place through ChoiceItem.setLabel
+		int choiceModifications = 0;
+		for(int i = 0; i < choices.size(); ++i)
+			choiceModifications += get(i).getSpec().getModificationCount();
+		if(choiceModifications != lastChoiceModifications)
+		{
+			lastChoiceModifications = choiceModifications;
+			++modificationCount;
+		}
+		return modificationCount;
 	}
 
 	public int hashCode()
@@ -194,4 +213,6 @@ public class ReusableChoices
 	private String code;
 	private String label;
 	private Vector choices;
+	private int modificationCount;
+	private int lastChoiceModifications;
 }
@@ -62,8 +62,10 @@ public class XmlWriterFilter
 		{
 			try
 			{
-				byte[] bytes = s.getBytes("UTF-8");
-				engine.digest(bytes);
+				if(isAscii(s))
+					digestAscii(s);
+				else
+					engine.digest(s.getBytes("UTF-8"));
 			}
 			catch(Exception e)
 			{
@@ -73,6 +75,53 @@ public class XmlWriterFilter
 		writer.write(s);
 	}
 
+	public void writeAsciiDirect(char[] ascii, int offset, int length) throws IOException
+	{
+		if(engine != null)
+		{
+			try
+			{
+				byte[] bytes = getDigestBuffer(length);
+				for(int i = 0; i < length; ++i)
+					bytes[i] = (byte)ascii[offset + i];
+				engine.digest(bytes, 0, length);
+			}
+			catch(Exception e)
+			{
+				throw new IOException("Signature Exception: " + e.getMessage());
+			}
+		}
+		writer.write(ascii, offset, length);
+	}
+
+	// NOTE: ASCII is its own UTF-8 encoding, so most of what we write can 
+	// be digested without creating a new byte array each time
+	private void digestAscii(String s) throws Exception
+	{
+		int length = s.length();
+		byte[] bytes = getDigestBuffer(length);
+		for(int i = 0; i < length; ++i)
+			bytes[i] = (byte)s.charAt(i);
+		engine.digest(bytes, 0, length);
+	}
+
+	private byte[] getDigestBuffer(int length)
+	{
+		if(digestBuffer == null || digestBuffer.length < length)
+			digestBuffer = new byte[Math.max(length, MINIMUM_DIGEST_BUFFER_SIZE)];
+		return digestBuffer;
+	}
+
+	private static boolean isAscii(String s)
+	{
+		for(int i = 0; i < s.length(); ++i)
+		{
+			if(s.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
 	public void startSignature(MartusCrypto sigGenToUse) throws
 				MartusCrypto.MartusSignatureException
 	{
@@ -101,6 +150,9 @@ public class XmlWriterFilter
 		}
 	}
 
+	private static final int MINIMUM_DIGEST_BUFFER_SIZE = 128;
+
 	private Writer writer;
 	private SignatureEngine engine;
+	private byte[] digestBuffer;
 }
\ No newline at end of file
@@ -387,8 +387,9 @@ public class Bulletin implements BulletinConstants
 		if(fieldTag.equals(BulletinConstants.TAGWASSENT) || fieldTag.equals(Bulletin.PSEUDOFIELD_WAS_SENT))
 			throw new RuntimeException("Bulletin doesn't know if it was sent or not");
 		
-		if(isFieldInPublicSection(fieldTag))
-			return fieldData.getField(fieldTag);
+		MartusField publicField = fieldData.getField(fieldTag);
+		if(publicField != null)
+			return publicField;
 		return getPrivateFieldDataPacket().getField(fieldTag);
 	}
 
@@ -545,22 +546,26 @@ public class Bulletin implements BulletinConstants
 
 	public boolean contains(String lookFor, MiniLocalization localization)
 	{
-		if(doesSectionContain(getFieldDataPacket(), lookFor, localization))
+		return containsLowerCase(lookFor.toLowerCase(), localization);
+	}
+
+	public boolean containsLowerCase(String lookForLowerCase, MiniLocalization localization)
+	{
+		if(doesSectionContain(getFieldDataPacket(), lookForLowerCase, localization))
 			return true;
-		if(doesSectionContain(getPrivateFieldDataPacket(), lookFor, localization))
+		if(doesSectionContain(getPrivateFieldDataPacket(), lookForLowerCase, localization))
 			return true;
-		if(doesAttachmentsContain(getPublicAttachments(), lookFor))
+		if(doesAttachmentsContain(getPublicAttachments(), lookForLowerCase))
 			return true;
-		if(doesAttachmentsContain(getPrivateAttachments(), lookFor))
+		if(doesAttachmentsContain(getPrivateAttachments(), lookForLowerCase))
 			return true;
 		return false;
 	}
 
-	private boolean doesAttachmentsContain(AttachmentProxy[] attachments, String lookFor) 
+	private boolean doesAttachmentsContain(AttachmentProxy[] attachments, String lookForLowerCase) 
 	{
 		for(int i = 0; i < attachments.length; ++i)
 		{
-			String lookForLowerCase = lookFor.toLowerCase();
 			String label = attachments[i].getLabel().toLowerCase();
 			if(label.indexOf(lookForLowerCase) >=0)
 				return true;
@@ -568,13 +573,13 @@ public class Bulletin implements BulletinConstants
 		return false;
 	}
 
-	private boolean doesSectionContain(FieldDataPacket section, String lookFor, MiniLocalization localization)
+	private boolean doesSectionContain(FieldDataPacket section, String lookForLowerCase, MiniLocalization localization)
 	{
 		FieldSpec fields[] = section.getFieldSpecs().asArray();
 		for(int f = 0; f < fields.length; ++f)
 		{
 			MartusField field = getField(fields[f].getTag());
-			if(field.contains(lookFor, localization))
+			if(field.containsLowerCase(lookForLowerCase, localization))
 				return true;
 		}
 		return false;
@@ -29,6 +29,7 @@ package org.martus.common.bulletin;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.Writer;
 import java.util.Vector;
 
 import org.martus.common.EnglishCommonStrings;
@@ -65,51 +66,76 @@ public class BulletinHtmlGenerator
 
 	public String getHtmlString(Bulletin b, ReadableDatabase database, boolean includePrivateData, boolean yourBulletin) throws Exception
 	{
-		StringBuffer result = new StringBuffer();
+		StringBuffer result = new StringBuffer(INITIAL_BUFFER_SIZE);
 		result.append("<html>");
-		result.append(getHtmlFragment(b, database, includePrivateData, yourBulletin));
+		appendHtmlFragment(result, b, database, includePrivateData, yourBulletin);
 		result.append("</html>");
 		return result.toString();
 	}
 
 	public String getHtmlFragment(Bulletin b, ReadableDatabase database, boolean includePrivateData, boolean yourBulletin) throws Exception
 	{
-		StringBuffer html = new StringBuffer(1000);
-		appendTableStart(html, width);
+		StringBuffer html = new StringBuffer(INITIAL_BUFFER_SIZE);
+		appendHtmlFragment(html, b, database, includePrivateData, yourBulletin);
+		return html.toString();
+	}
+
+	public void writeHtml(Writer out, Bulletin b, ReadableDatabase database, boolean includePrivateData, boolean yourBulletin) throws Exception
+	{
+		writeHtml(out, new Bulletin[] {b}, database, includePrivateData, yourBulletin);
+	}
+
+	public void writeHtml(Writer out, Bulletin[] bulletins, ReadableDatabase database, boolean includePrivateData, boolean yourBulletins) throws Exception
+	{
+		out.write("<html>");
+		for(int i = 0; i < bulletins.length; ++i)
+		{
+			if(i > 0)
+				out.write(BULLETIN_SEPARATOR);
+			appendHtmlFragment(out, bulletins[i], database, includePrivateData, yourBulletins);
+			// NOTE: Flush each bulletin so a socket reader isn't kept waiting for the whole batch
+			out.flush();
+		}
+		out.write("</html>");
+		out.flush();
+	}
+
+	public void appendHtmlFragment(Appendable html, Bulletin b, ReadableDatabase database, boolean includePrivateData, boolean yourBulletin) throws Exception
+	{
+		appendTableStart(html, Integer.toString(width));
 		appendHeadHtml(html, b, localization);
 		if(!yourBulletin)
 		{
 			html.append("<tr></tr>\n");
-			html.append(getHtmlEscapedFieldHtmlString(localization.getFieldLabel("BulletinNotYours"),""));		
+			appendHtmlEscapedFieldHtml(html, localization.getFieldLabel("BulletinNotYours"),"");
 		}
 
 		boolean showNonPrivateParts = (includePrivateData || !b.isAllPrivate());
 		if(showNonPrivateParts)
 		{
 			appendTitleOfSection(html, getPublicSectionTitle(b.isAllPrivate()));
-			
+
 			String allPrivateFieldLabel = localization.getFieldLabel("allprivate");
 			String allPrivateFieldValue = getAllPrivateValue(b.isAllPrivate());
-			html.append(getHtmlEscapedFieldHtmlString(allPrivateFieldLabel, allPrivateFieldValue));
-			
-			html.append(getSectionHtmlString(b.getFieldDataPacket()));
-			html.append(getAttachmentsHtmlString(b, b.getPublicAttachments(), database));
+			appendHtmlEscapedFieldHtml(html, allPrivateFieldLabel, allPrivateFieldValue);
+
+			appendSectionHtml(html, b.getFieldDataPacket());
+			appendAttachmentsHtml(html, b, b.getPublicAttachments(), database);
 		}
-	
+
 		if (includePrivateData)
-		{	
+		{
 			appendTitleOfSection(html, localization.getFieldLabel("privatesection"));
-			html.append(getSectionHtmlString(b.getPrivateFieldDataPacket()));
-			html.append(getAttachmentsHtmlString(b, b.getPrivateAttachments(), database));
+			appendSectionHtml(html, b.getPrivateFieldDataPacket());
+			appendAttachmentsHtml(html, b, b.getPrivateAttachments(), database);
 		}
-			
+
 		if(showNonPrivateParts)
 		{
 			appendHQs(html, b);
 		}
 
 		appendTableEnd(html, b);
-		return html.toString();
 	}
 
 	private String getAllPrivateValue(boolean isAllPrivate)
@@ -134,10 +160,10 @@ public class BulletinHtmlGenerator
 		return "no";
 	}
 
-	private void appendTableEnd(StringBuffer html, Bulletin b)
+	private void appendTableEnd(Appendable html, Bulletin b) throws IOException
 	{
 		html.append("<tr></tr>\n");
-		html.append(getHtmlEscapedFieldHtmlString(localization.getFieldLabel("BulletinId"),b.getLocalId()));
+		appendHtmlEscapedFieldHtml(html, localization.getFieldLabel("BulletinId"),b.getLocalId());
 		html.append("</table>");
 	}
 
@@ -148,6 +174,42 @@ public class BulletinHtmlGenerator
 	}
 
 	public static void appendTableStart(StringBuffer html, String widthString)
+	{
+		try
+		{
+			appendTableStart((Appendable)html, widthString);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void appendTitleOfSection(StringBuffer html, String title)
+	{
+		try
+		{
+			appendTitleOfSection((Appendable)html, title);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void appendHeadHtml(StringBuffer html, Bulletin b, MiniLocalization localization)
+	{
+		try
+		{
+			appendHeadHtml((Appendable)html, b, localization);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void appendTableStart(Appendable html, String widthString) throws IOException
 	{
 		html.append("<table width='");
 		html.append(widthString);
@@ -162,7 +224,7 @@ public class BulletinHtmlGenerator
 		html.append("</tr>\n");
 	}
 	
-	public static void appendTitleOfSection(StringBuffer html, String title)
+	public static void appendTitleOfSection(Appendable html, String title) throws IOException
 	{
 		html.append("<tr></tr>\n");
 		String align = "left";
@@ -174,14 +236,14 @@ public class BulletinHtmlGenerator
 		html.append("\n");
 	}	
 	
-	public static void appendHeadHtml(StringBuffer html, Bulletin b, MiniLocalization localization)
+	public static void appendHeadHtml(Appendable html, Bulletin b, MiniLocalization localization) throws IOException
 	{
-		html.append(getHtmlEscapedFieldHtmlString(localization.getFieldLabel("BulletinLastSaved"), localization.formatDateTime(b.getLastSavedTime())));
-		html.append(getHtmlEscapedFieldHtmlString(localization.getFieldLabel("BulletinVersionNumber"), (new Integer(b.getVersion())).toString()));
-		html.append(getHtmlEscapedFieldHtmlString(localization.getFieldLabel("BulletinStatus"), localization.getStatusLabel(b.getStatus())));
+		appendHtmlEscapedFieldHtml(html, localization.getFieldLabel("BulletinLastSaved"), localization.formatDateTime(b.getLastSavedTime()));
+		appendHtmlEscapedFieldHtml(html, localization.getFieldLabel("BulletinVersionNumber"), (new Integer(b.getVersion())).toString());
+		appendHtmlEscapedFieldHtml(html, localization.getFieldLabel("BulletinStatus"), localization.getStatusLabel(b.getStatus()));
 	}
-	
-	private void appendHQs(StringBuffer html, Bulletin b )
+
+	private void appendHQs(Appendable html, Bulletin b ) throws IOException
 	{
 		appendTitleOfSection(html, localization.getFieldLabel("HQSummaryLabel"));
 
@@ -189,7 +251,7 @@ public class BulletinHtmlGenerator
 		int size = keys.size();
 		if(size==0)
 		{
-			html.append(getFieldHtmlString("",localization.getFieldLabel("NoHQsConfigured")));
+			appendFieldRowHtml(html, new Object[] {"",localization.getFieldLabel("NoHQsConfigured"), });
 			return;
 		}
 
@@ -207,16 +269,22 @@ public class BulletinHtmlGenerator
 					e.printStackTrace();
 				}
 			}
-			html.append(getHtmlEscapedFieldHtmlString("",label));
+			appendHtmlEscapedFieldHtml(html, "",label);
 			html.append("<p></p>");
 		}
 	}
-	
+
 
 	public String getSectionHtmlString(FieldDataPacket fdp) throws Exception
+	{
+		StringBuffer sectionHtml = new StringBuffer(INITIAL_BUFFER_SIZE);
+		appendSectionHtml(sectionHtml, fdp);
+		return sectionHtml.toString();
+	}
+
+	public void appendSectionHtml(Appendable sectionHtml, FieldDataPacket fdp) throws Exception
 	{
 		FieldSpecCollection fieldTags = fdp.getFieldSpecs();
-		String sectionHtml = "";
 		Vector pendingValues = new Vector();
 		for(int fieldNum = 0; fieldNum < fdp.getFieldCount(); ++fieldNum)
 		{
@@ -224,12 +292,12 @@ public class BulletinHtmlGenerator
 			String tag = spec.getTag();
 			MartusField field = fdp.getField(tag);
 
-			String label = getHTMLEscaped(spec.getLabel());			
-			String value = field.getData();
+			String label = getHTMLEscaped(spec.getLabel());
+			Object value = field.getData();
 			FieldType fieldType = spec.getType();
 
 			if(tag.equals(Bulletin.TAGTITLE))
-				value = "<strong>" + getHTMLEscaped(value) + "</strong>";
+				value = "<strong>" + getHTMLEscaped(field.getData()) + "</strong>";
 			else if(fieldType.isSectionStart())
 			{
 				String horizontalRuler = "<HR></HR>";
@@ -237,31 +305,27 @@ public class BulletinHtmlGenerator
 				value = horizontalRuler;
 			}
 			else if(fieldType.isGrid())
-				value = getGridHTML(fdp, spec, tag);
+				value = new GridHtml(fdp, spec, tag);
 			else
 				value = getFieldDataAsHtml(field);
-			
+
 			if(StandardFieldSpecs.isStandardFieldTag(tag))
 				label = getHTMLEscaped(localization.getFieldLabel(tag));
-			
+
 			if(!spec.keepWithPrevious() && pendingValues.size() > 0)
 			{
-				String fieldHtml = getFieldRowHtmlString((String[])pendingValues.toArray(new String[0]));
-				sectionHtml += fieldHtml;
+				appendFieldRowHtml(sectionHtml, pendingValues.toArray());
 				pendingValues.clear();
 			}
 			pendingValues.add(label);
 			pendingValues.add(value);
 		}
-		
+
 		if(pendingValues.size() > 0)
 		{
-			String fieldHtml = getFieldRowHtmlString((String[])pendingValues.toArray(new String[0]));
-			sectionHtml += fieldHtml;
+			appendFieldRowHtml(sectionHtml, pendingValues.toArray());
 			pendingValues.clear();
 		}
-
-		return sectionHtml;
 	}
 
 	private String getFieldDataAsHtml(MartusField field) throws Exception
@@ -295,21 +359,21 @@ public class BulletinHtmlGenerator
 		return value;
 	}
 
-	private String getGridHTML(FieldDataPacket fdp, FieldSpec spec, String tag)
+	private void appendGridHtml(Appendable value, FieldDataPacket fdp, FieldSpec spec, String tag) throws IOException
 	{
 		String gridXMLData = fdp.get(tag);
 		if(gridXMLData.length()==0)
-			return "";
-		
+			return;
+
 		GridFieldSpec grid = (GridFieldSpec)spec;
 		String tableAlignment = "left";
 		if(LanguageOptions.isRightToLeftLanguage())
 			tableAlignment = "right";
-		String value = "<table border='1' align='" + tableAlignment + "'><tr>";
+		value.append("<table border='1' align='" + tableAlignment + "'><tr>");
 		String justification = "center";
 		if(!LanguageOptions.isRightToLeftLanguage())
-			value += buildElementWithAlignment(getHTMLEscaped(grid.getColumnZeroLabel()),TABLE_HEADER, justification);
-		
+			appendElementWithAlignment(value, getHTMLEscaped(grid.getColumnZeroLabel()),TABLE_HEADER, justification);
+
 		int columnCount = grid.getColumnCount();
 		FieldSpecCollection columnSpecs = new FieldSpecCollection();
 		for(int i = 0; i < columnCount; ++i)
@@ -317,13 +381,13 @@ public class BulletinHtmlGenerator
 			String data = grid.getColumnLabel(i);
 			if(LanguageOptions.isRightToLeftLanguage())
 				data = grid.getColumnLabel((columnCount-1)-i);
-			value += buildElementWithAlignment(getHTMLEscaped(data),TABLE_HEADER, justification);
+			appendElementWithAlignment(value, getHTMLEscaped(data),TABLE_HEADER, justification);
 			columnSpecs.add(grid.getFieldSpec(i));
 		}
 		if(LanguageOptions.isRightToLeftLanguage())
-			value += buildElementWithAlignment(getHTMLEscaped(grid.getColumnZeroLabel()),TABLE_HEADER, justification);
-		value += "</tr>";
-		
+			appendElementWithAlignment(value, getHTMLEscaped(grid.getColumnZeroLabel()),TABLE_HEADER, justification);
+		value.append("</tr>");
+
 		try
 		{
 			columnSpecs.addAllReusableChoicesLists(fdp.getFieldSpecs().getAllReusableChoiceLists());
@@ -339,9 +403,9 @@ public class BulletinHtmlGenerator
 			
 			for(int r =  0; r<rowCount; ++r)
 			{
-				value += "<tr>";
+				value.append("<tr>");
 				if(!LanguageOptions.isRightToLeftLanguage())
-					value += buildElementWithAlignment(getHTMLEscaped(Integer.toString(r+1)),TABLE_DATA, justification);
+					appendElementWithAlignment(value, getHTMLEscaped(Integer.toString(r+1)),TABLE_DATA, justification);
 				for(int i = 0; i<columnCount; ++i)
 				{
 				   int column = i;
@@ -352,25 +416,36 @@ public class BulletinHtmlGenerator
 					String rawData = gridData.getValueAt(r, column);
 					field.setData(rawData);
 					String printableData = getFieldDataAsHtml(field);
-					value += buildElementWithAlignment(printableData, TABLE_DATA, justification);
+					appendElementWithAlignment(value, printableData, TABLE_DATA, justification);
 				}
-				
+
 				if(LanguageOptions.isRightToLeftLanguage())
-					value += buildElementWithAlignment(getHTMLEscaped(Integer.toString(r+1)),TABLE_DATA, justification);
-				value += "</tr>";
+					appendElementWithAlignment(value, getHTMLEscaped(Integer.toString(r+1)),TABLE_DATA, justification);
+				value.append("</tr>");
 			}
 		}
+		catch (IOException e)
+		{
+			throw e;
+		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
 		}
-		value += "</table>";
-		return value;
+		value.append("</table>");
 	}
 
-	private String buildElementWithAlignment(String data, String type, String justification)
+	private void appendElementWithAlignment(Appendable html, String data, String type, String justification) throws IOException
 	{
-		return "<"+type+" align='"+justification+"'>"+data+"</"+type+">";
+		html.append("<");
+		html.append(type);
+		html.append(" align='");
+		html.append(justification);
+		html.append("'>");
+		html.append(data);
+		html.append("</");
+		html.append(type);
+		html.append(">");
 	}
 
 	private String getSizeInKb(int sizeBytes)
@@ -407,10 +482,10 @@ public class BulletinHtmlGenerator
 		return size;
 	}
 
-	private String getAttachmentsHtmlString(Bulletin b, AttachmentProxy[] attachments, ReadableDatabase db)
+	private void appendAttachmentsHtml(Appendable html, Bulletin b, AttachmentProxy[] attachments, ReadableDatabase db) throws IOException
 	{
-		String attachmentList = "";
-	
+		StringBuffer attachmentList = new StringBuffer();
+
 		for(int i = 0 ; i < attachments.length ; ++i)
 		{
 			AttachmentProxy aProxy = attachments[i];
@@ -424,22 +499,38 @@ public class BulletinHtmlGenerator
 				size = tmp;
 			}
 
-			attachmentList += "<p>" + getHTMLEscaped(label) + "    " + getHTMLEscaped(size) + "</p>";
+			attachmentList.append("<p>" + getHTMLEscaped(label) + "    " + getHTMLEscaped(size) + "</p>");
 		}
-		return getFieldHtmlString(localization.getFieldLabel("attachments"), attachmentList);
+		appendFieldRowHtml(html, new Object[] {localization.getFieldLabel("attachments"), attachmentList.toString(), });
 	}
 
-	private static String getHtmlEscapedFieldHtmlString(String label, String value)
+	private static void appendHtmlEscapedFieldHtml(Appendable html, String label, String value) throws IOException
 	{
-		return getFieldHtmlString(getHTMLEscaped(label), getHTMLEscaped(value));
+		appendFieldRowHtml(html, new Object[] {getHTMLEscaped(label), getHTMLEscaped(value), });
 	}
 
 	public static String getFieldHtmlString(String label, String value)
 	{
 		return getFieldRowHtmlString(new String[] {label, value, });
 	}
-	
+
 	public static String getFieldRowHtmlString(String[] values)
+	{
+		StringBuffer fieldHtml = new StringBuffer();
+		try
+		{
+			appendFieldRowHtml(fieldHtml, values);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return new String(fieldHtml);
+	}
+
+	// NOTE: Each value is either an html String or an HtmlValue that
+	// writes itself, so big grids never exist as one intermediate String
+	private static void appendFieldRowHtml(Appendable fieldHtml, Object[] values) throws IOException
 	{
 		int valueIndex = 0;
 		int delta = 1;
@@ -448,47 +539,45 @@ public class BulletinHtmlGenerator
 			valueIndex = values.length -1;
 			delta = -1;
 		}
-		
-		StringBuffer fieldHtml = new StringBuffer();
+
 		fieldHtml.append("<tr>");
 
 		if(delta > 0)
 		{
-			fieldHtml.append(getLabelHtml(values[valueIndex]));
+			appendLabelHtml(fieldHtml, values[valueIndex]);
 			valueIndex += delta;
 		}
-		
+
 		if(values.length > 2)
 		{
 			String alignment = LanguageOptions.isRightToLeftLanguage() ? "right" : "left";
 			fieldHtml.append("<td align='" + alignment + "' valign='top'>");
 			fieldHtml.append("<table cellpadding='0'><tr>");
-			
+
 			for(int i = 0; i < values.length - 1; ++i)
 			{
 				if(i > 0)
 					fieldHtml.append(getPaddingCellHtml());
-				fieldHtml.append(getCellHtml(values[valueIndex]));
+				appendCellHtml(fieldHtml, values[valueIndex]);
 				valueIndex += delta;
 			}
-	
+
 			fieldHtml.append("</tr></table>");
 			fieldHtml.append("</td>");
 		}
 		else
 		{
-			fieldHtml.append(getCellHtml(values[valueIndex]));
+			appendCellHtml(fieldHtml, values[valueIndex]);
 			valueIndex += delta;
 		}
 
 		if(delta < 0)
 		{
-			fieldHtml.append(getLabelHtml(values[valueIndex]));
+			appendLabelHtml(fieldHtml, values[valueIndex]);
 			valueIndex += delta;
 		}
-		
+
 		fieldHtml.append("</tr>\n");
-		return new String(fieldHtml);
 	}
 
 	private static String getPaddingCellHtml()
@@ -496,21 +585,28 @@ public class BulletinHtmlGenerator
 		return "<td width='10'></td>";
 	}
 
-	private static String getCellHtml(String value) 
+	private static void appendCellHtml(Appendable html, Object value) throws IOException
 	{
 		String alignment = LanguageOptions.isRightToLeftLanguage() ? "right" : "left";
-		return getCellHtmlWithAlignment(value, alignment);
+		appendCellHtmlWithAlignment(html, value, alignment);
 	}
 
-	private static String getLabelHtml(String label) 
+	private static void appendLabelHtml(Appendable html, Object label) throws IOException
 	{
 		String alignment = LanguageOptions.isRightToLeftLanguage() ? "left" : "right";
-		return getCellHtmlWithAlignment(label, alignment);
+		appendCellHtmlWithAlignment(html, label, alignment);
 	}
-	
-	private static String getCellHtmlWithAlignment(String value, String alignment)
+
+	private static void appendCellHtmlWithAlignment(Appendable html, Object value, String alignment) throws IOException
 	{
-		return "<td align='" + alignment + "' valign='top'>" + value + "</td>";
+		html.append("<td align='");
+		html.append(alignment);
+		html.append("' valign='top'>");
+		if(value instanceof HtmlValue)
+			((HtmlValue)value).appendHtml(html);
+		else
+			html.append((String)value);
+		html.append("</td>");
 	}
 
 	private String insertNewlines(String value)
@@ -545,9 +641,35 @@ public class BulletinHtmlGenerator
 		return XmlUtilities.getXmlEncoded(text);
 	}
 
+	interface HtmlValue
+	{
+		void appendHtml(Appendable html) throws IOException;
+	}
+
+	class GridHtml implements HtmlValue
+	{
+		GridHtml(FieldDataPacket fdpToUse, FieldSpec specToUse, String tagToUse)
+		{
+			fdp = fdpToUse;
+			spec = specToUse;
+			tag = tagToUse;
+		}
+
+		public void appendHtml(Appendable html) throws IOException
+		{
+			appendGridHtml(html, fdp, spec, tag);
+		}
+
+		FieldDataPacket fdp;
+		FieldSpec spec;
+		String tag;
+	}
+
 	int width;
 	MiniLocalization localization;
 
+	private static final int INITIAL_BUFFER_SIZE = 1000;
+	private static final String BULLETIN_SEPARATOR = "<p></p>\n";
 	private static final int LABEL_COLUMN_WIDTH_PERCENTAGE = 15;
 	private static final String TABLE_HEADER = "th";
 	private static final String TABLE_DATA = "td";
@@ -120,7 +120,7 @@ public class BulletinLoader
 			}
 			try
 			{
-				packet.loadFromXml(in.convertToInMemoryStream(), expectedSig, verifier);
+				packet.loadFromXml(in, expectedSig, verifier);
 			}
 			finally
 			{
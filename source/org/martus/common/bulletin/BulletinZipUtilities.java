@@ -36,11 +36,18 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import org.martus.common.DaemonThreadPool;
 import org.martus.common.MartusConstants;
 import org.martus.common.MartusUtilities;
 import org.martus.common.ProgressMeterInterface;
@@ -225,6 +232,27 @@ public class BulletinZipUtilities
 	{
 		BulletinHeaderPacket bhp = BulletinHeaderPacket.loadFromZipFile(zip, security);
 		DatabaseKey[] keys = bhp.getPublicPacketKeys();
+		Vector packetEntries = getPacketEntriesToValidate(zip, keys);
+		validatePackets(authorAccountId, zip, packetEntries, security, null);
+	}
+
+	public static void validateIntegrityOfZipFilePackets(String authorAccountId, ZipFile zip, MartusCrypto security)
+		throws Exception
+	{
+		validateIntegrityOfZipFilePackets(authorAccountId, zip, security, null);
+	}
+
+	public static void validateIntegrityOfZipFilePackets(String authorAccountId, ZipFile zip, MartusCrypto security, ExecutorService executor)
+		throws Exception
+	{
+		BulletinHeaderPacket bhp = BulletinHeaderPacket.loadFromZipFile(zip, security);
+		DatabaseKey[] keys = BulletinZipUtilities.getAllPacketKeys(bhp);
+		Vector packetEntries = getPacketEntriesToValidate(zip, keys);
+		validatePackets(authorAccountId, zip, packetEntries, security, executor);
+	}
+
+	private static Vector getPacketEntriesToValidate(ZipFile zip, DatabaseKey[] keys) throws Exception
+	{
 		Vector localIds = new Vector();
 		for (int i = 0; i < keys.length; i++)
 			localIds.add(keys[i].getLocalId());
@@ -236,6 +264,7 @@ public class BulletinZipUtilities
 			throw new Packet.InvalidPacketException("Empty zip file");
 		}
 	
+		Vector packetEntries = new Vector();
 		while(entries.hasMoreElements())
 		{
 			ZipEntry entry = (ZipEntry)entries.nextElement();
@@ -260,60 +289,101 @@ public class BulletinZipUtilities
 			if(!localIds.contains(thisLocalId))
 				throw new IOException("Extra packet");
 			localIds.remove(thisLocalId);
-			InputStreamWithSeek in = new ZipEntryInputStreamWithSeek(zip, entry);
-			Packet.validateXml(in, authorAccountId, entry.getName(), null, security);
+			packetEntries.add(entry);
 		}
 	
 		if(localIds.size() > 0)
 			throw new IOException("Missing packets");
+		
+		return packetEntries;
 	}
 
-	public static void validateIntegrityOfZipFilePackets(String authorAccountId, ZipFile zip, MartusCrypto security)
-		throws Exception
+	private static void validatePackets(String authorAccountId, ZipFile zip, Vector packetEntries, MartusCrypto security, ExecutorService executor) throws Exception
 	{
-		BulletinHeaderPacket bhp = BulletinHeaderPacket.loadFromZipFile(zip, security);
-		DatabaseKey[] keys = BulletinZipUtilities.getAllPacketKeys(bhp);
-		Vector localIds = new Vector();
-		for (int i = 0; i < keys.length; i++)
-			localIds.add(keys[i].getLocalId());
-	
-		//TODO validate Header Packet matches other packets
-		Enumeration entries = zip.entries();
-		if(!entries.hasMoreElements())
+		if(executor == null || packetEntries.size() < 2)
 		{
-			throw new Packet.InvalidPacketException("Empty zip file");
+			for(int i = 0; i < packetEntries.size(); ++i)
+				validatePacket(authorAccountId, zip, (ZipEntry)packetEntries.get(i), security);
+			return;
 		}
-	
-		while(entries.hasMoreElements())
+
+		CompletionService completionService = new ExecutorCompletionService(executor);
+		Vector pending = new Vector();
+		try
 		{
-			ZipEntry entry = (ZipEntry)entries.nextElement();
-	
-			if(entry.isDirectory())
-			{
-				throw new Packet.InvalidPacketException("Directory entry");
-			}
-	
-			if(entry.getName().startsWith(".."))
+			for(int i = 0; i < packetEntries.size(); ++i)
 			{
-				throw new Packet.InvalidPacketException("Relative path in name");
+				ZipEntry entry = (ZipEntry)packetEntries.get(i);
+				pending.add(completionService.submit(new PacketValidator(authorAccountId, zip, entry, security)));
 			}
-	
-			if(entry.getName().indexOf("\\") >= 0 ||
-				entry.getName().indexOf("/") >= 0 )
+
+			// NOTE: Results are taken in completion order, so the first
+			// invalid packet is reported without waiting for the others
+			for(int i = 0; i < pending.size(); ++i)
 			{
-				throw new Packet.InvalidPacketException("Path in name");
+				Future done = completionService.take();
+				try
+				{
+					done.get();
+				}
+				catch(ExecutionException e)
+				{
+					Throwable cause = e.getCause();
+					if(cause instanceof Exception)
+						throw (Exception)cause;
+					if(cause instanceof Error)
+						throw (Error)cause;
+					throw e;
+				}
 			}
-	
-			String thisLocalId = entry.getName();
-			if(!localIds.contains(thisLocalId))
-				throw new IOException("Extra packet");
-			localIds.remove(thisLocalId);
-			InputStreamWithSeek in = new ZipEntryInputStreamWithSeek(zip, entry);
+		}
+		finally
+		{
+			for(int i = 0; i < pending.size(); ++i)
+				((Future)pending.get(i)).cancel(false);
+		}
+	}
+
+	static void validatePacket(String authorAccountId, ZipFile zip, ZipEntry entry, MartusCrypto security) throws Exception
+	{
+		InputStreamWithSeek in = new ZipEntryInputStreamWithSeek(zip, entry);
+		try
+		{
 			Packet.validateXml(in, authorAccountId, entry.getName(), null, security);
 		}
-	
-		if(localIds.size() > 0)
-			throw new IOException("Missing packets");
+		finally
+		{
+			in.close();
+		}
+	}
+
+	static class PacketValidator implements Callable
+	{
+		PacketValidator(String authorAccountIdToUse, ZipFile zipToUse, ZipEntry entryToUse, MartusCrypto securityToUse)
+		{
+			authorAccountId = authorAccountIdToUse;
+			zip = zipToUse;
+			entry = entryToUse;
+			security = securityToUse;
+		}
+
+		public Object call() throws Exception
+		{
+			validatePacket(authorAccountId, zip, entry, security);
+			return null;
+		}
+
+		String authorAccountId;
+		ZipFile zip;
+		ZipEntry entry;
+		MartusCrypto security;
+	}
+
+	public static synchronized ExecutorService getPacketValidationExecutor()
+	{
+		if(packetValidationExecutor == null)
+			packetValidationExecutor = DaemonThreadPool.create("PacketValidation", MAX_PACKET_VALIDATION_THREADS);
+		return packetValidationExecutor;
 	}
 
 	public static int retrieveBulletinZipToStream(UniversalId uid, OutputStream outputStream,
@@ -378,4 +448,7 @@ public class BulletinZipUtilities
 	
 	//For Debugging: we think this isn't needed and is slow, but might be helpful if we are having problems with invalid zips
 	static boolean debugValidateIntegrityOfZipFilePublicPackets = false;
+
+	private static final int MAX_PACKET_VALIDATION_THREADS = 8;
+	private static ExecutorService packetValidationExecutor;
 }
@@ -25,10 +25,14 @@ Boston, MA 02111-1307, USA.
 */
 package org.martus.common.bulletin;
 
+import java.io.StringWriter;
+import java.io.Writer;
+
 import org.martus.common.EnglishCommonStrings;
 import org.martus.common.FieldSpecCollection;
 import org.martus.common.GridData;
 import org.martus.common.MiniLocalization;
+import org.martus.common.PoolOfReusableChoicesLists;
 import org.martus.common.crypto.MockMartusSecurity;
 import org.martus.common.fieldspec.ChoiceItem;
 import org.martus.common.fieldspec.CustomDropDownFieldSpec;
@@ -314,6 +318,99 @@ public class TestBulletinHtmlGenerator extends TestCaseEnhanced
 		}
 	}
 	
+	public void testWriteHtml() throws Exception
+	{
+		GridData grid = TestGridData.createSampleGridWithData();
+		GridFieldSpec gridSpec = TestGridData.createSampleGridSpec();
+		FieldSpecCollection gridSpecs = new FieldSpecCollection(new FieldSpec[] {gridSpec});
+		FieldSpecCollection standardPrivateFields = StandardFieldSpecs.getDefaultBottomSectionFieldSpecs();
+
+		Bulletin b1 = new Bulletin(security, gridSpecs, standardPrivateFields);
+		b1.set(gridSpec.getTag(), grid.getXmlRepresentation());
+		store.saveBulletinForTesting(b1);
+		Bulletin b2 = new Bulletin(security);
+		b2.set(Bulletin.TAGTITLE, "Second <title>");
+		store.saveBulletinForTesting(b2);
+
+		BulletinHtmlGenerator generator = new BulletinHtmlGenerator(loc);
+		StringWriter single = new StringWriter();
+		generator.writeHtml(single, b1, store.getDatabase(), true, true);
+		assertEquals("Streamed HTML not the same?", generator.getHtmlString(b1, store.getDatabase(), true, true), single.toString());
+
+		StringWriter batch = new StringWriter();
+		generator.writeHtml(batch, new Bulletin[] {b1, b2}, store.getDatabase(), true, false);
+		String html = batch.toString();
+		String fragment1 = generator.getHtmlFragment(b1, store.getDatabase(), true, false);
+		String fragment2 = generator.getHtmlFragment(b2, store.getDatabase(), true, false);
+		assertStartsWith("first bulletin not first?", "<html>" + fragment1, html);
+		assertContains("second bulletin missing?", fragment2 + "</html>", html);
+		assertEquals("html tags repeated?", html.indexOf("<html>"), html.lastIndexOf("<html>"));
+
+		StringWriter empty = new StringWriter();
+		generator.writeHtml(empty, new Bulletin[0], store.getDatabase(), true, true);
+		assertEquals("<html></html>", empty.toString());
+	}
+
+	public void testWriteHtmlSpeed() throws Exception
+	{
+		final int BULLETIN_COUNT = DO_SPEED_TESTS ? 1000 : 10;
+		final int ROW_COUNT = DO_SPEED_TESTS ? 200 : 20;
+
+		GridFieldSpec gridSpec = TestGridData.createSampleGridSpec();
+		GridData grid = new GridData(gridSpec, new PoolOfReusableChoicesLists());
+		for(int r = 0; r < ROW_COUNT; ++r)
+		{
+			grid.addEmptyRow();
+			grid.setValueAt("row " + r + " <first>", r, 0);
+			grid.setValueAt("row " + r + " & second", r, 1);
+		}
+		FieldSpecCollection gridSpecs = new FieldSpecCollection(new FieldSpec[] {gridSpec});
+		Bulletin b = new Bulletin(security, gridSpecs, StandardFieldSpecs.getDefaultBottomSectionFieldSpecs());
+		b.set(gridSpec.getTag(), grid.getXmlRepresentation());
+		store.saveBulletinForTesting(b);
+
+		Bulletin[] bulletins = new Bulletin[BULLETIN_COUNT];
+		for(int i = 0; i < bulletins.length; ++i)
+			bulletins[i] = b;
+
+		BulletinHtmlGenerator generator = new BulletinHtmlGenerator(loc);
+		int fragmentLength = generator.getHtmlFragment(b, store.getDatabase(), true, true).length();
+
+		CountingWriter out = new CountingWriter();
+		//Stopwatch timer = new Stopwatch();
+		generator.writeHtml(out, bulletins, store.getDatabase(), true, true);
+		//long streamedMillis = timer.elapsed();
+		assertTrue("didn't write every bulletin?", out.count > (long)fragmentLength * BULLETIN_COUNT);
+
+		//timer = new Stopwatch();
+		for(int i = 0; i < bulletins.length; ++i)
+			generator.getHtmlString(bulletins[i], store.getDatabase(), true, true);
+		//long stringMillis = timer.elapsed();
+		//System.out.println("Rendered " + BULLETIN_COUNT + " bulletins with " + ROW_COUNT + "-row grids:");
+		//System.out.println("  streamed: " + streamedMillis + "ms (" + out.count + " chars)");
+		//System.out.println("  as strings: " + stringMillis + "ms");
+	}
+
+	static class CountingWriter extends Writer
+	{
+		public void write(char[] cbuf, int off, int len)
+		{
+			count += len;
+		}
+
+		public void flush()
+		{
+		}
+
+		public void close()
+		{
+		}
+
+		long count;
+	}
+
+	static boolean DO_SPEED_TESTS = false;
+
 	private static MockMartusSecurity security;
 	private static MiniLocalization loc;
 	private static MockBulletinStore store;
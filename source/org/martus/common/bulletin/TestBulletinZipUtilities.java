@@ -26,11 +26,20 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.bulletin;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
+import org.martus.common.MartusXml;
 import org.martus.common.crypto.MartusSecurity;
 import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.packet.Packet;
 import org.martus.common.test.MockBulletinStore;
 import org.martus.util.StreamableBase64;
 import org.martus.util.TestCaseEnhanced;
@@ -67,4 +76,78 @@ public class TestBulletinZipUtilities extends TestCaseEnhanced
 		assertEquals("Same bulletin zip has different digests?", digest1, digest2);
 	}
 
+	public void testParallelValidation() throws Exception
+	{
+		MockMartusSecurity security = MockMartusSecurity.createClient();
+		MockBulletinStore store = new MockBulletinStore(this);
+		Bulletin b = new Bulletin(security);
+		b.set(Bulletin.TAGTITLE, "parallel");
+		for(int i = 0; i < 5; ++i)
+			b.addPublicAttachment(new AttachmentProxy(createTempFileFromName("$$$MartusAttachment" + i)));
+		store.saveBulletinForTesting(b);
+
+		File zipFile = createTempFile();
+		BulletinZipUtilities.exportBulletinPacketsFromDatabaseToZipFile(store.getDatabase(), b.getDatabaseKey(), zipFile, security);
+		ZipFile zip = new ZipFile(zipFile);
+		try
+		{
+			BulletinZipUtilities.validateIntegrityOfZipFilePackets(b.getAccount(), zip, security, BulletinZipUtilities.getPacketValidationExecutor());
+		}
+		finally
+		{
+			zip.close();
+		}
+
+		File tamperedZipFile = createCopyWithTamperedPacket(zipFile, "F-");
+		ZipFile tamperedZip = new ZipFile(tamperedZipFile);
+		try
+		{
+			BulletinZipUtilities.validateIntegrityOfZipFilePackets(b.getAccount(), tamperedZip, security, BulletinZipUtilities.getPacketValidationExecutor());
+			fail("Should have thrown for tampered packet");
+		}
+		catch(Packet.SignatureVerificationException ignoreExpectedException)
+		{
+		}
+		finally
+		{
+			tamperedZip.close();
+		}
+
+		store.deleteAllData();
+		zipFile.delete();
+		tamperedZipFile.delete();
+	}
+
+	private File createCopyWithTamperedPacket(File zipFile, String localIdPrefix) throws Exception
+	{
+		File copiedZipFile = createTempFile();
+		ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(copiedZipFile));
+		ZipFile zip = new ZipFile(zipFile);
+		Enumeration entries = zip.entries();
+		while(entries.hasMoreElements())
+		{
+			ZipEntry entry = (ZipEntry)entries.nextElement();
+			InputStream in = zip.getInputStream(entry);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			int got;
+			byte[] buffer = new byte[1024];
+			while( (got = in.read(buffer)) >= 0)
+				data.write(buffer, 0, got);
+			in.close();
+
+			String text = new String(data.toByteArray(), "UTF-8");
+			if(entry.getName().startsWith(localIdPrefix))
+			{
+				int sigAt = text.indexOf(MartusXml.packetSignatureStart);
+				text = text.substring(0, sigAt) + "<!-- tampered -->\n" + text.substring(sigAt);
+			}
+
+			zipOut.putNextEntry(new ZipEntry(entry.getName()));
+			zipOut.write(text.getBytes("UTF-8"));
+			zipOut.closeEntry();
+		}
+		zip.close();
+		zipOut.close();
+		return copiedZipFile;
+	}
 }
@@ -26,10 +26,19 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.bulletinstore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
@@ -40,17 +49,41 @@ import org.martus.common.bulletin.Bulletin;
 import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.database.Database;
 import org.martus.common.database.DatabaseKey;
+import org.martus.common.database.FileDatabase;
 import org.martus.common.database.ReadableDatabase;
 import org.martus.common.packet.BulletinHeaderPacket;
 import org.martus.common.packet.BulletinHistory;
 import org.martus.common.packet.UniversalId;
+import org.martus.util.UnicodeReader;
+import org.martus.util.UnicodeWriter;
 
+/*
+ * When the store lives in a FileDatabase, the cache is kept on disk as a
+ * signed snapshot plus a journal of the revisions saved or removed since
+ * then. Journal entries carry a sequence number, and the snapshot records
+ * the last one it includes (its high-water mark), so restarting costs one
+ * snapshot read plus a header load per newer journal entry, instead of
+ * loading every header in the store.
+ *
+ * Like the PacketIndex, each change is first logged as a synced line before
+ * the database is touched, and again once it is done. Replaying a journal
+ * entry means re-reading that revision from the database, so a change that
+ * was interrupted by a crash is picked up on the next load. Clearing the
+ * cache throws the snapshot away, so the next query rescans the database.
+ *
+ * The cache also knows which revisions exist, and keeps the current leaves
+ * of each account, so leaf queries only have to confirm that the revisions
+ * they return are still in the database, instead of scanning it. A revision
+ * that has gone missing is dropped from the cache on the spot.
+ */
 public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Database.PacketVisitor
 {
 	public BulletinHistoryAndHqCache(BulletinStore storeToUse)
 	{
 		store = storeToUse;
-		clear();
+		pendingChanges = new HashSet();
+		isValid = false;
+		clearMaps();
 	}
 	
 	public synchronized void storeWasCleared()
@@ -63,9 +96,17 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 		fill();
 	}
 
+	public synchronized void revisionWillChange(UniversalId uid)
+	{
+		fill();
+		pendingChanges.add(uid);
+		appendToJournal(JOURNAL_CHANGING, uid);
+	}
+
 	public synchronized void revisionWasSaved(UniversalId uid)
 	{
 		fill();
+		pendingChanges.remove(uid);
 		DatabaseKey key = findKey(store.getDatabase(), uid);
 		if(key == null)
 		{
@@ -73,6 +114,7 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 			return;
 		}
 		visit(key);
+		appendToJournal(JOURNAL_SAVED, uid);
 	}
 	
 	public synchronized void revisionWasSaved(Bulletin b)
@@ -82,7 +124,56 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	
 	public synchronized void revisionWasRemoved(UniversalId uid)
 	{
-		// No action required
+		fill();
+		pendingChanges.remove(uid);
+		removeRevision(uid);
+		appendToJournal(JOURNAL_REMOVED, uid);
+	}
+	
+	public synchronized boolean isLeaf(UniversalId uid)
+	{
+		fill();
+		if(!confirmExists(uid))
+			return false;
+		return !hasNewerRevision(uid);
+	}
+	
+	public synchronized boolean hasNewerRevision(UniversalId uid)
+	{
+		fill();
+		Iterator it = getAllKnownDescendents(uid).iterator();
+		while(it.hasNext())
+		{
+			if(confirmExists((UniversalId)it.next()))
+				return true;
+		}
+		return false;
+	}
+	
+	public synchronized int getLeafCount()
+	{
+		return getAllLeafUids().size();
+	}
+	
+	public synchronized Set getAllLeafUids()
+	{
+		fill();
+		Set leafUids = new HashSet();
+		Iterator it = new Vector(leafUidsPerAccount.keySet()).iterator();
+		while(it.hasNext())
+			leafUids.addAll(getConfirmedLeafUids((String)it.next()));
+		return leafUids;
+	}
+	
+	public synchronized Vector getAllLeafKeys()
+	{
+		return getKeys(getAllLeafUids());
+	}
+	
+	public synchronized Vector getLeafKeysForAccount(String accountId)
+	{
+		fill();
+		return getKeys(getConfirmedLeafUids(accountId));
 	}
 	
 	public synchronized Set getAllKnownDescendents(UniversalId uid)
@@ -104,7 +195,7 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	public synchronized Vector getFieldOffices(String hqAccountId)
 	{
 		fill();
-		return new Vector(internalGetFieldOffices(hqAccountId));
+		return new Vector(internalGetFieldOfficeCounts(hqAccountId).keySet());
 	}
 	
 	// TODO: NOTE! There is a corner case where this could return an incorrect value:
@@ -124,16 +215,57 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	
 	
 	
+	private Set getConfirmedLeafUids(String accountId)
+	{
+		while(true)
+		{
+			Set leafUids = (Set)leafUidsPerAccount.get(accountId);
+			if(leafUids == null)
+				return new HashSet();
+
+			// NOTE: Dropping a missing leaf can promote its ancestor, 
+			// which then has to be confirmed as well
+			Set candidates = new HashSet(leafUids);
+			boolean removedAny = false;
+			Iterator it = candidates.iterator();
+			while(it.hasNext())
+			{
+				if(!confirmExists((UniversalId)it.next()))
+					removedAny = true;
+			}
+			if(!removedAny)
+				return candidates;
+		}
+	}
+
+	private boolean confirmExists(UniversalId uid)
+	{
+		DatabaseKey key = (DatabaseKey)uidToKeyMap.get(uid);
+		if(key != null && getDatabase().doesRecordExist(key))
+			return true;
+
+		recheckRevision(uid);
+		return uidToKeyMap.containsKey(uid);
+	}
+
 	private void fill()
 	{
 		if(isValid)
 			return;
 
+		clearMaps();
+		if(loadPersistentState())
+		{
+			isValid = true;
+			return;
+		}
+
 		String STATUS_TEXT = "BulletinHistoryAndHqCache rebuild";
 		MartusLogger.logBeginProcess(STATUS_TEXT);
-		clear();
+		clearMaps();
 		store.visitAllBulletinRevisions(this);
 		isValid = true;
+		savePersistentState();
 		MartusLogger.logEndProcess(STATUS_TEXT);
 	}
 
@@ -141,16 +273,26 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	{
 		MartusLogger.log("BulletinHistoryAndHqCache cleared");
 		isValid = false;
+		clearMaps();
+		discardPersistentState();
+	}
+
+	private void clearMaps()
+	{
 		hitErrorsDuringScan = false;
 		uidToChildrenMap = Collections.synchronizedMap(new HashMap());
+		uidToParentMap = Collections.synchronizedMap(new HashMap());
+		uidToHqKeys = Collections.synchronizedMap(new HashMap());
 		fieldOfficesPerHq = Collections.synchronizedMap(new HashMap());
+		uidToKeyMap = Collections.synchronizedMap(new HashMap());
+		leafUidsPerAccount = Collections.synchronizedMap(new HashMap());
 	}
 
-	private Set internalGetFieldOffices(String hqAccountId)
+	private Map internalGetFieldOfficeCounts(String hqAccountId)
 	{
-		Set results = (Set)fieldOfficesPerHq.get(hqAccountId);
+		Map results = (Map)fieldOfficesPerHq.get(hqAccountId);
 		if(results == null)
-			results = Collections.synchronizedSet(new HashSet());
+			results = Collections.synchronizedMap(new HashMap());
 		
 		return results;
 	}
@@ -162,6 +304,7 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	
 	public void visit(DatabaseKey key)
 	{
+		uidToKeyMap.put(key.getUniversalId(), key);
 		try
 		{
 			BulletinHeaderPacket bhp = BulletinStore.loadBulletinHeaderPacket(getDatabase(), key, getSecurity());
@@ -174,6 +317,7 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 			// FIXME: Before next server release: change this to use a logger so we see problems on the server!
 			//e.printStackTrace();
 		}
+		updateLeavesAfterSave(key.getUniversalId());
 	}
 
 	private ReadableDatabase getDatabase()
@@ -188,15 +332,48 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 	
 	private void addToCachedHqInformation(DatabaseKey key, HeadquartersKeys hqs)
 	{
+		UniversalId uid = key.getUniversalId();
+		removeFromCachedHqInformation(uid);
+		if(hqs.isEmpty())
+			return;
+
+		String[] hqKeys = new String[hqs.size()];
 		for(int i=0; i < hqs.size(); ++i)
+			hqKeys[i] = hqs.get(i).getPublicKey();
+		uidToHqKeys.put(uid, hqKeys);
+		addFieldOffice(uid.getAccountId(), hqKeys);
+	}
+
+	private void addFieldOffice(String fieldOfficeAccountId, String[] hqKeys)
+	{
+		for(int i=0; i < hqKeys.length; ++i)
 		{
-			String thisHqKey = hqs.get(i).getPublicKey();
-			Set fieldOffices = internalGetFieldOffices(thisHqKey);
-			if(!fieldOffices.contains(key.getAccountId()))
-			{
-				fieldOffices.add(key.getAccountId());
-				fieldOfficesPerHq.put(thisHqKey, fieldOffices);
-			}
+			Map fieldOffices = internalGetFieldOfficeCounts(hqKeys[i]);
+			Integer count = (Integer)fieldOffices.get(fieldOfficeAccountId);
+			int newCount = (count == null) ? 1 : count.intValue() + 1;
+			fieldOffices.put(fieldOfficeAccountId, new Integer(newCount));
+			fieldOfficesPerHq.put(hqKeys[i], fieldOffices);
+		}
+	}
+
+	private void removeFromCachedHqInformation(UniversalId uid)
+	{
+		String[] hqKeys = (String[])uidToHqKeys.remove(uid);
+		if(hqKeys == null)
+			return;
+
+		for(int i=0; i < hqKeys.length; ++i)
+		{
+			Map fieldOffices = internalGetFieldOfficeCounts(hqKeys[i]);
+			Integer count = (Integer)fieldOffices.get(uid.getAccountId());
+			if(count == null)
+				continue;
+			if(count.intValue() > 1)
+				fieldOffices.put(uid.getAccountId(), new Integer(count.intValue() - 1));
+			else
+				fieldOffices.remove(uid.getAccountId());
+			if(fieldOffices.isEmpty())
+				fieldOfficesPerHq.remove(hqKeys[i]);
 		}
 	}
 
@@ -212,11 +389,135 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 			Set children = getChildren(parent);
 			children.add(child);
 			uidToChildrenMap.put(parent, children);
+			uidToParentMap.put(child, parent);
 			
 			child = parent;
 		}
 	}
 
+	private void updateLeavesAfterSave(UniversalId uid)
+	{
+		if(!hasExistingDescendent(uid))
+			getLeafUids(uid.getAccountId()).add(uid);
+		
+		UniversalId ancestor = (UniversalId)uidToParentMap.get(uid);
+		while(ancestor != null)
+		{
+			removeLeaf(ancestor);
+			ancestor = (UniversalId)uidToParentMap.get(ancestor);
+		}
+	}
+
+	private void removeRevision(UniversalId uid)
+	{
+		uidToKeyMap.remove(uid);
+		if(removeLeaf(uid))
+		{
+			// NOTE: The newest surviving ancestor takes over as the leaf, 
+			// unless another branch below it still has a revision
+			UniversalId ancestor = (UniversalId)uidToParentMap.get(uid);
+			while(ancestor != null)
+			{
+				if(uidToKeyMap.containsKey(ancestor))
+				{
+					if(!hasExistingDescendent(ancestor))
+						getLeafUids(ancestor.getAccountId()).add(ancestor);
+					break;
+				}
+				ancestor = (UniversalId)uidToParentMap.get(ancestor);
+			}
+		}
+		prune(uid);
+	}
+
+	private boolean hasExistingDescendent(UniversalId uid)
+	{
+		Set children = (Set)uidToChildrenMap.get(uid);
+		if(children == null)
+			return false;
+		
+		synchronized(children)
+		{
+			Iterator it = children.iterator();
+			while(it.hasNext())
+			{
+				UniversalId child = (UniversalId)it.next();
+				if(uidToKeyMap.containsKey(child) || hasExistingDescendent(child))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private Set getLeafUids(String accountId)
+	{
+		Set leafUids = (Set)leafUidsPerAccount.get(accountId);
+		if(leafUids == null)
+		{
+			leafUids = Collections.synchronizedSet(new HashSet());
+			leafUidsPerAccount.put(accountId, leafUids);
+		}
+		return leafUids;
+	}
+
+	private boolean removeLeaf(UniversalId uid)
+	{
+		Set leafUids = (Set)leafUidsPerAccount.get(uid.getAccountId());
+		if(leafUids == null || !leafUids.remove(uid))
+			return false;
+		if(leafUids.isEmpty())
+			leafUidsPerAccount.remove(uid.getAccountId());
+		return true;
+	}
+
+	private void rebuildLeaves()
+	{
+		leafUidsPerAccount.clear();
+		Iterator it = uidToKeyMap.keySet().iterator();
+		while(it.hasNext())
+			updateLeavesAfterSave((UniversalId)it.next());
+	}
+
+	private Vector getKeys(Set uids)
+	{
+		Vector keys = new Vector();
+		Iterator it = uids.iterator();
+		while(it.hasNext())
+		{
+			DatabaseKey key = (DatabaseKey)uidToKeyMap.get(it.next());
+			if(key.isMutable())
+				keys.add(DatabaseKey.createMutableKey(key.getUniversalId()));
+			else
+				keys.add(DatabaseKey.createImmutableKey(key.getUniversalId()));
+		}
+		return keys;
+	}
+
+	private void prune(UniversalId uid)
+	{
+		removeFromCachedHqInformation(uid);
+
+		// NOTE: A revision that still has known children stays in the chain,
+		// so its ancestors continue to see those children as descendents.
+		// Ancestors that were only known through this revision go with it.
+		UniversalId current = uid;
+		while(current != null)
+		{
+			if(!getChildren(current).isEmpty())
+				return;
+
+			uidToChildrenMap.remove(current);
+			UniversalId parent = (UniversalId)uidToParentMap.remove(current);
+			if(parent == null)
+				return;
+
+			getChildren(parent).remove(current);
+			if(uidToKeyMap.containsKey(parent))
+				return;
+			current = parent;
+		}
+	}
+
 	private Set getChildren(UniversalId parent)
 	{
 		Set children = (Set)uidToChildrenMap.get(parent);
@@ -224,11 +525,352 @@ public class BulletinHistoryAndHqCache extends BulletinStoreCache implements Dat
 			children = Collections.synchronizedSet(new HashSet());
 		return children;
 	}
+
+	private boolean isPersistent()
+	{
+		if(store.getStoreRootDir() == null)
+			return false;
+		if(!(getDatabase() instanceof FileDatabase))
+			return false;
+		MartusCrypto security = getSecurity();
+		return (security != null && security.hasKeyPair());
+	}
+
+	private File getSnapshotFile()
+	{
+		return new File(store.getStoreRootDir(), SNAPSHOT_FILENAME);
+	}
+
+	private File getJournalFile()
+	{
+		return new File(store.getStoreRootDir(), JOURNAL_FILENAME);
+	}
+
+	private boolean loadPersistentState()
+	{
+		if(!isPersistent() || !getSnapshotFile().exists())
+			return false;
+
+		try
+		{
+			readSnapshot();
+			replayJournal();
+			if(journalEntriesSinceSnapshot > MAX_JOURNAL_ENTRIES)
+				savePersistentState();
+			return true;
+		}
+		catch(Exception e)
+		{
+			MartusLogger.log("BulletinHistoryAndHqCache snapshot rejected: " + e);
+			clearMaps();
+			return false;
+		}
+	}
+
+	synchronized void savePersistentState()
+	{
+		if(!isPersistent())
+			return;
+
+		File snapshotFile = getSnapshotFile();
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		try
+		{
+			byte[] bundle = getSecurity().createSignedBundle(getSnapshotData());
+			FileOutputStream out = new FileOutputStream(tempFile);
+			try
+			{
+				out.write(bundle);
+				out.flush();
+				out.getFD().sync();
+			}
+			finally
+			{
+				out.close();
+			}
+
+			snapshotFile.delete();
+			if(!tempFile.renameTo(snapshotFile))
+				throw new IOException("renameTo failed: " + tempFile + " -> " + snapshotFile);
+			// NOTE: Entries at or below the high-water mark are skipped on
+			// load, so a crash before this delete is harmless
+			getJournalFile().delete();
+			journalEntriesSinceSnapshot = 0;
+		}
+		catch(Exception e)
+		{
+			MartusLogger.logException(e);
+			tempFile.delete();
+			discardPersistentState();
+			return;
+		}
+
+		// NOTE: Changes still in progress are not in the snapshot yet
+		Iterator it = new Vector(pendingChanges).iterator();
+		while(it.hasNext())
+			appendToJournal(JOURNAL_CHANGING, (UniversalId)it.next());
+	}
+
+	private void discardPersistentState()
+	{
+		if(store.getStoreRootDir() == null)
+			return;
+
+		getSnapshotFile().delete();
+		getJournalFile().delete();
+		journalEntriesSinceSnapshot = 0;
+	}
+
+	private void appendToJournal(String operation, UniversalId uid)
+	{
+		if(!isPersistent() || !getSnapshotFile().exists())
+			return;
+
+		try
+		{
+			boolean isStarting = operation.equals(JOURNAL_CHANGING);
+			FileOutputStream out = new FileOutputStream(getJournalFile().getPath(), true);
+			UnicodeWriter writer = new UnicodeWriter(out);
+			try
+			{
+				writer.writeln(Long.toString(nextSequence) + JOURNAL_SEPARATOR + operation + JOURNAL_SEPARATOR + 
+						uid.getAccountId() + JOURNAL_SEPARATOR + uid.getLocalId());
+				writer.flush();
+				// NOTE: Only the starting line has to reach the disk. If the
+				// line written afterwards is lost, replaying the starting
+				// line re-reads the same revision from the database.
+				if(isStarting)
+					out.getFD().sync();
+			}
+			finally
+			{
+				writer.close();
+			}
+			++nextSequence;
+			++journalEntriesSinceSnapshot;
+			if(!isStarting && journalEntriesSinceSnapshot > MAX_JOURNAL_ENTRIES)
+				savePersistentState();
+		}
+		catch(IOException e)
+		{
+			MartusLogger.logException(e);
+			discardPersistentState();
+		}
+	}
+
+	private void replayJournal() throws Exception
+	{
+		File journalFile = getJournalFile();
+		if(!journalFile.exists())
+			return;
+
+		Set uidsToRecheck = new LinkedHashSet();
+		UnicodeReader reader = new UnicodeReader(journalFile);
+		try
+		{
+			String line = null;
+			while( (line = reader.readLine()) != null)
+			{
+				String[] fields = line.split(JOURNAL_SEPARATOR);
+				if(fields.length != 4)
+					throw new IOException("Bad journal line: " + line);
+
+				long sequence = Long.parseLong(fields[0]);
+				if(sequence < nextSequence)
+					continue;
+
+				String operation = fields[1];
+				if(!operation.equals(JOURNAL_CHANGING) && !operation.equals(JOURNAL_SAVED) && !operation.equals(JOURNAL_REMOVED))
+					throw new IOException("Bad journal operation: " + line);
+
+				uidsToRecheck.add(UniversalId.createFromAccountAndLocalId(fields[2], fields[3]));
+				nextSequence = sequence + 1;
+				++journalEntriesSinceSnapshot;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		Iterator it = uidsToRecheck.iterator();
+		while(it.hasNext())
+			recheckRevision((UniversalId)it.next());
+	}
+
+	private void recheckRevision(UniversalId uid)
+	{
+		DatabaseKey key = findKey(getDatabase(), uid);
+		if(key != null)
+			visit(key);
+		else
+			removeRevision(uid);
+	}
+
+	private byte[] getSnapshotData() throws IOException
+	{
+		Vector strings = new Vector();
+		Map stringIndexes = new HashMap();
+
+		ByteArrayOutputStream childrenBytes = new ByteArrayOutputStream();
+		DataOutputStream childrenOut = new DataOutputStream(childrenBytes);
+		childrenOut.writeInt(uidToChildrenMap.size());
+		Iterator parents = uidToChildrenMap.keySet().iterator();
+		while(parents.hasNext())
+		{
+			UniversalId parent = (UniversalId)parents.next();
+			writeUid(childrenOut, parent, strings, stringIndexes);
+			Set children = getChildren(parent);
+			childrenOut.writeInt(children.size());
+			Iterator it = children.iterator();
+			while(it.hasNext())
+				writeUid(childrenOut, (UniversalId)it.next(), strings, stringIndexes);
+		}
+
+		childrenOut.writeInt(uidToHqKeys.size());
+		Iterator uids = uidToHqKeys.keySet().iterator();
+		while(uids.hasNext())
+		{
+			UniversalId uid = (UniversalId)uids.next();
+			writeUid(childrenOut, uid, strings, stringIndexes);
+			String[] hqKeys = (String[])uidToHqKeys.get(uid);
+			childrenOut.writeInt(hqKeys.length);
+			for(int i = 0; i < hqKeys.length; ++i)
+				childrenOut.writeInt(getStringIndex(hqKeys[i], strings, stringIndexes));
+		}
+
+		childrenOut.writeInt(uidToKeyMap.size());
+		Iterator keys = uidToKeyMap.values().iterator();
+		while(keys.hasNext())
+		{
+			DatabaseKey key = (DatabaseKey)keys.next();
+			writeUid(childrenOut, key.getUniversalId(), strings, stringIndexes);
+			childrenOut.writeBoolean(key.isMutable());
+		}
+		childrenOut.flush();
+
+		ByteArrayOutputStream snapshotBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(snapshotBytes);
+		out.writeInt(SNAPSHOT_VERSION);
+		out.writeLong(nextSequence - 1);
+		out.writeBoolean(hitErrorsDuringScan);
+		out.writeInt(strings.size());
+		for(int i = 0; i < strings.size(); ++i)
+			out.writeUTF((String)strings.get(i));
+		out.write(childrenBytes.toByteArray());
+		out.flush();
+		return snapshotBytes.toByteArray();
+	}
+
+	private void readSnapshot() throws Exception
+	{
+		File snapshotFile = getSnapshotFile();
+		byte[] bundle = new byte[(int)snapshotFile.length()];
+		DataInputStream fileIn = new DataInputStream(new FileInputStream(snapshotFile));
+		try
+		{
+			fileIn.readFully(bundle);
+		}
+		finally
+		{
+			fileIn.close();
+		}
+
+		byte[] data = getSecurity().extractFromSignedBundle(bundle);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if(in.readInt() != SNAPSHOT_VERSION)
+			throw new IOException("Unknown snapshot version");
+		long highWaterMark = in.readLong();
+		boolean hadErrors = in.readBoolean();
+		String[] strings = new String[in.readInt()];
+		for(int i = 0; i < strings.length; ++i)
+			strings[i] = in.readUTF();
+
+		int parentCount = in.readInt();
+		for(int p = 0; p < parentCount; ++p)
+		{
+			UniversalId parent = readUid(in, strings);
+			Set children = getChildren(parent);
+			int childCount = in.readInt();
+			for(int c = 0; c < childCount; ++c)
+			{
+				UniversalId child = readUid(in, strings);
+				children.add(child);
+				uidToParentMap.put(child, parent);
+			}
+			uidToChildrenMap.put(parent, children);
+		}
+
+		int hqUidCount = in.readInt();
+		for(int u = 0; u < hqUidCount; ++u)
+		{
+			UniversalId uid = readUid(in, strings);
+			String[] hqKeys = new String[in.readInt()];
+			for(int i = 0; i < hqKeys.length; ++i)
+				hqKeys[i] = strings[in.readInt()];
+			uidToHqKeys.put(uid, hqKeys);
+			addFieldOffice(uid.getAccountId(), hqKeys);
+		}
+
+		int revisionCount = in.readInt();
+		for(int r = 0; r < revisionCount; ++r)
+		{
+			UniversalId uid = readUid(in, strings);
+			if(in.readBoolean())
+				uidToKeyMap.put(uid, DatabaseKey.createMutableKey(uid));
+			else
+				uidToKeyMap.put(uid, DatabaseKey.createImmutableKey(uid));
+		}
+		rebuildLeaves();
+
+		hitErrorsDuringScan = hadErrors;
+		nextSequence = highWaterMark + 1;
+		journalEntriesSinceSnapshot = 0;
+	}
+
+	private static void writeUid(DataOutputStream out, UniversalId uid, Vector strings, Map stringIndexes) throws IOException
+	{
+		out.writeInt(getStringIndex(uid.getAccountId(), strings, stringIndexes));
+		out.writeUTF(uid.getLocalId());
+	}
+
+	private static UniversalId readUid(DataInputStream in, String[] strings) throws IOException
+	{
+		String accountId = strings[in.readInt()];
+		return UniversalId.createFromAccountAndLocalId(accountId, in.readUTF());
+	}
+
+	private static int getStringIndex(String value, Vector strings, Map stringIndexes)
+	{
+		Integer index = (Integer)stringIndexes.get(value);
+		if(index == null)
+		{
+			index = new Integer(strings.size());
+			strings.add(value);
+			stringIndexes.put(value, index);
+		}
+		return index.intValue();
+	}
 	
+	static final String SNAPSHOT_FILENAME = "HistoryAndHqCache.dat";
+	static final String JOURNAL_FILENAME = "HistoryAndHqCache.journal";
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final int MAX_JOURNAL_ENTRIES = 1000;
+	private static final String JOURNAL_SEPARATOR = "\t";
+	private static final String JOURNAL_CHANGING = "?";
+	private static final String JOURNAL_SAVED = "+";
+	private static final String JOURNAL_REMOVED = "-";
+
 	private BulletinStore store;
 	private boolean isValid;
 	private boolean hitErrorsDuringScan;
 	private Map uidToChildrenMap;
+	private Map uidToParentMap;
+	private Map uidToHqKeys;
 	private Map fieldOfficesPerHq;
+	private Map uidToKeyMap;
+	private Map leafUidsPerAccount;
+	private long nextSequence = 1;
+	private int journalEntriesSinceSnapshot;
+	private Set pendingChanges;
 }
-
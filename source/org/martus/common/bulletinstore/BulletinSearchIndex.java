@@ -0,0 +1,786 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.bulletinstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.martus.common.MartusLogger;
+import org.martus.common.MiniLocalization;
+import org.martus.common.bulletin.AttachmentProxy;
+import org.martus.common.bulletin.Bulletin;
+import org.martus.common.crypto.MartusCrypto;
+import org.martus.common.database.DatabaseKey;
+import org.martus.common.database.FileDatabase;
+import org.martus.common.field.MartusDateField;
+import org.martus.common.field.MartusField;
+import org.martus.common.fieldspec.FieldSpec;
+import org.martus.common.packet.UniversalId;
+import org.martus.util.UnicodeReader;
+import org.martus.util.UnicodeWriter;
+import org.martus.util.inputstreamwithseek.ByteArrayInputStreamWithSeek;
+
+/*
+ * Optional inverted index over the searchable text of each bulletin
+ * revision (token -> revisions), plus the stored value of each plain text
+ * or date field so that comparisons on those can be answered without 
+ * loading anything. Fields with their own matching rules, like dropdowns
+ * and grids, are always checked against the loaded bulletin.
+ *
+ * The index only ever narrows a search down: CONTAINS queries are mapped
+ * to the revisions whose tokens could hold the text, and those candidates
+ * are then loaded and checked for real. Leaves that are not in the index
+ * yet are always candidates, and are indexed as a side effect of being
+ * checked, so the index fills itself in the course of normal searching.
+ *
+ * Saved revisions are simply dropped from the index, before the database
+ * is touched, and picked up again by the next search. When the store lives
+ * in a FileDatabase, the index is kept on disk encrypted with the account
+ * key, plus a synced journal of the revisions dropped since it was written.
+ * Writing the index re-encrypts all of it, so that is only done once enough
+ * new entries have piled up. The searchable text of dates and booleans 
+ * depends on the language and date settings, so the whole index is dropped
+ * when those change.
+ */
+public class BulletinSearchIndex extends BulletinStoreCache
+{
+	public BulletinSearchIndex(BulletinStore storeToUse, MiniLocalization localizationToUse)
+	{
+		store = storeToUse;
+		localization = localizationToUse;
+		clear();
+	}
+
+	public synchronized void clear()
+	{
+		isLoaded = false;
+		clearMaps();
+	}
+
+	public synchronized void storeWasCleared()
+	{
+		clear();
+		discardPersistentState();
+		isLoaded = true;
+		loadedContext = getTextContext();
+	}
+
+	public synchronized void revisionWillChange(UniversalId uid)
+	{
+		dropRevision(uid);
+	}
+
+	public synchronized void revisionWasSaved(UniversalId uid)
+	{
+		dropRevision(uid);
+	}
+
+	public synchronized void revisionWasSaved(Bulletin b)
+	{
+		dropRevision(b.getUniversalId());
+	}
+
+	public synchronized void revisionWasRemoved(UniversalId uid)
+	{
+		dropRevision(uid);
+	}
+
+	public MiniLocalization getLocalization()
+	{
+		return localization;
+	}
+
+	public synchronized int getIndexedCount()
+	{
+		load();
+		return uidToEntry.size();
+	}
+
+	public synchronized boolean isIndexed(UniversalId uid)
+	{
+		load();
+		return uidToEntry.containsKey(uid);
+	}
+
+	public int getLastVerifiedCount()
+	{
+		return lastVerifiedCount;
+	}
+
+	public Vector findBulletinUidsContaining(String lookFor) throws InterruptedException
+	{
+		String lookForLowerCase = lookFor.toLowerCase();
+		Set candidates = getContainsCandidates(lookForLowerCase);
+		ParallelBulletinSearch.Matcher matcher = new ParallelBulletinSearch.ContainsMatcher(lookFor, localization);
+		return verify(candidates, matcher, new Vector());
+	}
+
+	public Vector findBulletinUidsMatching(String tag, int compareOp, String searchForValue) throws InterruptedException
+	{
+		if(compareOp == MartusField.CONTAINS)
+		{
+			Set candidates = getContainsCandidates(searchForValue.toLowerCase());
+			return verify(candidates, new FieldMatcher(tag, compareOp, searchForValue, localization), new Vector());
+		}
+
+		Set candidates = new HashSet();
+		Vector matches = new Vector();
+		synchronized(this)
+		{
+			load();
+			String trimmedValue = searchForValue.trim();
+			Iterator it = store.getAllBulletinLeafUids().iterator();
+			while(it.hasNext())
+			{
+				UniversalId uid = (UniversalId)it.next();
+				Entry entry = (Entry)uidToEntry.get(uid);
+				if(entry == null)
+				{
+					candidates.add(uid);
+					continue;
+				}
+
+				// NOTE: Pseudofields are not indexed, so they are checked the slow way
+				String value = (String)entry.fieldValues.get(tag);
+				if(value == null)
+					candidates.add(uid);
+				else if(doesValueMatch(value.compareTo(trimmedValue), compareOp))
+					matches.add(uid);
+			}
+		}
+		return verify(candidates, new FieldMatcher(tag, compareOp, searchForValue, localization), matches);
+	}
+
+	public synchronized void savePersistentState()
+	{
+		if(!isPersistent())
+			return;
+
+		File indexFile = getIndexFile();
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		try
+		{
+			ByteArrayOutputStream cipherBytes = new ByteArrayOutputStream();
+			getSecurity().encrypt(new ByteArrayInputStream(getIndexData()), cipherBytes);
+			byte[] bundle = getSecurity().createSignedBundle(cipherBytes.toByteArray());
+			FileOutputStream out = new FileOutputStream(tempFile);
+			try
+			{
+				out.write(bundle);
+				out.flush();
+				out.getFD().sync();
+			}
+			finally
+			{
+				out.close();
+			}
+
+			indexFile.delete();
+			if(!tempFile.renameTo(indexFile))
+				throw new IOException("renameTo failed: " + tempFile + " -> " + indexFile);
+			getJournalFile().delete();
+			unsavedAdditions = 0;
+		}
+		catch(Exception e)
+		{
+			MartusLogger.logException(e);
+			tempFile.delete();
+			discardPersistentState();
+		}
+	}
+
+	private synchronized Set getContainsCandidates(String lookForLowerCase)
+	{
+		load();
+		Set leafUids = store.getAllBulletinLeafUids();
+		String[] queryTokens = tokenize(lookForLowerCase);
+		if(queryTokens.length == 0)
+			return leafUids;
+
+		Set candidates = null;
+		for(int i = 0; i < queryTokens.length; ++i)
+		{
+			Set withToken = getUidsWithTokenContaining(queryTokens[i]);
+			if(candidates == null)
+				candidates = withToken;
+			else
+				candidates.retainAll(withToken);
+		}
+		candidates.retainAll(leafUids);
+
+		Iterator it = leafUids.iterator();
+		while(it.hasNext())
+		{
+			Object uid = it.next();
+			if(!uidToEntry.containsKey(uid))
+				candidates.add(uid);
+		}
+		return candidates;
+	}
+
+	private Set getUidsWithTokenContaining(String queryToken)
+	{
+		// NOTE: The query can start or end in the middle of a word, so each
+		// query token may be any part of an indexed token. The vocabulary is
+		// far smaller than the store, so scanning it is still cheap.
+		Set uids = new HashSet();
+		Iterator it = tokenToUids.keySet().iterator();
+		while(it.hasNext())
+		{
+			String token = (String)it.next();
+			if(token.indexOf(queryToken) >= 0)
+				uids.addAll((Set)tokenToUids.get(token));
+		}
+		return uids;
+	}
+
+	private Vector verify(Set candidates, ParallelBulletinSearch.Matcher matcher, Vector matches) throws InterruptedException
+	{
+		Vector keys = new Vector();
+		Iterator it = candidates.iterator();
+		while(it.hasNext())
+		{
+			DatabaseKey key = findKey(store.getDatabase(), (UniversalId)it.next());
+			if(key != null)
+				keys.add(key);
+		}
+		lastVerifiedCount = keys.size();
+
+		IndexingMatcher indexingMatcher = new IndexingMatcher(matcher, startSearch());
+		BulletinStore.MatchingUidCollector collector = new BulletinStore.MatchingUidCollector();
+		ParallelBulletinSearch search = new ParallelBulletinSearch(store.getDatabase(), getSecurity(), keys, indexingMatcher, collector);
+		search.start();
+		try
+		{
+			search.waitUntilDone();
+		}
+		finally
+		{
+			search.cancel();
+			endSearch();
+		}
+
+		synchronized(this)
+		{
+			if(shouldSaveAdditions())
+				savePersistentState();
+		}
+
+		matches.addAll(collector.getUids());
+		return matches;
+	}
+
+	private boolean shouldSaveAdditions()
+	{
+		// NOTE: Unsaved entries are only lost work, since later searches
+		// add them again, so the index is rewritten once per tenth of growth
+		if(unsavedAdditions == 0)
+			return false;
+		return (unsavedAdditions * ADDITIONS_PER_SAVE_DIVISOR >= uidToEntry.size());
+	}
+
+	synchronized long startSearch()
+	{
+		load();
+		++searchesInProgress;
+		return dropGeneration;
+	}
+
+	synchronized void endSearch()
+	{
+		--searchesInProgress;
+		if(searchesInProgress > 0)
+			return;
+
+		// NOTE: Forgetting the drops also refuses anything captured 
+		// before now, such as a late worker of an interrupted search
+		uidToDropGeneration.clear();
+		forgottenDropGeneration = dropGeneration;
+	}
+
+	private boolean wasDroppedSince(UniversalId uid, long generationBeforeLoad)
+	{
+		if(generationBeforeLoad < forgottenDropGeneration)
+			return true;
+		Long droppedAt = (Long)uidToDropGeneration.get(uid);
+		return (droppedAt != null && droppedAt.longValue() > generationBeforeLoad);
+	}
+
+	void addToIndex(Bulletin b, long generationBeforeLoad)
+	{
+		if(!b.isNonAttachmentDataValid())
+			return;
+
+		Set tokens = new HashSet();
+		Map fieldValues = new HashMap();
+		addSectionToEntry(b, b.getTopSectionFieldSpecs().asArray(), tokens, fieldValues);
+		addSectionToEntry(b, b.getBottomSectionFieldSpecs().asArray(), tokens, fieldValues);
+		addAttachmentsToEntry(b.getPublicAttachments(), tokens);
+		addAttachmentsToEntry(b.getPrivateAttachments(), tokens);
+		Entry entry = new Entry((String[])tokens.toArray(new String[0]), fieldValues);
+
+		synchronized(this)
+		{
+			UniversalId uid = b.getUniversalId();
+			if(uidToEntry.containsKey(uid))
+				return;
+			// NOTE: A revision saved after the bulletin was loaded would
+			// otherwise leave the stale values indexed
+			if(wasDroppedSince(uid, generationBeforeLoad))
+				return;
+			addEntry(uid, entry);
+			++unsavedAdditions;
+		}
+	}
+
+	private void addSectionToEntry(Bulletin b, FieldSpec[] specs, Set tokens, Map fieldValues)
+	{
+		for(int i = 0; i < specs.length; ++i)
+		{
+			String tag = specs[i].getTag();
+			MartusField field = b.getField(tag);
+			if(field == null || fieldValues.containsKey(tag))
+				continue;
+
+			if(isComparedAsStoredData(field))
+				fieldValues.put(tag, field.getData().trim());
+			addTokens(tokens, field.getLowerCaseSearchableData(localization));
+		}
+	}
+
+	private static boolean isComparedAsStoredData(MartusField field)
+	{
+		// NOTE: Only these use the plain MartusField.doesMatch, which
+		// compares the trimmed stored data as a string
+		Class fieldClass = field.getClass();
+		return (fieldClass.equals(MartusField.class) || fieldClass.equals(MartusDateField.class));
+	}
+
+	private void addAttachmentsToEntry(AttachmentProxy[] attachments, Set tokens)
+	{
+		for(int i = 0; i < attachments.length; ++i)
+			addTokens(tokens, attachments[i].getLabel().toLowerCase());
+	}
+
+	private static void addTokens(Set tokens, String lowerCaseText)
+	{
+		String[] found = tokenize(lowerCaseText);
+		for(int i = 0; i < found.length; ++i)
+			tokens.add(found[i]);
+	}
+
+	static String[] tokenize(String lowerCaseText)
+	{
+		Vector tokens = new Vector();
+		int start = -1;
+		for(int i = 0; i <= lowerCaseText.length(); ++i)
+		{
+			boolean isTokenChar = (i < lowerCaseText.length() && Character.isLetterOrDigit(lowerCaseText.charAt(i)));
+			if(isTokenChar && start < 0)
+				start = i;
+			else if(!isTokenChar && start >= 0)
+			{
+				tokens.add(lowerCaseText.substring(start, i));
+				start = -1;
+			}
+		}
+		return (String[])tokens.toArray(new String[0]);
+	}
+
+	private static boolean doesValueMatch(int comparison, int compareOp)
+	{
+		switch(compareOp)
+		{
+			case MartusField.LESS:
+				return (comparison < 0);
+			case MartusField.LESS_EQUAL:
+				return (comparison <= 0);
+			case MartusField.GREATER:
+				return (comparison > 0);
+			case MartusField.GREATER_EQUAL:
+				return (comparison >= 0);
+			case MartusField.EQUAL:
+				return (comparison == 0);
+			case MartusField.NOT_EQUAL:
+				return (comparison != 0);
+		}
+		return false;
+	}
+
+	private void addEntry(UniversalId uid, Entry entry)
+	{
+		uidToEntry.put(uid, entry);
+		for(int i = 0; i < entry.tokens.length; ++i)
+		{
+			Set uids = (Set)tokenToUids.get(entry.tokens[i]);
+			if(uids == null)
+			{
+				uids = new HashSet();
+				tokenToUids.put(entry.tokens[i], uids);
+			}
+			uids.add(uid);
+		}
+	}
+
+	private void removeEntry(UniversalId uid)
+	{
+		Entry entry = (Entry)uidToEntry.remove(uid);
+		if(entry == null)
+			return;
+
+		for(int i = 0; i < entry.tokens.length; ++i)
+		{
+			Set uids = (Set)tokenToUids.get(entry.tokens[i]);
+			if(uids == null)
+				continue;
+			uids.remove(uid);
+			if(uids.isEmpty())
+				tokenToUids.remove(entry.tokens[i]);
+		}
+	}
+
+	private void dropRevision(UniversalId uid)
+	{
+		load();
+		++dropGeneration;
+		if(searchesInProgress > 0)
+			uidToDropGeneration.put(uid, new Long(dropGeneration));
+		if(!uidToEntry.containsKey(uid))
+			return;
+		removeEntry(uid);
+		appendToJournal(uid);
+	}
+
+	private void clearMaps()
+	{
+		uidToEntry = new HashMap();
+		tokenToUids = new HashMap();
+		unsavedAdditions = 0;
+		uidToDropGeneration = new HashMap();
+		++dropGeneration;
+		forgottenDropGeneration = dropGeneration;
+	}
+
+	private void load()
+	{
+		String currentContext = getTextContext();
+		if(isLoaded)
+		{
+			if(currentContext.equals(loadedContext))
+				return;
+			MartusLogger.log("BulletinSearchIndex dropped after a language or date setting change");
+			discardPersistentState();
+		}
+
+		clearMaps();
+		isLoaded = true;
+		loadedContext = currentContext;
+		if(!isPersistent() || !getIndexFile().exists())
+			return;
+
+		try
+		{
+			readIndex();
+			replayJournal();
+		}
+		catch(Exception e)
+		{
+			MartusLogger.log("BulletinSearchIndex rejected: " + e);
+			clearMaps();
+			discardPersistentState();
+		}
+	}
+
+	private String getTextContext()
+	{
+		return localization.getCurrentLanguageCode() + CONTEXT_SEPARATOR + 
+				localization.getCurrentCalendarSystem() + CONTEXT_SEPARATOR + 
+				localization.getCurrentDateTemplate() + CONTEXT_SEPARATOR + 
+				localization.getAdjustThaiLegacyDates() + CONTEXT_SEPARATOR + 
+				localization.getAdjustPersianLegacyDates();
+	}
+
+	private boolean isPersistent()
+	{
+		if(store.getStoreRootDir() == null)
+			return false;
+		if(!(store.getDatabase() instanceof FileDatabase))
+			return false;
+		MartusCrypto security = getSecurity();
+		return (security != null && security.hasKeyPair());
+	}
+
+	private MartusCrypto getSecurity()
+	{
+		return store.getSignatureVerifier();
+	}
+
+	private File getIndexFile()
+	{
+		return new File(store.getStoreRootDir(), INDEX_FILENAME);
+	}
+
+	private File getJournalFile()
+	{
+		return new File(store.getStoreRootDir(), JOURNAL_FILENAME);
+	}
+
+	private void discardPersistentState()
+	{
+		if(store.getStoreRootDir() == null)
+			return;
+
+		getIndexFile().delete();
+		getJournalFile().delete();
+	}
+
+	private void appendToJournal(UniversalId uid)
+	{
+		if(!isPersistent() || !getIndexFile().exists())
+			return;
+
+		try
+		{
+			FileOutputStream out = new FileOutputStream(getJournalFile().getPath(), true);
+			UnicodeWriter writer = new UnicodeWriter(out);
+			try
+			{
+				writer.writeln(uid.getAccountId() + JOURNAL_SEPARATOR + uid.getLocalId());
+				writer.flush();
+				out.getFD().sync();
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch(IOException e)
+		{
+			MartusLogger.logException(e);
+			discardPersistentState();
+		}
+	}
+
+	private void replayJournal() throws Exception
+	{
+		File journalFile = getJournalFile();
+		if(!journalFile.exists())
+			return;
+
+		UnicodeReader reader = new UnicodeReader(journalFile);
+		try
+		{
+			String line = null;
+			while( (line = reader.readLine()) != null)
+			{
+				String[] fields = line.split(JOURNAL_SEPARATOR);
+				if(fields.length != 2)
+					throw new IOException("Bad journal line: " + line);
+				removeEntry(UniversalId.createFromAccountAndLocalId(fields[0], fields[1]));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private byte[] getIndexData() throws IOException
+	{
+		ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(indexBytes);
+		out.writeInt(INDEX_VERSION);
+		writeString(out, loadedContext);
+		out.writeInt(uidToEntry.size());
+		Iterator it = uidToEntry.keySet().iterator();
+		while(it.hasNext())
+		{
+			UniversalId uid = (UniversalId)it.next();
+			Entry entry = (Entry)uidToEntry.get(uid);
+			writeString(out, uid.getAccountId());
+			writeString(out, uid.getLocalId());
+			out.writeInt(entry.tokens.length);
+			for(int i = 0; i < entry.tokens.length; ++i)
+				writeString(out, entry.tokens[i]);
+			out.writeInt(entry.fieldValues.size());
+			Iterator tags = entry.fieldValues.keySet().iterator();
+			while(tags.hasNext())
+			{
+				String tag = (String)tags.next();
+				writeString(out, tag);
+				writeString(out, (String)entry.fieldValues.get(tag));
+			}
+		}
+		out.flush();
+		return indexBytes.toByteArray();
+	}
+
+	private void readIndex() throws Exception
+	{
+		File indexFile = getIndexFile();
+		byte[] bundle = new byte[(int)indexFile.length()];
+		DataInputStream fileIn = new DataInputStream(new FileInputStream(indexFile));
+		try
+		{
+			fileIn.readFully(bundle);
+		}
+		finally
+		{
+			fileIn.close();
+		}
+
+		byte[] cipherBytes = getSecurity().extractFromSignedBundle(bundle);
+		ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+		getSecurity().decrypt(new ByteArrayInputStreamWithSeek(cipherBytes), plainBytes);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(plainBytes.toByteArray()));
+		if(in.readInt() != INDEX_VERSION)
+			throw new IOException("Unknown index version");
+		// NOTE: Searchable text depends on the language and date settings, so
+		// an index built for others is dropped and rebuilt by later searches
+		if(!readString(in).equals(loadedContext))
+			throw new IOException("Index is for another language or date format");
+
+		int entryCount = in.readInt();
+		for(int e = 0; e < entryCount; ++e)
+		{
+			UniversalId uid = UniversalId.createFromAccountAndLocalId(readString(in), readString(in));
+			String[] tokens = new String[in.readInt()];
+			for(int i = 0; i < tokens.length; ++i)
+				tokens[i] = readString(in);
+			Map fieldValues = new HashMap();
+			int fieldCount = in.readInt();
+			for(int f = 0; f < fieldCount; ++f)
+			{
+				String tag = readString(in);
+				fieldValues.put(tag, readString(in));
+			}
+			addEntry(uid, new Entry(tokens, fieldValues));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException
+	{
+		// NOTE: Field values can be longer than writeUTF allows
+		byte[] bytes = text.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	static class Entry
+	{
+		Entry(String[] tokensToUse, Map fieldValuesToUse)
+		{
+			tokens = tokensToUse;
+			fieldValues = fieldValuesToUse;
+		}
+
+		String[] tokens;
+		Map fieldValues;
+	}
+
+	class IndexingMatcher implements ParallelBulletinSearch.Matcher
+	{
+		IndexingMatcher(ParallelBulletinSearch.Matcher matcherToUse, long generationBeforeLoadToUse)
+		{
+			matcher = matcherToUse;
+			generationBeforeLoad = generationBeforeLoadToUse;
+		}
+
+		public boolean doesMatch(Bulletin b)
+		{
+			if(!isIndexed(b.getUniversalId()))
+				addToIndex(b, generationBeforeLoad);
+			return matcher.doesMatch(b);
+		}
+
+		ParallelBulletinSearch.Matcher matcher;
+		long generationBeforeLoad;
+	}
+
+	static class FieldMatcher implements ParallelBulletinSearch.Matcher
+	{
+		FieldMatcher(String tagToUse, int compareOpToUse, String searchForValueToUse, MiniLocalization localizationToUse)
+		{
+			tag = tagToUse;
+			compareOp = compareOpToUse;
+			searchForValue = searchForValueToUse;
+			localization = localizationToUse;
+		}
+
+		public boolean doesMatch(Bulletin b)
+		{
+			MartusField field = b.getField(tag);
+			if(field == null)
+				return false;
+			return field.doesMatch(compareOp, searchForValue, localization);
+		}
+
+		String tag;
+		int compareOp;
+		String searchForValue;
+		MiniLocalization localization;
+	}
+
+	static final String INDEX_FILENAME = "BulletinSearchIndex.dat";
+	static final String JOURNAL_FILENAME = "BulletinSearchIndex.journal";
+	private static final int INDEX_VERSION = 2;
+	private static final String JOURNAL_SEPARATOR = "\t";
+	private static final String CONTEXT_SEPARATOR = "\t";
+	private static final int ADDITIONS_PER_SAVE_DIVISOR = 10;
+
+	private BulletinStore store;
+	private MiniLocalization localization;
+	private Map uidToEntry;
+	private Map tokenToUids;
+	private boolean isLoaded;
+	private String loadedContext;
+	private int unsavedAdditions;
+	private Map uidToDropGeneration;
+	private long dropGeneration;
+	private long forgottenDropGeneration;
+	private int searchesInProgress;
+	private volatile int lastVerifiedCount;
+}
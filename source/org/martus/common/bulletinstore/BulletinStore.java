@@ -30,15 +30,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.Vector;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.martus.common.LoggerInterface;
+import org.martus.common.MartusLogger;
 import org.martus.common.MartusUtilities;
+import org.martus.common.MiniLocalization;
 import org.martus.common.bulletin.AttachmentProxy;
 import org.martus.common.bulletin.Bulletin;
 import org.martus.common.bulletin.BulletinZipUtilities;
@@ -51,7 +51,6 @@ import org.martus.common.database.Database;
 import org.martus.common.database.DatabaseKey;
 import org.martus.common.database.PacketStreamOpener;
 import org.martus.common.database.ReadableDatabase;
-import org.martus.common.database.ReadableDatabase.PacketVisitor;
 import org.martus.common.packet.BulletinHeaderPacket;
 import org.martus.common.packet.BulletinHistory;
 import org.martus.common.packet.FieldDataPacket;
@@ -133,67 +132,22 @@ public class BulletinStore
 
 	public int getBulletinCount()
 	{
-		return getAllBulletinLeafUids().size();
-	}
-
-	class LeafFinder implements PacketVisitor
-	{
-		public LeafFinder()
-		{
-			leafUids = new HashSet();
-		}
-		
-		public Set getLeafUids()
-		{
-			return leafUids;
-		}
-		
-		public void visit(DatabaseKey key)
-		{
-			UniversalId uid = key.getUniversalId();
-			if(isLeaf(uid))
-				leafUids.add(uid);
-		}
-		
-		private HashSet leafUids;
+		return bulletinHistoryAndHqCache.getLeafCount();
 	}
 
 	public Set getAllBulletinLeafUids()
 	{
-		LeafFinder leafFinder = new LeafFinder();
-		visitAllBulletinRevisions(leafFinder);
-				
-		return leafFinder.getLeafUids();
-	}
-
-	private Set getAllBulletinLeafUidsForAccount(String publicKeyString)
-	{
-		LeafFinder leafFinder = new LeafFinder();
-		visitAllBulletinRevisionsForAccount(leafFinder, publicKeyString);
-				
-		return leafFinder.getLeafUids();
+		return bulletinHistoryAndHqCache.getAllLeafUids();
 	}
 
 	public boolean isLeaf(UniversalId uid)
 	{
-		if(BulletinStoreCache.findKey(getDatabase(), uid) == null)
-			return false;
-
-		return !hasNewerRevision(uid);
+		return bulletinHistoryAndHqCache.isLeaf(uid);
 	}
 
 	public boolean hasNewerRevision(UniversalId uid)
 	{
-		Set descendents = bulletinHistoryAndHqCache.getAllKnownDescendents(uid);
-		Iterator it = descendents.iterator();
-		while(it.hasNext())
-		{
-			UniversalId descendent = (UniversalId)it.next();
-			if(doesBulletinRevisionExist(descendent))
-				return true;
-		}
-		
-		return false;
+		return bulletinHistoryAndHqCache.hasNewerRevision(uid);
 	}
 
 	public boolean doesBulletinRevisionExist(UniversalId descendent)
@@ -277,6 +231,11 @@ public class BulletinStore
 		cacheManager.clearCache();
 	}
 
+	public void revisionWillChange(UniversalId uid)
+	{
+		cacheManager.revisionWillChange(uid);
+	}
+
 	public void revisionWasSaved(BulletinHeaderPacket bhp) throws Exception
 	{
 		cacheManager.revisionWasSaved(bhp.getUniversalId());
@@ -299,57 +258,95 @@ public class BulletinStore
 
 	public void visitAllBulletins(Database.PacketVisitor visitor)
 	{
-		Set uids = getAllBulletinLeafUids();
-		Iterator it = uids.iterator();
-		while(it.hasNext())
-		{
-			UniversalId uid = (UniversalId)it.next();
-			visitor.visit(BulletinStoreCache.findKey(getDatabase(), uid));
-		}
+		visitKeys(bulletinHistoryAndHqCache.getAllLeafKeys(), visitor);
 	}
 	
 	public void visitAllBulletinsForAccount(Database.PacketVisitor visitor, String publicKeyString)
 	{
-		Set uids = getAllBulletinLeafUidsForAccount(publicKeyString);
-		Iterator it = uids.iterator();
-		while(it.hasNext())
+		visitKeys(bulletinHistoryAndHqCache.getLeafKeysForAccount(publicKeyString), visitor);
+	}
+
+	private void visitKeys(Vector keys, Database.PacketVisitor visitor)
+	{
+		for(int i = 0; i < keys.size(); ++i)
+			visitor.visit((DatabaseKey)keys.get(i));
+	}
+
+	public ParallelBulletinSearch searchAllBulletins(ParallelBulletinSearch.Matcher matcher, ParallelBulletinSearch.Listener listener)
+	{
+		return startSearch(bulletinHistoryAndHqCache.getAllLeafKeys(), matcher, listener);
+	}
+
+	public ParallelBulletinSearch searchAllBulletinsForAccount(String publicKeyString, ParallelBulletinSearch.Matcher matcher, ParallelBulletinSearch.Listener listener)
+	{
+		return startSearch(bulletinHistoryAndHqCache.getLeafKeysForAccount(publicKeyString), matcher, listener);
+	}
+
+	public void setSearchIndex(BulletinSearchIndex indexToUse)
+	{
+		searchIndex = indexToUse;
+		addCache(searchIndex);
+	}
+
+	public BulletinSearchIndex getSearchIndex()
+	{
+		return searchIndex;
+	}
+
+	public Vector findBulletinUidsContaining(String lookFor, MiniLocalization localization) throws InterruptedException
+	{
+		if(searchIndex != null && searchIndex.getLocalization() == localization)
+			return searchIndex.findBulletinUidsContaining(lookFor);
+
+		ParallelBulletinSearch.Matcher matcher = new ParallelBulletinSearch.ContainsMatcher(lookFor, localization);
+		MatchingUidCollector collector = new MatchingUidCollector();
+		ParallelBulletinSearch search = searchAllBulletins(matcher, collector);
+		try
 		{
-			UniversalId uid = (UniversalId)it.next();
-			visitor.visit(BulletinStoreCache.findKey(getDatabase(), uid));
+			search.waitUntilDone();
 		}
+		finally
+		{
+			search.cancel();
+		}
+		return collector.getUids();
 	}
 
-	public void visitAllBulletinRevisions(Database.PacketVisitor visitorToUse)
+	private ParallelBulletinSearch startSearch(Vector keys, ParallelBulletinSearch.Matcher matcher, ParallelBulletinSearch.Listener listener)
 	{
-		class BulletinKeyFilter implements Database.PacketVisitor
+		ParallelBulletinSearch search = new ParallelBulletinSearch(getDatabase(), getSignatureVerifier(), keys, matcher, listener);
+		search.start();
+		return search;
+	}
+
+	static class MatchingUidCollector implements ParallelBulletinSearch.Listener
+	{
+		public synchronized void bulletinMatched(Bulletin b)
 		{
-			BulletinKeyFilter(ReadableDatabase db, Database.PacketVisitor visitorToUse2)
-			{
-				visitor = visitorToUse2;
-				db.visitAllRecords(this);
-			}
-	
-			public void visit(DatabaseKey key)
-			{
-				if(BulletinHeaderPacket.isValidLocalId(key.getLocalId()))
-				{
-					visitor.visit(key);
-				}
-			}
-			ReadableDatabase.PacketVisitor visitor;
+			uids.add(b.getUniversalId());
 		}
-	
-		new BulletinKeyFilter(getDatabase(), visitorToUse);
+
+		public void bulletinCouldNotBeSearched(DatabaseKey key, Exception e)
+		{
+			MartusLogger.logException(e);
+		}
+
+		public synchronized Vector getUids()
+		{
+			return new Vector(uids);
+		}
+
+		private Vector uids = new Vector();
 	}
 
-	private void visitAllBulletinRevisionsForAccount(Database.PacketVisitor visitorToUse, String publicKeyString)
+	public void visitAllBulletinRevisions(Database.PacketVisitor visitorToUse)
 	{
 		class BulletinKeyFilter implements Database.PacketVisitor
 		{
-			BulletinKeyFilter(ReadableDatabase db, Database.PacketVisitor visitorToUse2, String publicKeyString2)
+			BulletinKeyFilter(ReadableDatabase db, Database.PacketVisitor visitorToUse2)
 			{
 				visitor = visitorToUse2;
-				db.visitAllRecordsForAccount(this, publicKeyString2);
+				db.visitAllRecords(this);
 			}
 	
 			public void visit(DatabaseKey key)
@@ -362,7 +359,7 @@ public class BulletinStore
 			ReadableDatabase.PacketVisitor visitor;
 		}
 	
-		new BulletinKeyFilter(getDatabase(), visitorToUse, publicKeyString);
+		new BulletinKeyFilter(getDatabase(), visitorToUse);
 	}
 
 	public synchronized void removeBulletinFromStore(Bulletin b) throws IOException
@@ -397,6 +394,7 @@ public class BulletinStore
 
 	public void deleteBulletinRevisionFromDatabase(BulletinHeaderPacket bhp) throws Exception
 	{
+		revisionWillChange(bhp.getUniversalId());
 		DatabaseKey[] keys = BulletinZipUtilities.getAllPacketKeys(bhp);
 		for (int i = 0; i < keys.length; i++)
 		{
@@ -433,6 +431,7 @@ public class BulletinStore
 		for(int i = 0; i < packetsIdsToHide.size(); ++i)
 		{
 			UniversalId uId = (UniversalId)(packetsIdsToHide.get(i));
+			revisionWillChange(uId);
 			db.hide(uId);
 			revisionWasRemoved(uId);
 			String publicCode = MartusCrypto.getFormattedPublicCode(uId.getAccountId());
@@ -462,13 +461,14 @@ public class BulletinStore
 		if(authorAccountId == null)
 			authorAccountId = header.getAccountId();
 	
-		BulletinZipUtilities.validateIntegrityOfZipFilePackets(authorAccountId, zip, security);
+		BulletinZipUtilities.validateIntegrityOfZipFilePackets(authorAccountId, zip, security, BulletinZipUtilities.getPacketValidationExecutor());
 		Database db = getWriteableDatabase();
 		UniversalId headerUid = header.getUniversalId();
 		DatabaseKey mutableKey = DatabaseKey.createMutableKey(headerUid);
 		DatabaseKey legacyKey = DatabaseKey.createLegacyKey(headerUid);
 		if(db.doesRecordExist(mutableKey) || db.doesRecordExist(legacyKey))
 		{
+			revisionWillChange(headerUid);
 			deleteDraftBulletinPackets(db, headerUid, security);
 			revisionWasRemoved(headerUid);
 		}
@@ -503,6 +503,7 @@ public class BulletinStore
 	
 			zipEntries.put(key,file);
 		}
+		revisionWillChange(headerUid);
 		db.importFiles(zipEntries);
 		return header;
 	}
@@ -572,6 +573,7 @@ public class BulletinStore
 	
 	protected void saveBulletin(Bulletin b, boolean mustEncryptPublicData) throws Exception
 	{
+		revisionWillChange(b.getUniversalId());
 		saveToClientDatabase(b, getWriteableDatabase(), mustEncryptPublicData, b.getSignatureGenerator());
 		revisionWasSaved(b.getBulletinHeaderPacket());
 	}
@@ -718,5 +720,6 @@ public class BulletinStore
 	private Database database;
 	private BulletinHistoryAndHqCache bulletinHistoryAndHqCache;
 	private BulletinStoreCacheManager cacheManager;
+	private BulletinSearchIndex searchIndex;
 }
 
@@ -39,6 +39,12 @@ public abstract class BulletinStoreCache
 	abstract public void revisionWasSaved(Bulletin b) throws Exception;
 	abstract public void revisionWasRemoved(UniversalId uid);
 	
+	// NOTE: Called before the database is touched, so a cache that persists
+	// itself can note the revision and check it again after a crash
+	public void revisionWillChange(UniversalId uid)
+	{
+	}
+	
 	public static DatabaseKey findKey(ReadableDatabase db, UniversalId uid)
 	{
 		DatabaseKey[] possibleKeys = 
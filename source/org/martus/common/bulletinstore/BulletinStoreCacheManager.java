@@ -52,6 +52,15 @@ public class BulletinStoreCacheManager
 		}
 	}
 	
+	public synchronized void revisionWillChange(UniversalId uid)
+	{
+		for(int i = 0; i < caches.size(); ++i)
+		{
+			BulletinStoreCache cache = (BulletinStoreCache)caches.get(i);
+			cache.revisionWillChange(uid);
+		}
+	}
+	
 	public synchronized void revisionWasSaved(UniversalId uid) throws Exception
 	{
 		for(int i = 0; i < caches.size(); ++i)
@@ -0,0 +1,245 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.bulletinstore;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.martus.common.DaemonThreadPool;
+import org.martus.common.MiniLocalization;
+import org.martus.common.bulletin.Bulletin;
+import org.martus.common.bulletin.BulletinLoader;
+import org.martus.common.crypto.MartusCrypto;
+import org.martus.common.database.DatabaseKey;
+import org.martus.common.database.ReadableDatabase;
+
+/*
+ * Loads, decrypts and matches a set of bulletins on several threads at once.
+ *
+ * Each worker repeatedly claims the next small batch of keys, so a worker
+ * that draws cheap bulletins simply claims more batches rather than sitting
+ * idle while another one works through a long partition. Matches are
+ * handed to the listener as soon as they are found.
+ */
+public class ParallelBulletinSearch
+{
+	public interface Matcher
+	{
+		public boolean doesMatch(Bulletin b);
+	}
+
+	public interface Listener
+	{
+		// NOTE: These are called from the search threads, possibly at the same time
+		public void bulletinMatched(Bulletin b);
+		public void bulletinCouldNotBeSearched(DatabaseKey key, Exception e);
+	}
+
+	public static class ContainsMatcher implements Matcher
+	{
+		public ContainsMatcher(String lookFor, MiniLocalization localizationToUse)
+		{
+			lookForLowerCase = lookFor.toLowerCase();
+			localization = localizationToUse;
+		}
+
+		public boolean doesMatch(Bulletin b)
+		{
+			return b.containsLowerCase(lookForLowerCase, localization);
+		}
+
+		private String lookForLowerCase;
+		private MiniLocalization localization;
+	}
+
+	public ParallelBulletinSearch(ReadableDatabase dbToUse, MartusCrypto verifierToUse, Vector keysToSearch, Matcher matcherToUse, Listener listenerToUse)
+	{
+		db = dbToUse;
+		verifier = verifierToUse;
+		keys = (DatabaseKey[])keysToSearch.toArray(new DatabaseKey[0]);
+		matcher = matcherToUse;
+		listener = listenerToUse;
+		nextIndex = new AtomicInteger();
+		searchedCount = new AtomicInteger();
+		matchCount = new AtomicInteger();
+		workers = new Vector();
+	}
+
+	public void start()
+	{
+		start(getSearchExecutor(), getSearchThreadCount());
+	}
+
+	public synchronized void start(ExecutorService executor, int workerCount)
+	{
+		if(!workers.isEmpty())
+			throw new IllegalStateException("Search already started");
+
+		int maxUsefulWorkers = (keys.length + BATCH_SIZE - 1) / BATCH_SIZE;
+		int count = Math.max(1, Math.min(workerCount, maxUsefulWorkers));
+		for(int i = 0; i < count; ++i)
+			workers.add(executor.submit(new Worker()));
+	}
+
+	public void cancel()
+	{
+		cancelled = true;
+		Future[] futures = getWorkers();
+		for(int i = 0; i < futures.length; ++i)
+			futures[i].cancel(false);
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	public boolean isDone()
+	{
+		Future[] futures = getWorkers();
+		for(int i = 0; i < futures.length; ++i)
+		{
+			if(!futures[i].isDone())
+				return false;
+		}
+		return true;
+	}
+
+	public void waitUntilDone() throws InterruptedException
+	{
+		Future[] futures = getWorkers();
+		for(int i = 0; i < futures.length; ++i)
+		{
+			try
+			{
+				futures[i].get();
+			}
+			catch(CancellationException e)
+			{
+				// NOTE: A worker cancelled before it started has nothing left to wait for
+			}
+			catch(ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				if(cause instanceof Error)
+					throw (Error)cause;
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	public int getBulletinCount()
+	{
+		return keys.length;
+	}
+
+	public int getSearchedCount()
+	{
+		return searchedCount.get();
+	}
+
+	public int getMatchCount()
+	{
+		return matchCount.get();
+	}
+
+	private synchronized Future[] getWorkers()
+	{
+		return (Future[])workers.toArray(new Future[0]);
+	}
+
+	void searchOne(DatabaseKey key)
+	{
+		try
+		{
+			Bulletin b = BulletinLoader.loadFromDatabase(db, key, verifier);
+			if(matcher.doesMatch(b))
+			{
+				matchCount.incrementAndGet();
+				listener.bulletinMatched(b);
+			}
+		}
+		catch(Exception e)
+		{
+			listener.bulletinCouldNotBeSearched(key, e);
+		}
+		finally
+		{
+			searchedCount.incrementAndGet();
+		}
+	}
+
+	class Worker implements Callable
+	{
+		public Object call() throws Exception
+		{
+			while(!cancelled)
+			{
+				int start = nextIndex.getAndAdd(BATCH_SIZE);
+				if(start >= keys.length)
+					break;
+
+				int end = Math.min(start + BATCH_SIZE, keys.length);
+				for(int i = start; i < end && !cancelled; ++i)
+					searchOne(keys[i]);
+			}
+			return null;
+		}
+	}
+
+	public static int getSearchThreadCount()
+	{
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	public static synchronized ExecutorService getSearchExecutor()
+	{
+		if(searchExecutor == null)
+			searchExecutor = DaemonThreadPool.create("BulletinSearch", getSearchThreadCount());
+		return searchExecutor;
+	}
+
+	static final int BATCH_SIZE = 16;
+	private static ExecutorService searchExecutor;
+
+	private ReadableDatabase db;
+	private MartusCrypto verifier;
+	private DatabaseKey[] keys;
+	private Matcher matcher;
+	private Listener listener;
+	private AtomicInteger nextIndex;
+	private AtomicInteger searchedCount;
+	private AtomicInteger matchCount;
+	private Vector workers;
+	private volatile boolean cancelled;
+}
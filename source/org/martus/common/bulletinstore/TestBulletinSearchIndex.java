@@ -0,0 +1,307 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.bulletinstore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Vector;
+
+import org.martus.common.FieldSpecCollection;
+import org.martus.common.MiniLocalization;
+import org.martus.common.bulletin.Bulletin;
+import org.martus.common.bulletin.BulletinLoader;
+import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.database.ClientFileDatabase;
+import org.martus.common.database.Database;
+import org.martus.common.database.MockClientDatabase;
+import org.martus.common.field.MartusField;
+import org.martus.common.fieldspec.ChoiceItem;
+import org.martus.common.fieldspec.CustomDropDownFieldSpec;
+import org.martus.common.fieldspec.StandardFieldSpecs;
+import org.martus.common.packet.UniversalId;
+import org.martus.util.TestCaseEnhanced;
+
+public class TestBulletinSearchIndex extends TestCaseEnhanced
+{
+	public TestBulletinSearchIndex(String name)
+	{
+		super(name);
+	}
+
+	public void setUp() throws Exception
+	{
+		super.setUp();
+		security = MockMartusSecurity.createClient();
+		localization = new MiniLocalization();
+	}
+
+	public void testTokenize() throws Exception
+	{
+		String[] tokens = BulletinSearchIndex.tokenize("  apple-orchard, 42 trees!");
+		assertEquals(4, tokens.length);
+		assertEquals("apple", tokens[0]);
+		assertEquals("orchard", tokens[1]);
+		assertEquals("42", tokens[2]);
+		assertEquals("trees", tokens[3]);
+		assertEquals(0, BulletinSearchIndex.tokenize(" -- ").length);
+	}
+
+	public void testContainsOnlyVerifiesCandidates() throws Exception
+	{
+		MockClientDatabase db = new MockClientDatabase();
+		BulletinStore store = createStore(db);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+
+		Bulletin apple = createAndSave(store, "Apple Orchard", "");
+		Bulletin banana = createAndSave(store, "Banana Grove", "");
+		Bulletin hidden = createAndSave(store, "Someone", "an APPLE a day");
+
+		Vector found = store.findBulletinUidsContaining("apple", localization);
+		assertEquals("wrong first matches?", 2, found.size());
+		assertEquals("didn't load unindexed bulletins?", 3, index.getLastVerifiedCount());
+		assertEquals("didn't index while searching?", 3, index.getIndexedCount());
+
+		found = store.findBulletinUidsContaining("apple", localization);
+		assertEquals("wrong indexed matches?", 2, found.size());
+		assertContains(apple.getUniversalId(), found);
+		assertContains(hidden.getUniversalId(), found);
+		assertEquals("loaded non-candidates?", 2, index.getLastVerifiedCount());
+
+		found = store.findBulletinUidsContaining("ple orch", localization);
+		assertEquals("partial words?", 1, found.size());
+		assertEquals("partial words loaded too much?", 1, index.getLastVerifiedCount());
+
+		assertEquals("found missing text?", 0, store.findBulletinUidsContaining("cherry", localization).size());
+		assertEquals("loaded for missing text?", 0, index.getLastVerifiedCount());
+
+		banana.set(Bulletin.TAGAUTHOR, "Apple Grove");
+		store.saveBulletinForTesting(banana);
+		assertFalse("saved revision still indexed?", index.isIndexed(banana.getUniversalId()));
+		found = store.findBulletinUidsContaining("apple", localization);
+		assertEquals("missed resaved bulletin?", 3, found.size());
+		assertTrue("didn't reindex resaved bulletin?", index.isIndexed(banana.getUniversalId()));
+
+		store.deleteAllData();
+		assertEquals("didn't clear?", 0, index.getIndexedCount());
+		assertEquals("Still some mock streams open?", 0, db.getOpenStreamCount());
+	}
+
+	public void testComparisonsUseIndexedValues() throws Exception
+	{
+		MockClientDatabase db = new MockClientDatabase();
+		BulletinStore store = createStore(db);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+
+		createAndSave(store, "alpha", "");
+		Bulletin beta = createAndSave(store, "beta", "");
+		Bulletin gamma = createAndSave(store, "gamma", "");
+
+		Vector found = index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.GREATER, "alpha");
+		assertEquals("wrong unindexed matches?", 2, found.size());
+		assertEquals("didn't load unindexed bulletins?", 3, index.getLastVerifiedCount());
+
+		found = index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.GREATER, "alpha");
+		assertEquals("wrong indexed matches?", 2, found.size());
+		assertContains(beta.getUniversalId(), found);
+		assertContains(gamma.getUniversalId(), found);
+		assertEquals("loaded bulletins for an indexed comparison?", 0, index.getLastVerifiedCount());
+
+		found = index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.EQUAL, " beta ");
+		assertEquals("wrong equal matches?", 1, found.size());
+		assertEquals(beta.getUniversalId(), found.get(0));
+
+		found = index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.CONTAINS, "amm");
+		assertEquals("wrong contains matches?", 1, found.size());
+		assertEquals(gamma.getUniversalId(), found.get(0));
+
+		store.deleteAllData();
+		assertEquals("Still some mock streams open?", 0, db.getOpenStreamCount());
+	}
+
+	public void testDropdownComparisonsAreVerified() throws Exception
+	{
+		MockClientDatabase db = new MockClientDatabase();
+		BulletinStore store = createStore(db);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+
+		CustomDropDownFieldSpec colorSpec = new CustomDropDownFieldSpec();
+		colorSpec.setTag("color");
+		colorSpec.setLabel("Color");
+		colorSpec.setChoices(new ChoiceItem[] {new ChoiceItem("", ""), new ChoiceItem("r", "red"), new ChoiceItem("g", "green")});
+		FieldSpecCollection topSpecs = StandardFieldSpecs.getDefaultTopSectionFieldSpecs();
+		topSpecs.add(colorSpec);
+		for(int i = 0; i < 2; ++i)
+		{
+			Bulletin b = new Bulletin(security, topSpecs, StandardFieldSpecs.getDefaultBottomSectionFieldSpecs());
+			b.set("color", (i == 0) ? "r" : "g");
+			store.saveBulletinForTesting(b);
+		}
+
+		assertEquals("dropdown ordered?", 0, index.findBulletinUidsMatching("color", MartusField.GREATER, "g").size());
+		assertEquals(2, index.getIndexedCount());
+		assertEquals("indexed dropdown ordered?", 0, index.findBulletinUidsMatching("color", MartusField.GREATER, "g").size());
+		assertEquals("compared stored dropdown codes?", 2, index.getLastVerifiedCount());
+
+		store.deleteAllData();
+	}
+
+	public void testRevisionSavedDuringSearchIsNotIndexedStale() throws Exception
+	{
+		MockClientDatabase db = new MockClientDatabase();
+		BulletinStore store = createStore(db);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+		Bulletin b = createAndSave(store, "alpha", "");
+		UniversalId uid = b.getUniversalId();
+
+		long generation = index.startSearch();
+		Bulletin loaded = BulletinLoader.loadFromDatabase(db, BulletinStoreCache.findKey(db, uid), security);
+		b.set(Bulletin.TAGAUTHOR, "omega");
+		store.saveBulletinForTesting(b);
+		index.addToIndex(loaded, generation);
+		index.endSearch();
+		assertFalse("indexed a stale revision?", index.isIndexed(uid));
+		assertEquals("matched stale value?", 0, index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.EQUAL, "alpha").size());
+		assertEquals("missed saved value?", 1, index.findBulletinUidsMatching(Bulletin.TAGAUTHOR, MartusField.EQUAL, "omega").size());
+		assertTrue("didn't index the saved revision?", index.isIndexed(uid));
+
+		generation = index.startSearch();
+		Bulletin other = createAndSave(store, "beta", "");
+		index.endSearch();
+		index.addToIndex(other, generation);
+		assertFalse("indexed after the drops were forgotten?", index.isIndexed(other.getUniversalId()));
+
+		store.deleteAllData();
+		assertEquals("Still some mock streams open?", 0, db.getOpenStreamCount());
+	}
+
+	public void testDroppedWhenLanguageChanges() throws Exception
+	{
+		File storeDir = createTempDirectory();
+		BulletinStore store = createStore(storeDir);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+		createAndSave(store, "Apple Orchard", "");
+		assertEquals(1, store.findBulletinUidsContaining("orchard", localization).size());
+		assertEquals(1, index.getIndexedCount());
+
+		localization.setCurrentLanguageCode("es");
+		try
+		{
+			assertEquals("kept index for another language?", 0, index.getIndexedCount());
+			assertFalse("kept index file?", new File(storeDir, BulletinSearchIndex.INDEX_FILENAME).exists());
+			assertEquals(1, store.findBulletinUidsContaining("orchard", localization).size());
+			assertEquals("didn't reindex?", 1, index.getIndexedCount());
+		}
+		finally
+		{
+			localization.setCurrentLanguageCode("en");
+		}
+		store.deleteAllData();
+	}
+
+	public void testPersistedEncrypted() throws Exception
+	{
+		File storeDir = createTempDirectory();
+		BulletinStore store = createStore(storeDir);
+		BulletinSearchIndex index = new BulletinSearchIndex(store, localization);
+		store.setSearchIndex(index);
+
+		Bulletin apple = createAndSave(store, "Apple Orchard", "");
+		createAndSave(store, "Banana Grove", "");
+		assertEquals(1, store.findBulletinUidsContaining("orchard", localization).size());
+
+		File indexFile = new File(storeDir, BulletinSearchIndex.INDEX_FILENAME);
+		assertTrue("didn't save index?", indexFile.exists());
+		assertFalse("index not encrypted?", readFile(indexFile).indexOf("orchard") >= 0);
+
+		BulletinStore reopened = createStore(storeDir);
+		BulletinSearchIndex reloaded = new BulletinSearchIndex(reopened, localization);
+		reopened.setSearchIndex(reloaded);
+		assertEquals("didn't load index?", 2, reloaded.getIndexedCount());
+		Vector found = reopened.findBulletinUidsContaining("orchard", localization);
+		assertEquals(1, found.size());
+		assertEquals(apple.getUniversalId(), found.get(0));
+		assertEquals("loaded non-candidates after reload?", 1, reloaded.getLastVerifiedCount());
+
+		reopened.saveBulletinForTesting(apple);
+		assertTrue("didn't journal dropped revision?", new File(storeDir, BulletinSearchIndex.JOURNAL_FILENAME).exists());
+		BulletinStore third = createStore(storeDir);
+		BulletinSearchIndex replayed = new BulletinSearchIndex(third, localization);
+		third.setSearchIndex(replayed);
+		assertEquals("didn't replay journal?", 1, replayed.getIndexedCount());
+		assertFalse("resurrected dropped revision?", replayed.isIndexed(apple.getUniversalId()));
+
+		third.deleteAllData();
+		assertFalse("didn't delete index?", indexFile.exists());
+	}
+
+	private BulletinStore createStore(Database db) throws Exception
+	{
+		BulletinStore store = new BulletinStore();
+		store.doAfterSigninInitialization(createTempDirectory(), db);
+		store.setSignatureGenerator(security);
+		return store;
+	}
+
+	private BulletinStore createStore(File storeDir) throws Exception
+	{
+		BulletinStore store = new BulletinStore();
+		store.doAfterSigninInitialization(storeDir, new ClientFileDatabase(new File(storeDir, "packets"), security));
+		store.setSignatureGenerator(security);
+		return store;
+	}
+
+	private Bulletin createAndSave(BulletinStore store, String author, String privateInfo) throws Exception
+	{
+		Bulletin b = new Bulletin(security);
+		b.set(Bulletin.TAGAUTHOR, author);
+		b.set(Bulletin.TAGPRIVATEINFO, privateInfo);
+		store.saveBulletinForTesting(b);
+		return b;
+	}
+
+	private String readFile(File file) throws Exception
+	{
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			in.read(bytes);
+		}
+		finally
+		{
+			in.close();
+		}
+		return new String(bytes, "ISO-8859-1");
+	}
+
+	private MockMartusSecurity security;
+	private MiniLocalization localization;
+}
@@ -29,9 +29,12 @@ package org.martus.common.bulletinstore;
 import java.io.File;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipFile;
 
 import org.martus.common.LoggerToNull;
+import org.martus.common.MiniLocalization;
 import org.martus.common.bulletin.AttachmentProxy;
 import org.martus.common.bulletin.Bulletin;
 import org.martus.common.bulletin.BulletinLoader;
@@ -359,6 +362,76 @@ public class TestBulletinStore extends TestCaseEnhanced
 		
 	}
 
+	public void testFindBulletinUidsContaining() throws Exception
+	{
+		MiniLocalization localization = new MiniLocalization();
+		Bulletin apple = createAndSaveBulletinWithAuthor(security1, "Apple Orchard");
+		Bulletin other = createAndSaveBulletinWithAuthor(security2, "Banana Grove");
+		Bulletin hidden = new Bulletin(security1);
+		hidden.set(Bulletin.TAGPRIVATEINFO, "an APPLE a day");
+		store.saveBulletinForTesting(hidden);
+
+		Vector found = store.findBulletinUidsContaining("apple", localization);
+		assertEquals("wrong match count?", 2, found.size());
+		assertContains("missing public match?", apple.getUniversalId(), found);
+		assertContains("missing private match?", hidden.getUniversalId(), found);
+		assertFalse("found non-match?", found.contains(other.getUniversalId()));
+
+		assertEquals("found something missing?", 0, store.findBulletinUidsContaining("cherry", localization).size());
+	}
+
+	public void testParallelSearchStreamsAndCancels() throws Exception
+	{
+		MiniLocalization localization = new MiniLocalization();
+		final int bulletinCount = 5;
+		for(int i = 0; i < bulletinCount; ++i)
+			createAndSaveBulletinWithAuthor(security1, "Author " + i);
+
+		ParallelBulletinSearch.Matcher matcher = new ParallelBulletinSearch.ContainsMatcher("author", localization);
+		CancelOnFirstMatch listener = new CancelOnFirstMatch();
+		ParallelBulletinSearch search = new ParallelBulletinSearch(store.getDatabase(), store.getSignatureVerifier(), store.getHistoryAndHqCache().getAllLeafKeys(), matcher, listener);
+		listener.search = search;
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			search.start(executor, 1);
+			search.waitUntilDone();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		assertTrue("not cancelled?", search.isCancelled());
+		assertTrue("not done?", search.isDone());
+		assertEquals("kept matching after cancel?", 1, listener.matches.size());
+		assertEquals("kept searching after cancel?", 1, search.getSearchedCount());
+		assertEquals("wrong total?", bulletinCount, search.getBulletinCount());
+
+		ParallelBulletinSearch all = store.searchAllBulletins(matcher, new CancelOnFirstMatch());
+		all.waitUntilDone();
+		assertEquals("didn't search everything?", bulletinCount, all.getSearchedCount());
+		assertEquals("didn't match everything?", bulletinCount, all.getMatchCount());
+	}
+
+	static class CancelOnFirstMatch implements ParallelBulletinSearch.Listener
+	{
+		public synchronized void bulletinMatched(Bulletin b)
+		{
+			matches.add(b.getUniversalId());
+			if(search != null)
+				search.cancel();
+		}
+
+		public void bulletinCouldNotBeSearched(DatabaseKey key, Exception e)
+		{
+			fail("Couldn't search " + key.getLocalId() + ": " + e);
+		}
+
+		ParallelBulletinSearch search;
+		Vector matches = new Vector();
+	}
+
 	public void testImportBulletinPacketsFromZipFileToDatabase() throws Exception
 	{
 		MartusCrypto authorSecurity = MockMartusSecurity.createClient();
@@ -417,6 +490,14 @@ public class TestBulletinStore extends TestCaseEnhanced
 		return b;
 	}
 
+	private Bulletin createAndSaveBulletinWithAuthor(MockMartusSecurity security, String author) throws Exception
+	{
+		Bulletin b = new Bulletin(security);
+		b.set(Bulletin.TAGAUTHOR, author);
+		store.saveBulletinForTesting(b);
+		return b;
+	}
+
 	private Bulletin createAndSaveClone(Bulletin original) throws Exception
 	{
 		if(original.getFieldDataPacket().getAttachments().length > 0)
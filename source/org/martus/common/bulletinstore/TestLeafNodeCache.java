@@ -26,18 +26,24 @@ Boston, MA 02111-1307, USA.
 package org.martus.common.bulletinstore;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 
+import org.martus.common.HeadquartersKey;
+import org.martus.common.HeadquartersKeys;
 import org.martus.common.bulletin.Bulletin;
 import org.martus.common.crypto.MartusSecurity;
 import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.database.ClientFileDatabase;
 import org.martus.common.database.DatabaseKey;
 import org.martus.common.database.MockServerDatabase;
 import org.martus.common.database.ServerFileDatabase;
 import org.martus.common.database.Database.RecordHiddenException;
 import org.martus.common.packet.BulletinHeaderPacket;
 import org.martus.common.packet.BulletinHistory;
+import org.martus.common.packet.Packet;
 import org.martus.common.packet.UniversalId;
 import org.martus.common.test.UniversalIdForTesting;
 import org.martus.util.Stopwatch;
@@ -171,8 +177,8 @@ public class TestLeafNodeCache extends TestCaseEnhanced
 		// and then removing child should make grandparent a leaf
 		store.deleteSpecificPacket(getKey(child));
 		cache.revisionWasRemoved(child.getUniversalId());
-		assertEquals(2, cache.getAllKnownDescendents(grandparent.getUniversalId()).size());
-		assertEquals(1, cache.getAllKnownDescendents(parent.getUniversalId()).size());
+		assertEquals(0, cache.getAllKnownDescendents(grandparent.getUniversalId()).size());
+		assertEquals(0, cache.getAllKnownDescendents(parent.getUniversalId()).size());
 		assertEquals(0, cache.getAllKnownDescendents(child.getUniversalId()).size());
 		saveHeaderPacket(store, parent, client);
 		cache.revisionWasSaved(parent.getUniversalId());
@@ -185,13 +191,147 @@ public class TestLeafNodeCache extends TestCaseEnhanced
 		// removing child should make parent leaf again
 		store.deleteSpecificPacket(getKey(child));
 		cache.revisionWasRemoved(child.getUniversalId());
-		assertEquals(2, cache.getAllKnownDescendents(grandparent.getUniversalId()).size());
-		assertEquals(1, cache.getAllKnownDescendents(parent.getUniversalId()).size());
+		assertEquals(1, cache.getAllKnownDescendents(grandparent.getUniversalId()).size());
+		assertEquals(0, cache.getAllKnownDescendents(parent.getUniversalId()).size());
 		assertEquals(0, cache.getAllKnownDescendents(child.getUniversalId()).size());
 		saveHeaderPacket(store, child, client);
 		cache.revisionWasSaved(child.getUniversalId());
 	}
 
+	public void testLeafQueriesConfirmRecordsExist() throws Exception
+	{
+		File tempDirectory = createTempDirectory();
+		BulletinStore store = new BulletinStore();
+		store.doAfterSigninInitialization(tempDirectory, new MockServerDatabase());
+		BulletinHistoryAndHqCache cache = store.getHistoryAndHqCache();
+		MockMartusSecurity client = MockMartusSecurity.createClient();
+
+		BulletinHeaderPacket original = new BulletinHeaderPacket(client);
+		saveHeaderPacket(store, original, client);
+		cache.revisionWasSaved(original.getUniversalId());
+		BulletinHeaderPacket newVersion = new BulletinHeaderPacket(client);
+		newVersion.getHistory().add(original.getLocalId());
+		saveHeaderPacket(store, newVersion, client);
+		cache.revisionWasSaved(newVersion.getUniversalId());
+		assertTrue("new version not a leaf?", store.isLeaf(newVersion.getUniversalId()));
+
+		store.deleteSpecificPacket(getKey(newVersion));
+		assertFalse("missing revision is a leaf?", store.isLeaf(newVersion.getUniversalId()));
+		assertFalse("missing revision counts as newer?", store.hasNewerRevision(original.getUniversalId()));
+		assertTrue("original not a leaf again?", store.isLeaf(original.getUniversalId()));
+		assertEquals(1, store.getAllBulletinLeafUids().size());
+		assertTrue("wrong leaf?", store.getAllBulletinLeafUids().contains(original.getUniversalId()));
+
+		store.deleteSpecificPacket(getKey(original));
+		assertEquals(0, store.getBulletinCount());
+		assertFalse("missing original is a leaf?", store.isLeaf(original.getUniversalId()));
+	}
+
+	public void testPersistentSnapshotAndJournal() throws Exception
+	{
+		File tempDirectory = createTempDirectory();
+		MockMartusSecurity client = MockMartusSecurity.createClient();
+		MockMartusSecurity hq = MockMartusSecurity.createHQ();
+		String hqKey = hq.getPublicKeyString();
+
+		BulletinStore store = createFileStore(tempDirectory, client);
+		Bulletin withHq = new Bulletin(client);
+		withHq.addAuthorizedToReadKeys(new HeadquartersKeys(new HeadquartersKey(hqKey)));
+		store.saveBulletinForTesting(withHq);
+		Bulletin withoutHq = new Bulletin(client);
+		store.saveBulletinForTesting(withoutHq);
+		assertEquals(1, store.getFieldOffices(hqKey).size());
+		store.getHistoryAndHqCache().savePersistentState();
+		File snapshotFile = new File(tempDirectory, BulletinHistoryAndHqCache.SNAPSHOT_FILENAME);
+		assertTrue("no snapshot?", snapshotFile.exists());
+
+		int headersLoadedBefore = Packet.callsToVerifyPacketSignature;
+		BulletinStore reopened = createFileStore(tempDirectory, client);
+		assertEquals(1, reopened.getFieldOffices(hqKey).size());
+		assertEquals(2, reopened.getBulletinCount());
+		assertEquals("scanned headers despite snapshot?", headersLoadedBefore, Packet.callsToVerifyPacketSignature);
+
+		Bulletin newVersion = new Bulletin(client);
+		newVersion.getBulletinHeaderPacket().getHistory().add(withoutHq.getLocalId());
+		reopened.saveBulletinForTesting(newVersion);
+		reopened.deleteBulletinRevisionFromDatabase(withHq.getBulletinHeaderPacket());
+		assertEquals("removal didn't prune field offices?", 0, reopened.getFieldOffices(hqKey).size());
+
+		headersLoadedBefore = Packet.callsToVerifyPacketSignature;
+		BulletinStore fromJournal = createFileStore(tempDirectory, client);
+		assertEquals(0, fromJournal.getFieldOffices(hqKey).size());
+		assertTrue("journal not replayed?", fromJournal.hasNewerRevision(withoutHq.getUniversalId()));
+		assertTrue("replayed save not a leaf?", fromJournal.isLeaf(newVersion.getUniversalId()));
+		assertFalse("removed revision still a leaf?", fromJournal.isLeaf(withHq.getUniversalId()));
+		assertEquals(1, fromJournal.getBulletinCount());
+		assertEquals("replay loaded wrong number of headers?", headersLoadedBefore + 1, Packet.callsToVerifyPacketSignature);
+
+		byte[] damaged = new byte[(int)snapshotFile.length()];
+		FileInputStream in = new FileInputStream(snapshotFile);
+		in.read(damaged);
+		in.close();
+		damaged[damaged.length / 2] ^= 0x55;
+		FileOutputStream out = new FileOutputStream(snapshotFile);
+		out.write(damaged);
+		out.close();
+
+		BulletinStore rebuilt = createFileStore(tempDirectory, client);
+		assertEquals(0, rebuilt.getFieldOffices(hqKey).size());
+		assertTrue("rebuild lost history?", rebuilt.hasNewerRevision(withoutHq.getUniversalId()));
+		assertEquals(1, rebuilt.getBulletinCount());
+
+		rebuilt.deleteAllBulletins();
+		assertFalse("snapshot survived delete?", snapshotFile.exists());
+	}
+
+	public void testInterruptedChangeIsRecheckedOnLoad() throws Exception
+	{
+		File tempDirectory = createTempDirectory();
+		MockMartusSecurity client = MockMartusSecurity.createClient();
+		BulletinStore store = createFileStore(tempDirectory, client);
+		Bulletin original = new Bulletin(client);
+		store.saveBulletinForTesting(original);
+		store.getHistoryAndHqCache().savePersistentState();
+
+		BulletinHeaderPacket newVersion = new BulletinHeaderPacket(client);
+		newVersion.getHistory().add(original.getLocalId());
+		store.revisionWillChange(newVersion.getUniversalId());
+		saveHeaderPacket(store, newVersion, client);
+
+		BulletinStore reopened = createFileStore(tempDirectory, client);
+		assertTrue("interrupted save not a leaf?", reopened.isLeaf(newVersion.getUniversalId()));
+		assertTrue("interrupted save not a descendent?", reopened.hasNewerRevision(original.getUniversalId()));
+		assertEquals(1, reopened.getBulletinCount());
+	}
+
+	public void testClearCacheRescansDatabase() throws Exception
+	{
+		File tempDirectory = createTempDirectory();
+		MockMartusSecurity client = MockMartusSecurity.createClient();
+		BulletinStore store = createFileStore(tempDirectory, client);
+		Bulletin original = new Bulletin(client);
+		store.saveBulletinForTesting(original);
+		store.getHistoryAndHqCache().savePersistentState();
+		File snapshotFile = new File(tempDirectory, BulletinHistoryAndHqCache.SNAPSHOT_FILENAME);
+		assertTrue("no snapshot?", snapshotFile.exists());
+
+		BulletinHeaderPacket behindTheCachesBack = new BulletinHeaderPacket(client);
+		saveHeaderPacket(store, behindTheCachesBack, client);
+		store.clearCache();
+		assertFalse("snapshot survived clear?", snapshotFile.exists());
+		assertTrue("didn't rescan?", store.isLeaf(behindTheCachesBack.getUniversalId()));
+		assertEquals(2, store.getBulletinCount());
+		assertTrue("rescan not saved?", snapshotFile.exists());
+	}
+
+	private BulletinStore createFileStore(File directory, MockMartusSecurity security) throws Exception
+	{
+		BulletinStore store = new BulletinStore();
+		store.setSignatureGenerator(security);
+		store.doAfterSigninInitialization(directory, new ClientFileDatabase(directory, security));
+		return store;
+	}
+
 	private void saveHeaderPacket(BulletinStore store, BulletinHeaderPacket bhp, MockMartusSecurity client) throws IOException, RecordHiddenException
 	{
 		StringWriter writer = new StringWriter();
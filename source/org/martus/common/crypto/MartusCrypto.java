@@ -95,6 +95,8 @@ public abstract class MartusCrypto
 	public abstract SessionKey createSessionKey();
 	public abstract SessionKey encryptSessionKey(SessionKey sessionKey, String publicKey) throws
 		EncryptionException;
+	public abstract SessionKey[] encryptSessionKeys(SessionKey sessionKey, String[] publicKeys) throws
+		EncryptionException;
 	public abstract SessionKey decryptSessionKey(SessionKey encryptedSessionKey) throws
 		DecryptionException;
 
@@ -408,6 +410,63 @@ public abstract class MartusCrypto
 		}
 	}
 
+	// NOTE: Subclasses that can decrypt as the cipher text arrives should 
+	// override this. By default the cipher text is collected in a temp file 
+	// and decrypted into plainStream when the returned stream is closed
+	public OutputStream createDecryptingOutputStream(OutputStream plainStream, SessionKey sessionKey) throws IOException
+	{
+		return new DecryptOnCloseOutputStream(plainStream, sessionKey);
+	}
+
+	class DecryptOnCloseOutputStream extends OutputStream
+	{
+		DecryptOnCloseOutputStream(OutputStream plainStreamToUse, SessionKey sessionKeyToUse) throws IOException
+		{
+			plainStream = plainStreamToUse;
+			sessionKey = sessionKeyToUse;
+			cipherFile = File.createTempFile("$$$MartusEncryptedAtt", null);
+			cipherFile.deleteOnExit();
+			cipherOut = new FileOutputStream(cipherFile);
+		}
+
+		public void write(int b) throws IOException
+		{
+			cipherOut.write(b);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			cipherOut.write(bytes, offset, length);
+		}
+
+		public void close() throws IOException
+		{
+			if(cipherOut == null)
+				return;
+
+			cipherOut.close();
+			cipherOut = null;
+			InputStreamWithSeek cipherIn = new FileInputStreamWithSeek(cipherFile);
+			try
+			{
+				decrypt(cipherIn, plainStream, sessionKey);
+			}
+			catch(DecryptionException e)
+			{
+				throw new IOException(e.toString());
+			}
+			finally
+			{
+				cipherIn.close();
+				cipherFile.delete();
+			}
+		}
+
+		private OutputStream plainStream;
+		private SessionKey sessionKey;
+		private File cipherFile;
+		private FileOutputStream cipherOut;
+	}
 
 	// exceptions
 	public static class CryptoException extends Exception
@@ -148,12 +148,17 @@ public class MartusJceKeyPair extends MartusKeyPair
 
 	public static PublicKey extractPublicKey(String publicKeyX509)
 	{
+		PublicKey cached = publicKeyCache.get(publicKeyX509);
+		if(cached != null)
+			return cached;
+
 		//System.out.println("key=" + base64PublicKey);
 		try
 		{
 			EncodedKeySpec keySpec = new X509EncodedKeySpec(StreamableBase64.decode(publicKeyX509));
-			KeyFactory factory = KeyFactory.getInstance(RSA_ALGORITHM_NAME);
-			PublicKey publicKey = factory.generatePublic(keySpec);
+			PublicKey publicKey = getRSAKeyFactory().generatePublic(keySpec);
+			// NOTE: Invalid keys are not cached, so they can't push out good ones
+			publicKeyCache.put(publicKeyX509, publicKey);
 			return publicKey;
 		}
 		catch(NoSuchAlgorithmException e)
@@ -175,6 +180,11 @@ public class MartusJceKeyPair extends MartusKeyPair
 	
 		return null;
 	}
+
+	public static PublicKeyCache getPublicKeyCache()
+	{
+		return publicKeyCache;
+	}
 	
 	public static boolean isKeyPairValid(KeyPair candidatePair)
 	{
@@ -241,11 +251,28 @@ public class MartusJceKeyPair extends MartusKeyPair
 
 	private static Cipher createRSAEngine(Key key, int mode) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, InvalidKeyException
 	{
-		Cipher rsaCipherEngine = Cipher.getInstance(RSA_ALGORITHM, getProviderName());
+		// NOTE: Each use is a complete init and doFinal, so one engine per thread is enough
+		Cipher rsaCipherEngine = (Cipher)rsaCipherEngines.get();
+		if(rsaCipherEngine == null)
+		{
+			rsaCipherEngine = Cipher.getInstance(RSA_ALGORITHM, getProviderName());
+			rsaCipherEngines.set(rsaCipherEngine);
+		}
 		rsaCipherEngine.init(mode, key, rand);
 		return rsaCipherEngine;
 	}
 
+	private static KeyFactory getRSAKeyFactory() throws NoSuchAlgorithmException
+	{
+		KeyFactory factory = (KeyFactory)rsaKeyFactories.get();
+		if(factory == null)
+		{
+			factory = KeyFactory.getInstance(RSA_ALGORITHM_NAME);
+			rsaKeyFactories.set(factory);
+		}
+		return factory;
+	}
+
 	private static byte[] encryptBytes(byte[] bytesToEncrypt, PublicKey publicKey) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException
 	{
 		Cipher rsaCipherEngine = createRSAEncryptor(publicKey);
@@ -273,6 +300,9 @@ public class MartusJceKeyPair extends MartusKeyPair
 	private static SecureRandom rand;
 	private KeyPair jceKeyPair;
 	private static SecurityContext providerAccessor;
+	private static PublicKeyCache publicKeyCache = new PublicKeyCache();
+	private static ThreadLocal rsaCipherEngines = new ThreadLocal();
+	private static ThreadLocal rsaKeyFactories = new ThreadLocal();
 
 	static final String RSA_ALGORITHM_NAME = "RSA";
 	private static final String RSA_ALGORITHM = "RSA/NONE/PKCS1Padding";
@@ -57,12 +57,14 @@ import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
@@ -77,6 +79,7 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 
+import org.martus.common.DaemonThreadPool;
 import org.martus.common.MartusConstants;
 import org.martus.common.MartusLogger;
 import org.martus.common.network.SimpleX509TrustManager;
@@ -130,10 +133,16 @@ public class MartusSecurity extends MartusCrypto
 
 		try
 		{
-			pbeCipherEngine = Cipher.getInstance(PBE_ALGORITHM, "BC");
-			sessionCipherEngine = Cipher.getInstance(SESSION_ALGORITHM, "BC");
-			sessionKeyGenerator = KeyGenerator.getInstance(SESSION_ALGORITHM_NAME, "BC");
-			keyFactory = SecretKeyFactory.getInstance(PBE_ALGORITHM, "BC");
+			pbeCipherEngines = new ThreadLocal();
+			sessionKeyGenerators = new ThreadLocal();
+			keyFactories = new ThreadLocal();
+			idleSessionCipherEngines = new Vector();
+
+			// NOTE: Create one of each up front so a missing algorithm fails here
+			getPbeCipherEngine();
+			getSessionKeyGenerator();
+			getKeyFactory();
+			returnSessionCipherEngine(takeSessionCipherEngine());
 
 			keyPair = new MartusJceKeyPair(rand, securityContext);
 		}
@@ -143,7 +152,7 @@ public class MartusSecurity extends MartusCrypto
 			throw new CryptoInitializationException();
 		}
 
-		decryptedSessionKeys = Collections.synchronizedMap(new HashMap());
+		decryptedSessionKeys = new SessionKeyCache();
 	}
 
 	private static void disableCryptoRestrictions() throws Exception
@@ -371,14 +380,14 @@ public class MartusSecurity extends MartusCrypto
 		encrypt(plainStream, cipherStream, createSessionKey());
 	}
 
-	public synchronized void encrypt(InputStream plainStream, OutputStream cipherStream, SessionKey sessionKey) throws
+	public void encrypt(InputStream plainStream, OutputStream cipherStream, SessionKey sessionKey) throws
 			EncryptionException,
 			NoKeyPairException
 	{
 		encrypt(plainStream, cipherStream, sessionKey, getPublicKeyString());
 	}
 
-	public synchronized void encrypt(InputStream plainStream, OutputStream cipherStream, SessionKey sessionKey, String publicKeyString) throws
+	public void encrypt(InputStream plainStream, OutputStream cipherStream, SessionKey sessionKey, String publicKeyString) throws
 			EncryptionException,
 			NoKeyPairException
 	{
@@ -431,17 +440,30 @@ public class MartusSecurity extends MartusCrypto
 
 			SecretKey secretSessionKey = new SecretKeySpec(sessionKey.getBytes(), SESSION_ALGORITHM_NAME);
 			IvParameterSpec spec = new IvParameterSpec(ivBytes);
-			sessionCipherEngine.init(Cipher.ENCRYPT_MODE, secretSessionKey, spec, rand);
-
-			OutputStream bufferedCipherStream = new BufferedOutputStream(cipherStream);
-			DataOutputStream output = new DataOutputStream(bufferedCipherStream);
-			output.writeInt(encryptedKeyBytes.length);
-			output.write(encryptedKeyBytes);
-			output.writeInt(ivBytes.length);
-			output.write(ivBytes);
-
-			CipherOutputStream cos = new CipherOutputStream(output, sessionCipherEngine);
-			return cos;
+			Cipher sessionCipherEngine = takeSessionCipherEngine();
+			boolean handedOff = false;
+			try
+			{
+				sessionCipherEngine.init(Cipher.ENCRYPT_MODE, secretSessionKey, spec, rand);
+
+				OutputStream bufferedCipherStream = new BufferedOutputStream(cipherStream);
+				DataOutputStream output = new DataOutputStream(bufferedCipherStream);
+				output.writeInt(encryptedKeyBytes.length);
+				output.write(encryptedKeyBytes);
+				output.writeInt(ivBytes.length);
+				output.write(ivBytes);
+
+				CipherOutputStream cos = new PooledCipherOutputStream(output, sessionCipherEngine);
+				handedOff = true;
+				return cos;
+			}
+			finally
+			{
+				// NOTE: The stream returns the engine when it is closed, 
+				// so we only have to return it if we never got that far
+				if(!handedOff)
+					returnSessionCipherEngine(sessionCipherEngine);
+			}
 		}
 		catch(Exception e)
 		{
@@ -456,18 +478,20 @@ public class MartusSecurity extends MartusCrypto
 		ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
 		DataOutputStream out = new DataOutputStream(rawOut);
 		out.writeInt(CACHE_VERSION);
-		out.writeInt(decryptedSessionKeys.size());
-		Set keys = decryptedSessionKeys.keySet();
+		Map cachedSessionKeys = decryptedSessionKeys.getSnapshot();
+		out.writeInt(cachedSessionKeys.size());
+		Set keys = cachedSessionKeys.keySet();
 		for (Iterator iter = keys.iterator(); iter.hasNext(); ) 
 		{
 			SessionKey encryptedSessionKey = (SessionKey) iter.next();
 			byte[] encryptedBytes = encryptedSessionKey.getBytes();
 			out.writeInt(encryptedBytes.length);
 			out.write(encryptedBytes);
-			SessionKey decryptedSessionKey = getCachedDecryptedSessionKey(encryptedSessionKey);
+			SessionKey decryptedSessionKey = (SessionKey)cachedSessionKeys.get(encryptedSessionKey);
 			byte[] decryptedBytes = decryptedSessionKey.getBytes();
 			out.writeInt(decryptedBytes.length);
 			out.write(decryptedBytes);
+			decryptedSessionKey.wipe();
 		}
 		out.writeInt(CACHE_VERSION);
 		out.close();
@@ -501,6 +525,7 @@ public class MartusSecurity extends MartusCrypto
 			byte[] decrypted = new byte[decryptedSize];
 			in.read(decrypted);
 			decryptedSessionKeys.put(new SessionKey(encrypted), new SessionKey(decrypted));
+			Arrays.fill(decrypted, (byte)0);
 		}
 		if(in.readInt() != CACHE_VERSION)
 			throw new IOException();
@@ -587,27 +612,30 @@ public class MartusSecurity extends MartusCrypto
 
 	public synchronized void flushSessionKeyCache()
 	{
-		Set keys = decryptedSessionKeys.keySet();
-		for (Iterator iter = keys.iterator(); iter.hasNext(); ) 
-		{
-			SessionKey encryptedSessionKey = (SessionKey)iter.next();
-			SessionKey decryptedSessionKey = (SessionKey)decryptedSessionKeys.get(encryptedSessionKey);
-			decryptedSessionKey.wipe();
-		}
 		decryptedSessionKeys.clear();
 	}
 
-	private synchronized void addSessionKeyToCache(SessionKey encryptedSessionKey, SessionKey decryptedSessionKey)
+	public void setSessionKeyCacheLimits(int maximumEntries, long maximumAgeMillis)
+	{
+		decryptedSessionKeys.setLimits(maximumEntries, maximumAgeMillis);
+	}
+
+	public SessionKeyCache getDecryptedSessionKeyCache()
 	{
-		decryptedSessionKeys.put(encryptedSessionKey, decryptedSessionKey.copy());
+		return decryptedSessionKeys;
 	}
 
-	private synchronized SessionKey getCachedDecryptedSessionKey(SessionKey encryptedSessionKey)
+	private void addSessionKeyToCache(SessionKey encryptedSessionKey, SessionKey decryptedSessionKey)
 	{
-		return (SessionKey)decryptedSessionKeys.get(encryptedSessionKey);
+		decryptedSessionKeys.put(encryptedSessionKey, decryptedSessionKey);
 	}
 
-	public synchronized SessionKey encryptSessionKey(SessionKey sessionKey, String publicKey) throws
+	private SessionKey getCachedDecryptedSessionKey(SessionKey encryptedSessionKey)
+	{
+		return decryptedSessionKeys.get(encryptedSessionKey);
+	}
+
+	public SessionKey encryptSessionKey(SessionKey sessionKey, String publicKey) throws
 		EncryptionException
 	{
 		try
@@ -625,7 +653,86 @@ public class MartusSecurity extends MartusCrypto
 		}
 	}
 
-	public synchronized SessionKey decryptSessionKey(SessionKey encryptedSessionKey) throws
+	public SessionKey[] encryptSessionKeys(SessionKey sessionKey, String[] publicKeys) throws
+		EncryptionException
+	{
+		Vector distinctKeys = new Vector();
+		for(int i = 0; i < publicKeys.length; ++i)
+		{
+			if(!distinctKeys.contains(publicKeys[i]))
+				distinctKeys.add(publicKeys[i]);
+		}
+
+		Map wrappedKeys = new HashMap();
+		if(distinctKeys.size() < MIN_PARALLEL_SESSION_KEY_WRAPS)
+		{
+			for(int i = 0; i < distinctKeys.size(); ++i)
+			{
+				String publicKey = (String)distinctKeys.get(i);
+				wrappedKeys.put(publicKey, encryptSessionKey(sessionKey, publicKey));
+			}
+		}
+		else
+		{
+			wrapSessionKeyInParallel(sessionKey, distinctKeys, wrappedKeys);
+		}
+
+		SessionKey[] encryptedSessionKeys = new SessionKey[publicKeys.length];
+		for(int i = 0; i < publicKeys.length; ++i)
+			encryptedSessionKeys[i] = (SessionKey)wrappedKeys.get(publicKeys[i]);
+		return encryptedSessionKeys;
+	}
+
+	private void wrapSessionKeyInParallel(SessionKey sessionKey, Vector distinctKeys, Map wrappedKeys) throws
+		EncryptionException
+	{
+		ExecutorService executor = getSessionKeyWrappingExecutor();
+		Vector pending = new Vector();
+		try
+		{
+			for(int i = 0; i < distinctKeys.size(); ++i)
+				pending.add(executor.submit(new SessionKeyWrapper(sessionKey, (String)distinctKeys.get(i))));
+
+			for(int i = 0; i < pending.size(); ++i)
+				wrappedKeys.put(distinctKeys.get(i), ((Future)pending.get(i)).get());
+		}
+		catch(Exception e)
+		{
+			//System.out.println("MartusSecurity.encryptSessionKeys: " + e);
+			throw new EncryptionException();
+		}
+		finally
+		{
+			for(int i = 0; i < pending.size(); ++i)
+				((Future)pending.get(i)).cancel(false);
+		}
+	}
+
+	class SessionKeyWrapper implements Callable
+	{
+		SessionKeyWrapper(SessionKey sessionKeyToUse, String publicKeyToUse)
+		{
+			sessionKey = sessionKeyToUse;
+			publicKey = publicKeyToUse;
+		}
+
+		public Object call() throws Exception
+		{
+			return encryptSessionKey(sessionKey, publicKey);
+		}
+
+		SessionKey sessionKey;
+		String publicKey;
+	}
+
+	private static synchronized ExecutorService getSessionKeyWrappingExecutor()
+	{
+		if(sessionKeyWrappingExecutor == null)
+			sessionKeyWrappingExecutor = DaemonThreadPool.create("SessionKeyWrapping", MAX_SESSION_KEY_WRAPPING_THREADS);
+		return sessionKeyWrappingExecutor;
+	}
+
+	public SessionKey decryptSessionKey(SessionKey encryptedSessionKey) throws
 		DecryptionException
 	{
 		SessionKey decrypted = getCachedDecryptedSessionKey(encryptedSessionKey);
@@ -687,7 +794,7 @@ public class MartusSecurity extends MartusCrypto
 		return decryptedBytes;
 	}
 
-	public synchronized void decrypt(InputStreamWithSeek cipherStream, OutputStream plainStream, SessionKey sessionKey) throws
+	public void decrypt(InputStreamWithSeek cipherStream, OutputStream plainStream, SessionKey sessionKey) throws
 			DecryptionException
 	{
 		InputStream cis = createDecryptingInputStream(cipherStream, sessionKey);
@@ -730,10 +837,20 @@ public class MartusSecurity extends MartusCrypto
 			SecretKey secretSessionKey = new SecretKeySpec(sessionKey.getBytes(), SESSION_ALGORITHM_NAME);
 			IvParameterSpec spec = new IvParameterSpec(iv);
 
-			sessionCipherEngine.init(Cipher.DECRYPT_MODE, secretSessionKey, spec, rand);
-			CipherInputStream cis = new CipherInputStream(dis, sessionCipherEngine);
-
-			return cis;
+			Cipher sessionCipherEngine = takeSessionCipherEngine();
+			boolean handedOff = false;
+			try
+			{
+				sessionCipherEngine.init(Cipher.DECRYPT_MODE, secretSessionKey, spec, rand);
+				CipherInputStream cis = new PooledCipherInputStream(dis, sessionCipherEngine);
+				handedOff = true;
+				return cis;
+			}
+			finally
+			{
+				if(!handedOff)
+					returnSessionCipherEngine(sessionCipherEngine);
+			}
 		}
 		catch(Exception e)
 		{
@@ -743,10 +860,239 @@ public class MartusSecurity extends MartusCrypto
 		}
 	}
 
-	public synchronized SessionKey createSessionKey()
+	public OutputStream createDecryptingOutputStream(OutputStream plainStream, SessionKey sessionKey)
 	{
-		sessionKeyGenerator.init(bitsInSessionKey, rand);
-		return new SessionKey(sessionKeyGenerator.generateKey().getEncoded());
+		return new DecryptingOutputStream(plainStream, sessionKey);
+	}
+
+	public SessionKey createSessionKey()
+	{
+		try
+		{
+			KeyGenerator sessionKeyGenerator = getSessionKeyGenerator();
+			sessionKeyGenerator.init(bitsInSessionKey, rand);
+			return new SessionKey(sessionKeyGenerator.generateKey().getEncoded());
+		}
+		catch(GeneralSecurityException e)
+		{
+			// NOTE: Can't happen, since initialize already created one
+			throw new RuntimeException(e);
+		}
+	}
+
+	class PooledCipherInputStream extends CipherInputStream
+	{
+		PooledCipherInputStream(InputStream in, Cipher engineToUse)
+		{
+			super(in, engineToUse);
+			engine = engineToUse;
+		}
+
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				if(engine != null)
+					returnSessionCipherEngine(engine);
+				engine = null;
+			}
+		}
+
+		private Cipher engine;
+	}
+
+	class PooledCipherOutputStream extends CipherOutputStream
+	{
+		PooledCipherOutputStream(OutputStream out, Cipher engineToUse)
+		{
+			super(out, engineToUse);
+			engine = engineToUse;
+		}
+
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				if(engine != null)
+					returnSessionCipherEngine(engine);
+				engine = null;
+			}
+		}
+
+		private Cipher engine;
+	}
+
+	// NOTE: Push-style counterpart of createDecryptingInputStream, for callers
+	// (like the attachment exporter) that receive the cipher text a chunk at a time.
+	// The key and IV header is collected first, then everything else goes
+	// straight through the cipher, so memory use doesn't depend on the data size
+	class DecryptingOutputStream extends OutputStream
+	{
+		DecryptingOutputStream(OutputStream plainStreamToUse, SessionKey sessionKeyToUse)
+		{
+			plainStream = plainStreamToUse;
+			sessionKey = sessionKeyToUse;
+			header = new ByteArrayOutputStream();
+			headerLength = INT_BYTE_COUNT;
+		}
+
+		public void write(int b) throws IOException
+		{
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			while(cipherStream == null && length > 0)
+			{
+				int count = Math.min(length, headerLength - header.size());
+				header.write(bytes, offset, count);
+				offset += count;
+				length -= count;
+				if(header.size() == headerLength)
+					parseHeader();
+			}
+
+			if(length > 0)
+				cipherStream.write(bytes, offset, length);
+		}
+
+		public void flush() throws IOException
+		{
+			if(cipherStream != null)
+				cipherStream.flush();
+		}
+
+		public void close() throws IOException
+		{
+			if(cipherStream == null)
+			{
+				plainStream.close();
+				throw new IOException("Encrypted data is truncated");
+			}
+			cipherStream.close();
+		}
+
+		private void parseHeader() throws IOException
+		{
+			try
+			{
+				DataInputStream dis = new DataInputStream(new ByteArrayInputStream(header.toByteArray()));
+				int keyByteCount = dis.readInt();
+				if(keyByteCount < 0 || keyByteCount > ARBITRARY_MAX_SESSION_KEY_LENGTH)
+					throw new DecryptionException();
+				int ivLengthAt = INT_BYTE_COUNT + keyByteCount;
+				if(header.size() < ivLengthAt + INT_BYTE_COUNT)
+				{
+					headerLength = ivLengthAt + INT_BYTE_COUNT;
+					return;
+				}
+
+				byte[] encryptedKeyBytes = new byte[keyByteCount];
+				dis.readFully(encryptedKeyBytes);
+				int ivByteCount = dis.readInt();
+				if(ivByteCount < 0 || ivByteCount > ARBITRARY_MAX_SESSION_KEY_LENGTH)
+					throw new DecryptionException();
+				if(header.size() < ivLengthAt + INT_BYTE_COUNT + ivByteCount)
+				{
+					headerLength = ivLengthAt + INT_BYTE_COUNT + ivByteCount;
+					return;
+				}
+
+				byte[] iv = new byte[ivByteCount];
+				dis.readFully(iv);
+				if(sessionKey == null)
+					sessionKey = decryptSessionKey(new SessionKey(encryptedKeyBytes));
+
+				SecretKey secretSessionKey = new SecretKeySpec(sessionKey.getBytes(), SESSION_ALGORITHM_NAME);
+				IvParameterSpec spec = new IvParameterSpec(iv);
+				Cipher sessionCipherEngine = takeSessionCipherEngine();
+				try
+				{
+					sessionCipherEngine.init(Cipher.DECRYPT_MODE, secretSessionKey, spec, rand);
+					cipherStream = new PooledCipherOutputStream(plainStream, sessionCipherEngine);
+				}
+				finally
+				{
+					if(cipherStream == null)
+						returnSessionCipherEngine(sessionCipherEngine);
+				}
+				header = null;
+			}
+			catch(Exception e)
+			{
+				//System.out.println("MartusSecurity.DecryptingOutputStream: " + e);
+				throw new IOException(e.toString());
+			}
+		}
+
+		private OutputStream plainStream;
+		private SessionKey sessionKey;
+		private ByteArrayOutputStream header;
+		private int headerLength;
+		private CipherOutputStream cipherStream;
+	}
+
+	// NOTE: A session cipher is owned by the stream it was handed to until
+	// that stream is closed, so these are pooled rather than per-thread
+	Cipher takeSessionCipherEngine() throws GeneralSecurityException
+	{
+		synchronized(idleSessionCipherEngines)
+		{
+			if(!idleSessionCipherEngines.isEmpty())
+				return (Cipher)idleSessionCipherEngines.remove(idleSessionCipherEngines.size() - 1);
+		}
+		return Cipher.getInstance(SESSION_ALGORITHM, "BC");
+	}
+
+	void returnSessionCipherEngine(Cipher engine)
+	{
+		synchronized(idleSessionCipherEngines)
+		{
+			if(idleSessionCipherEngines.size() < MAX_IDLE_SESSION_CIPHER_ENGINES)
+				idleSessionCipherEngines.add(engine);
+		}
+	}
+
+	private KeyGenerator getSessionKeyGenerator() throws GeneralSecurityException
+	{
+		KeyGenerator generator = (KeyGenerator)sessionKeyGenerators.get();
+		if(generator == null)
+		{
+			generator = KeyGenerator.getInstance(SESSION_ALGORITHM_NAME, "BC");
+			sessionKeyGenerators.set(generator);
+		}
+		return generator;
+	}
+
+	private Cipher getPbeCipherEngine() throws GeneralSecurityException
+	{
+		Cipher engine = (Cipher)pbeCipherEngines.get();
+		if(engine == null)
+		{
+			engine = Cipher.getInstance(PBE_ALGORITHM, "BC");
+			pbeCipherEngines.set(engine);
+		}
+		return engine;
+	}
+
+	private SecretKeyFactory getKeyFactory() throws GeneralSecurityException
+	{
+		SecretKeyFactory factory = (SecretKeyFactory)keyFactories.get();
+		if(factory == null)
+		{
+			factory = SecretKeyFactory.getInstance(PBE_ALGORITHM, "BC");
+			keyFactories.set(factory);
+		}
+		return factory;
 	}
 
 	public SignatureEngine createSignatureVerifier(String signedByPublicKey) throws Exception
@@ -934,14 +1280,15 @@ public class MartusSecurity extends MartusCrypto
 		return pbeEncryptDecrypt(Cipher.DECRYPT_MODE, inputText, passPhrase, salt);
 	}
 
-	private synchronized byte[] pbeEncryptDecrypt(int mode, byte[] inputText, char[] passPhrase, byte[] salt)
+	private byte[] pbeEncryptDecrypt(int mode, byte[] inputText, char[] passPhrase, byte[] salt)
 	{
 		try
 		{
 			PBEKeySpec keySpec = new PBEKeySpec(passPhrase);
-			SecretKey key = keyFactory.generateSecret(keySpec);
+			SecretKey key = getKeyFactory().generateSecret(keySpec);
 			PBEParameterSpec paramSpec = new PBEParameterSpec(salt, ITERATION_COUNT);
 
+			Cipher pbeCipherEngine = getPbeCipherEngine();
 			pbeCipherEngine.init(mode, key, paramSpec, rand);
 			byte[] outputText = pbeCipherEngine.doFinal(inputText);
 			return outputText;
@@ -1079,14 +1426,19 @@ public class MartusSecurity extends MartusCrypto
 	protected static final int BUNDLE_VERSION = 1;
 	
 	private static final int ARBITRARY_MAX_SESSION_KEY_LENGTH = 8192;
+	private static final int INT_BYTE_COUNT = 4;
+	private static final int MIN_PARALLEL_SESSION_KEY_WRAPS = 4;
+	private static final int MAX_SESSION_KEY_WRAPPING_THREADS = 8;
+	private static ExecutorService sessionKeyWrappingExecutor;
 	private static SecureRandom rand;
 	private MartusKeyPair keyPair;
-	private Map decryptedSessionKeys;
+	private SessionKeyCache decryptedSessionKeys;
 
-	private Cipher pbeCipherEngine;
-	private Cipher sessionCipherEngine;
-	private KeyGenerator sessionKeyGenerator;
-	private SecretKeyFactory keyFactory;
+	private static final int MAX_IDLE_SESSION_CIPHER_ENGINES = 32;
+	private ThreadLocal pbeCipherEngines;
+	private ThreadLocal sessionKeyGenerators;
+	private ThreadLocal keyFactories;
+	private Vector idleSessionCipherEngines;
 
 	private boolean shouldWriteAuthorDecryptableData;
 	private SecurityContext securityContext;
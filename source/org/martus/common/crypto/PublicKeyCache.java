@@ -0,0 +1,107 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.crypto;
+
+import java.security.PublicKey;
+
+import org.martus.common.LruCache;
+
+/*
+ * Maps X.509 public key strings to their parsed form, so the few thousand
+ * author and HQ keys a server sees over and over are only decoded once.
+ * Bounded by entry count (least recently used entries are evicted first).
+ *
+ * Like SessionKeyCache, the map is split into independently locked
+ * segments so concurrent verifiers of different keys don't wait on each
+ * other.
+ */
+public class PublicKeyCache
+{
+	public PublicKeyCache()
+	{
+		this(DEFAULT_MAXIMUM_ENTRIES);
+	}
+
+	public PublicKeyCache(int maximumEntriesToUse)
+	{
+		cache = new LruCache(maximumEntriesToUse, LruCache.NO_MAXIMUM_AGE, SEGMENT_COUNT);
+	}
+
+	public void setMaximumEntries(int maximumEntriesToUse)
+	{
+		cache.setLimits(maximumEntriesToUse, LruCache.NO_MAXIMUM_AGE);
+	}
+
+	public int getMaximumEntries()
+	{
+		return cache.getMaximumEntries();
+	}
+
+	public PublicKey get(String publicKeyString)
+	{
+		return (PublicKey)cache.get(publicKeyString);
+	}
+
+	public void put(String publicKeyString, PublicKey publicKey)
+	{
+		cache.put(publicKeyString, publicKey);
+	}
+
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	public int size()
+	{
+		return cache.size();
+	}
+
+	public long getHitCount()
+	{
+		return cache.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return cache.getMissCount();
+	}
+
+	public long getEvictionCount()
+	{
+		return cache.getEvictionCount();
+	}
+
+	public String toString()
+	{
+		return "PublicKeyCache " + cache;
+	}
+
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 10000;
+	private static final int SEGMENT_COUNT = 16;
+
+	private LruCache cache;
+}
@@ -0,0 +1,143 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.crypto;
+
+import java.util.Map;
+
+import org.martus.common.LruCache;
+
+/*
+ * Maps encrypted session keys to their decrypted form, so we only pay
+ * for the RSA decryption once. Bounded both by entry count (least recently
+ * used entries are evicted first) and by age. Evicted keys are wiped.
+ *
+ * The map is split into independently locked segments so concurrent
+ * readers of different keys don't wait on each other. Every segment 
+ * keeps at least one key, so a limit below the segment count (16) 
+ * may still hold up to 16 keys.
+ */
+public class SessionKeyCache
+{
+	public SessionKeyCache()
+	{
+		this(DEFAULT_MAXIMUM_ENTRIES, DEFAULT_MAXIMUM_AGE_MILLIS);
+	}
+
+	public SessionKeyCache(int maximumEntriesToUse, long maximumAgeMillisToUse)
+	{
+		cache = new WipingCache(maximumEntriesToUse, maximumAgeMillisToUse);
+	}
+
+	public void setLimits(int maximumEntriesToUse, long maximumAgeMillisToUse)
+	{
+		cache.setLimits(maximumEntriesToUse, maximumAgeMillisToUse);
+	}
+
+	public int getMaximumEntries()
+	{
+		return cache.getMaximumEntries();
+	}
+
+	public long getMaximumAgeMillis()
+	{
+		return cache.getMaximumAgeMillis();
+	}
+
+	public SessionKey get(SessionKey encryptedSessionKey)
+	{
+		return (SessionKey)cache.get(encryptedSessionKey);
+	}
+
+	public void put(SessionKey encryptedSessionKey, SessionKey decryptedSessionKey)
+	{
+		cache.put(encryptedSessionKey, copyForStorage(decryptedSessionKey));
+	}
+
+	// NOTE: The cache owns (and will wipe) its copy, never the caller's key
+	protected SessionKey copyForStorage(SessionKey decryptedSessionKey)
+	{
+		return decryptedSessionKey.copy();
+	}
+
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	public int size()
+	{
+		return cache.size();
+	}
+
+	public Map getSnapshot()
+	{
+		return cache.getSnapshot();
+	}
+
+	public long getHitCount()
+	{
+		return cache.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return cache.getMissCount();
+	}
+
+	public long getEvictionCount()
+	{
+		return cache.getEvictionCount();
+	}
+
+	public String toString()
+	{
+		return "SessionKeyCache " + cache;
+	}
+
+	static class WipingCache extends LruCache
+	{
+		WipingCache(int maximumEntriesToUse, long maximumAgeMillisToUse)
+		{
+			super(maximumEntriesToUse, maximumAgeMillisToUse, SEGMENT_COUNT);
+		}
+
+		protected Object copyValue(Object value)
+		{
+			return ((SessionKey)value).copy();
+		}
+
+		protected void discardValue(Object value)
+		{
+			((SessionKey)value).wipe();
+		}
+	}
+
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 10000;
+	public static final long DEFAULT_MAXIMUM_AGE_MILLIS = 24L * 60 * 60 * 1000;
+	private static final int SEGMENT_COUNT = 16;
+
+	private LruCache cache;
+}
@@ -30,9 +30,16 @@ import java.io.InputStream;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.util.Vector;
 
 import org.martus.common.MartusConstants;
 
+/*
+ * Signature instances are borrowed from a small per-thread pool, and go
+ * back to it once a signature has been produced or checked. A thread can
+ * have several engines going at once (signing while verifying, say), so
+ * each one holds its own instance while it is in use.
+ */
 public class SignatureEngine
 {
 	public static SignatureEngine createSigner(MartusKeyPair keyPair) throws Exception
@@ -51,35 +58,40 @@ public class SignatureEngine
 	
 	public void digest(byte b) throws Exception
 	{
-		engine.update(b);
+		getEngine().update(b);
 	}
 	
 	public void digest(byte[] bytes) throws Exception
 	{
-		engine.update(bytes);
+		getEngine().update(bytes);
 	}
 	
 	public void digest(byte[] buffer, int off, int len) throws Exception
 	{
-		engine.update(buffer, off, len);
+		getEngine().update(buffer, off, len);
 	}
 
 	public void digest(InputStream in) throws Exception
 	{
+		Signature signature = getEngine();
 		int got;
 		byte[] bytes = new byte[MartusConstants.streamBufferCopySize];
 		while ((got = in.read(bytes)) >= 0)
-			engine.update(bytes, 0, got);
+			signature.update(bytes, 0, got);
 	}
 	
 	public byte[] getSignature() throws Exception
 	{
-		return engine.sign();
+		byte[] sig = getEngine().sign();
+		releaseEngine();
+		return sig;
 	}
 	
 	public boolean isValidSignature(byte[] sig) throws Exception
 	{
-		return engine.verify(sig);
+		boolean isValid = getEngine().verify(sig);
+		releaseEngine();
+		return isValid;
 	}
 	
 	
@@ -87,22 +99,72 @@ public class SignatureEngine
 	
 	private SignatureEngine() throws Exception
 	{
-		engine = Signature.getInstance(SIGN_ALGORITHM, "BC");	
 	}
 	
 	private void prepareToSign(PrivateKey key) throws Exception
 	{
-		engine.initSign(key);
+		signKey = key;
+		isSigner = true;
+		getEngine();
 	}
 	
 	private void prepareToVerify(String signedByPublicKey) throws Exception
 	{
-		PublicKey key = MartusJceKeyPair.extractPublicKey(signedByPublicKey);
-		engine.initVerify(key);
+		verifyKey = MartusJceKeyPair.extractPublicKey(signedByPublicKey);
+		getEngine();
+	}
+
+	private Signature getEngine() throws Exception
+	{
+		// NOTE: An engine that is used again after producing or checking
+		// a signature simply borrows another instance and starts over
+		if(engine == null)
+		{
+			Signature signature = borrowSignature();
+			if(isSigner)
+				signature.initSign(signKey);
+			else
+				signature.initVerify(verifyKey);
+			engine = signature;
+		}
+		return engine;
+	}
+
+	private void releaseEngine()
+	{
+		// NOTE: sign() and verify() reset the instance, so it is clean to reuse
+		Vector idle = getIdleSignatures();
+		if(idle.size() < MAX_IDLE_SIGNATURES_PER_THREAD)
+			idle.add(engine);
+		engine = null;
+	}
+
+	private static Signature borrowSignature() throws Exception
+	{
+		Vector idle = getIdleSignatures();
+		if(idle.isEmpty())
+			return Signature.getInstance(SIGN_ALGORITHM, "BC");
+		return (Signature)idle.remove(idle.size() - 1);
+	}
+
+	private static Vector getIdleSignatures()
+	{
+		Vector idle = (Vector)idleSignatures.get();
+		if(idle == null)
+		{
+			idle = new Vector();
+			idleSignatures.set(idle);
+		}
+		return idle;
 	}
 
 	Signature engine;
+	private PrivateKey signKey;
+	private PublicKey verifyKey;
+	private boolean isSigner;
 
 
 	private static final String SIGN_ALGORITHM = "SHA1WithRSA";
+	private static final int MAX_IDLE_SIGNATURES_PER_THREAD = 4;
+	private static ThreadLocal idleSignatures = new ThreadLocal();
 }
@@ -26,10 +26,12 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.database;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -55,6 +57,11 @@ abstract public class Database extends ReadableDatabase
 	{
 	}
 
+	public interface RecordWriter
+	{
+		public void writeTo(OutputStream out) throws IOException;
+	}
+
 	protected Database()
 	{
 		final int expectedMaxEntries = 100;
@@ -84,6 +91,20 @@ abstract public class Database extends ReadableDatabase
 	abstract public void signAccountMap() throws IOException, MartusCrypto.MartusSignatureException;
 	abstract public void scrubRecord(DatabaseKey key) throws IOException, RecordHiddenException;
 
+	public void writeRecord(DatabaseKey key, RecordWriter writer) throws IOException, RecordHiddenException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeTo(out);
+		writeRecord(key, new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	public void writeRecordEncrypted(DatabaseKey key, RecordWriter writer, MartusCrypto encrypter) throws IOException, RecordHiddenException, MartusCrypto.CryptoException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.writeTo(out);
+		writeRecordEncrypted(key, new String(out.toByteArray(), "UTF-8"), encrypter);
+	}
+
 	public void setmTime(DatabaseKey key, Long mTime)
 	{
 		mTimeMap.put(key, mTime);
@@ -110,7 +110,7 @@ public class DatabaseKey implements Comparable
 		if(otherObject instanceof DatabaseKey)
 		{
 			DatabaseKey otherKey = (DatabaseKey)otherObject;
-			return getString().equals(otherKey.getString());
+			return status == otherKey.status && uid.equals(otherKey.uid);
 		}
 
 		return false;
@@ -118,22 +118,31 @@ public class DatabaseKey implements Comparable
 
 	public int hashCode()
 	{
-		return getString().hashCode();
+		return 31 * uid.hashCode() + status;
 	}
 
 	public int compareTo(Object other)
 	{
-		return getString().compareTo(((DatabaseKey)other).getString());
+		// NOTE: Same order as comparing the getString values
+		DatabaseKey otherKey = (DatabaseKey)other;
+		int result = getStatusCode().compareTo(otherKey.getStatusCode());
+		if(result != 0)
+			return result;
+		return uid.compareTo(otherKey.uid);
 	}
 
 	private String getString()
 	{
-		String statusCode = "?";
+		return getStatusCode() + "-" + uid.toString();
+	}
+
+	private String getStatusCode()
+	{
 		if(isMutable())
-			statusCode = "D";
-		else if(isImmutable())
-			statusCode = "S";
-		return statusCode + "-" + uid.toString();
+			return "D";
+		if(isImmutable())
+			return "S";
+		return "?";
 	}
 	
 	public String toString() 
@@ -26,6 +26,7 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.database;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -37,8 +38,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.Vector;
 
 import org.martus.common.MartusAccountAccessToken;
 import org.martus.common.MartusLogger;
@@ -71,6 +72,12 @@ abstract public class FileDatabase extends Database
 		absoluteBaseDir = directory;
 		accountMapFile = new File(absoluteBaseDir, ACCOUNTMAP_FILENAME);
 		accountMapSignatureFile = MartusUtilities.getSignatureFileFromFile(accountMapFile);
+		accountMapLock = new Object();
+		accountMapCommitLock = new Object();
+		uncommittedAccountGenerations = Collections.synchronizedMap(new HashMap());
+		recordLocks = new Object[RECORD_LOCK_STRIPES];
+		for(int i = 0; i < recordLocks.length; ++i)
+			recordLocks[i] = new Object();
 	}
 
 
@@ -87,6 +94,8 @@ abstract public class FileDatabase extends Database
 	{
 		DirectoryUtils.deleteEntireDirectoryTree(absoluteBaseDir);
 		mTimeMap.clear();
+		if(packetIndex != null)
+			packetIndex.clear();
 		loadAccountMap();
 	}
 	
@@ -108,6 +117,18 @@ abstract public class FileDatabase extends Database
 		{
 			throw new MissingAccountMapException();
 		}
+		
+		packetIndex = null;
+		if(usePacketIndex())
+		{
+			packetIndex = new PacketIndex(this, new File(absoluteBaseDir, PacketIndex.INDEX_FILENAME));
+			packetIndex.load();
+		}
+	}
+	
+	protected boolean usePacketIndex()
+	{
+		return true;
 	}
 
 	public static boolean isAccountMapExpected(File baseDirectory)
@@ -155,7 +176,9 @@ abstract public class FileDatabase extends Database
 	
 	public long getPacketTimestamp(DatabaseKey key) throws IOException, RecordHiddenException
 	{
-		File file = getFileForRecord(key);
+		File file = findFileForRecord(key.getUniversalId(), getBucketPrefix(key));
+		if(file == null)
+			return 0;
 		return file.lastModified();
 	}
 
@@ -202,11 +225,16 @@ abstract public class FileDatabase extends Database
 			mTimeMap.remove(key);
 			File fromFile = (File) fileMapping.get(key);
 			File toFile = getFileForRecord(key);
-			toFile.delete();
-			if(!fromFile.renameTo(toFile))
-				throw new IOException("renameTo failed: " + fromFile + " -> " + toFile);
-			if(!toFile.exists())
-				throw new IOException("renameTo didn't work: " + toFile);
+			synchronized(getRecordLock(toFile))
+			{
+				recordChangeStarting(key, toFile);
+				toFile.delete();
+				if(!fromFile.renameTo(toFile))
+					throw new IOException("renameTo failed: " + fromFile + " -> " + toFile);
+				if(!toFile.exists())
+					throw new IOException("renameTo didn't work: " + toFile);
+				recordWritten(key, toFile);
+			}
 		}
 	}
 
@@ -228,6 +256,23 @@ abstract public class FileDatabase extends Database
 		writeRecordUsingCopier(key, in, new StreamCopier());
 	}
 
+	public void writeRecord(DatabaseKey key, RecordWriter writer)
+			throws IOException, RecordHiddenException
+	{
+		writeRecordUsingWriter(key, writer);
+	}
+
+	public void writeRecordEncrypted(DatabaseKey key, RecordWriter writer, MartusCrypto encrypter) throws
+			IOException,
+			RecordHiddenException,
+			MartusCrypto.CryptoException
+	{
+		if(encrypter == null)
+			throw new IOException("Null encrypter");
+
+		writeRecordUsingWriter(key, new EncryptingRecordWriter(writer, encrypter));
+	}
+
 	public String readRecord(DatabaseKey key, MartusCrypto decrypter) throws
 			IOException,
 			MartusCrypto.CryptoException
@@ -258,15 +303,13 @@ abstract public class FileDatabase extends Database
 
 		try
 		{
-			File file = getFileForRecord(key);
+			File file = findFileForRecord(key.getUniversalId(), getBucketPrefix(key));
+			if(file == null)
+				return null;
 			InputStreamWithSeek in = new FileInputStreamWithSeek(file);
 
 			return convertToDecryptingStreamIfNecessary(in, decrypter);
 		}
-		catch(TooManyAccountsException e)
-		{
-			System.out.println("FileDatabase.openInputStream: " + e);
-		}
 		catch(IOException e)
 		{
 			//System.out.println("FileDatabase.openInputStream: " + e);
@@ -279,11 +322,21 @@ abstract public class FileDatabase extends Database
 	{
 		try
 		{
-			File file = getFileForRecord(key);
 			mTimeMap.remove(key);
-			file.delete();
-			if(file.exists())
-				throw new IOException("delete failed: " + file);
+			File file = findFileForRecord(key.getUniversalId(), getBucketPrefix(key));
+			if(file == null)
+				return;
+			synchronized(getRecordLock(file))
+			{
+				boolean wasIndexed = isIndexed(key, file);
+				if(wasIndexed)
+					recordChangeStarting(key, file);
+				file.delete();
+				if(file.exists())
+					throw new IOException("delete failed: " + file);
+				if(wasIndexed)
+					recordRemoved(key, file);
+			}
 		}
 		catch(Exception e)
 		{
@@ -297,17 +350,16 @@ abstract public class FileDatabase extends Database
 		if(isHidden(key))
 			return false;
 
-		try
-		{
-			File file = getFileForRecord(key);
-			return file.exists();
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		File file = findFileForRecord(key.getUniversalId(), getBucketPrefix(key));
+		if(file == null)
+			return false;
 
-		return false;
+		// NOTE: Every write, discard and quarantine goes through the packet 
+		// index, so a hit needs no file system call. A miss is confirmed on
+		// disk, in case the file was put there behind the database's back.
+		if(packetIndex != null && packetIndex.contains(key.getAccountId(), file))
+			return true;
+		return file.exists();
 	}
 
 	public void visitAllRecords(PacketVisitor visitor)
@@ -432,15 +484,10 @@ abstract public class FileDatabase extends Database
 	public boolean isInQuarantine(DatabaseKey key) throws RecordHiddenException
 	{
 		throwIfRecordIsHidden(key.getUniversalId());
-		try
-		{
-			return getQuarantineFileForRecord(key).exists();
-		}
-		catch(Exception nothingWeCanDoAboutIt)
-		{
-			System.out.println("FileDatabase.isInQuarantine: " + nothingWeCanDoAboutIt);
+		File file = findFileForRecord(key.getUniversalId(), getQuarantinePrefix(key));
+		if(file == null)
 			return false;
-		}
+		return file.exists();
 	}
 
 	public void moveRecordToQuarantine(DatabaseKey key) throws RecordHiddenException
@@ -448,16 +495,21 @@ abstract public class FileDatabase extends Database
 		throwIfRecordIsHidden(key.getUniversalId());
 		try
 		{
-			File moveFrom = getFileForRecord(key);
-			if(!moveFrom.exists())
+			File moveFrom = findFileForRecord(key.getUniversalId(), getBucketPrefix(key));
+			if(moveFrom == null || !moveFrom.exists())
 				return;
 			
 			File moveTo = getQuarantineFileForRecord(key);
 
 			moveTo.mkdirs();
 			moveTo.delete();
-			if(!moveFrom.renameTo(moveTo))
-				throw new IOException("Unable to rename from " + moveFrom.getAbsolutePath() + " to " + moveTo);
+			synchronized(getRecordLock(moveFrom))
+			{
+				recordChangeStarting(key, moveFrom);
+				if(!moveFrom.renameTo(moveTo))
+					throw new IOException("Unable to rename from " + moveFrom.getAbsolutePath() + " to " + moveTo);
+				recordRemoved(key, moveFrom);
+			}
 		}
 		catch(Exception nothingWeCanDoAboutIt)
 		{
@@ -468,10 +520,9 @@ abstract public class FileDatabase extends Database
 
 	// end Database interface
 
-	public synchronized void visitAllAccounts(AccountVisitor visitor)
+	public void visitAllAccounts(AccountVisitor visitor)
 	{
-		Set accounts = getAccountMap().keySet();
-		Iterator iterator = accounts.iterator();
+		Iterator iterator = getAccountStrings().iterator();
 		while(iterator.hasNext())
 		{
 			String accountString = (String)iterator.next();
@@ -499,6 +550,14 @@ abstract public class FileDatabase extends Database
 			return;
 		}
 
+		if(packetIndex != null)
+		{
+			PacketIndex.Entry[] entries = packetIndex.getEntriesForAccount(accountString);
+			for(int i = 0; i < entries.length; ++i)
+				visitRecord(visitor, accountDir, entries[i].bucketName, accountString, entries[i].localId);
+			return;
+		}
+
 		String[] packetBuckets = accountDir.list();
 		if(packetBuckets != null)
 		{
@@ -506,41 +565,100 @@ abstract public class FileDatabase extends Database
 			{
 				String bucketName = packetBuckets[packetBucket];
 				File bucketDir = new File(accountDir, bucketName);
-				if(INTERIM_FOLDER_NAME.equals(bucketDir.getName()))
-					continue;
-				if(CONTACTINFO_FOLDER_NAME.equals(bucketDir.getName()))
-					continue;
-				if(isQuarantineBucketDirectory(bucketDir))
+				if(!isPacketBucketDirectory(bucketDir))
 					continue;
 
 				String[] files = bucketDir.list();
 				if(files != null)
 				{
 					for(int i=0; i < files.length; ++i)
-					{
-						UniversalId uid = UniversalId.createFromAccountAndLocalId(accountString, files[i]);
-						if(isHidden(uid))
-							continue;
-						String localId = uid.getLocalId();
-						if(localId.startsWith(BUR_PREFIX))
-							continue;
-						if(localId.startsWith(DEL_PREFIX))
-							continue;
-							
-						try
-						{
-							visitor.visit(getDatabaseKey(accountDir, bucketName, uid));
-						}
-						catch (RuntimeException nothingWeCanDoAboutIt)
-						{
-							// nothing we can do, so ignore it
-						}
-					}
+						visitRecord(visitor, accountDir, bucketName, accountString, files[i]);
 				}
 			}
 		}
 	}
 
+	private void visitRecord(PacketVisitor visitor, File accountDir, String bucketName, String accountString, String fileName)
+	{
+		UniversalId uid = UniversalId.createFromAccountAndLocalId(accountString, fileName);
+		if(isHidden(uid))
+			return;
+		String localId = uid.getLocalId();
+		if(localId.startsWith(BUR_PREFIX))
+			return;
+		if(localId.startsWith(DEL_PREFIX))
+			return;
+			
+		try
+		{
+			visitor.visit(getDatabaseKey(accountDir, bucketName, uid));
+		}
+		catch (RuntimeException nothingWeCanDoAboutIt)
+		{
+			// nothing we can do, so ignore it
+		}
+	}
+
+	void addAllRecordFilesToIndex(PacketIndex index)
+	{
+		Iterator accounts = getAccountStrings().iterator();
+		while(accounts.hasNext())
+		{
+			String accountString = (String)accounts.next();
+			try
+			{
+				addNewBucketsToIndex(index, accountString, getAbsoluteAccountDirectory(accountString));
+			}
+			catch(FileNotFoundException e)
+			{
+				continue;
+			}
+		}
+	}
+
+	void addNewBucketsToIndex(PacketIndex index, String accountString, File accountDir)
+	{
+		index.accountWasScanned(accountString, accountDir.lastModified());
+		File[] packetBuckets = accountDir.listFiles();
+		if(packetBuckets == null)
+			return;
+		
+		for(int packetBucket = 0; packetBucket < packetBuckets.length; ++packetBucket)
+		{
+			File bucketDir = packetBuckets[packetBucket];
+			if(!isPacketBucketDirectory(bucketDir))
+				continue;
+			if(index.knowsBucket(accountString, bucketDir))
+				continue;
+			index.scanBucket(accountString, bucketDir);
+		}
+	}
+
+	private boolean isIndexed(DatabaseKey key, File file)
+	{
+		if(packetIndex == null)
+			return false;
+		return packetIndex.contains(key.getAccountId(), file);
+	}
+
+	private void recordChangeStarting(DatabaseKey key, File file) throws IOException
+	{
+		if(packetIndex != null)
+			packetIndex.recordChangeStarting(key.getAccountId(), file);
+	}
+
+	private void recordWritten(DatabaseKey key, File file) throws IOException
+	{
+		if(packetIndex != null)
+			packetIndex.recordWritten(key.getAccountId(), file);
+	}
+
+	private void recordRemoved(DatabaseKey key, File file) throws IOException
+	{
+		if(packetIndex != null)
+			packetIndex.recordRemoved(key.getAccountId(), file);
+	}
+
 	protected abstract DatabaseKey getDatabaseKey(File accountDir, String bucketName, UniversalId uid);
 
 	public void scrubRecord(DatabaseKey key) 
@@ -551,6 +669,25 @@ abstract public class FileDatabase extends Database
 	}
 
 
+	// NOTE: Access tokens and form templates are written straight to their
+	// folders rather than through writeRecord, so they are not records and
+	// the packet index could not keep track of them
+	boolean isPacketBucketDirectory(File bucketDir)
+	{
+		if(INTERIM_FOLDER_NAME.equals(bucketDir.getName()))
+			return false;
+		if(CONTACTINFO_FOLDER_NAME.equals(bucketDir.getName()))
+			return false;
+		if(ACCESS_TOKEN_FOLDER_NAME.equals(bucketDir.getName()))
+			return false;
+		if(FORM_TEMPLATES_FOLDER_NAME.equals(bucketDir.getName()))
+			return false;
+		if(isQuarantineBucketDirectory(bucketDir))
+			return false;
+
+		return true;
+	}
+
 	boolean isQuarantineBucketDirectory(File bucketDir)
 	{
 		if(bucketDir.getName().startsWith(draftQuarantinePrefix))
@@ -571,17 +708,31 @@ abstract public class FileDatabase extends Database
 	
 	private File getExistingFileForRecord(UniversalId uid) throws IOException, TooManyAccountsException
 	{
-		File sealed = getFileForRecordWithPrefix(uid, defaultBucketPrefix);
-		if(sealed.exists())
+		File sealed = findFileForRecord(uid, defaultBucketPrefix);
+		if(sealed != null && sealed.exists())
 			return sealed;
 		
-		File draft = getFileForRecordWithPrefix(uid, mutableBucketPrefix);
-		if(draft.exists())
+		File draft = findFileForRecord(uid, mutableBucketPrefix);
+		if(draft != null && draft.exists())
 			return draft;
 		
 		throw new FileNotFoundException();
 	}
 
+	// NOTE: For lookups only. Unlike getFileForRecord, this never creates
+	// an account or a bucket directory, and returns null for unknown accounts
+	private File findFileForRecord(UniversalId uid, String bucketPrefix)
+	{
+		String accountDirectoryName = (String)getAccountMap().get(uid.getAccountId());
+		if(accountDirectoryName == null)
+			return null;
+
+		String localId = uid.getLocalId();
+		File accountDir = new File(absoluteBaseDir, accountDirectoryName);
+		File bucketDir = new File(accountDir, bucketPrefix + getBaseBucketName(localId));
+		return new File(bucketDir, localId);
+	}
+
 	public File getFileForRecord(DatabaseKey key) throws IOException, TooManyAccountsException
 	{
 		File result = getFileForRecordWithPrefix(key.getUniversalId(), getBucketPrefix(key));
@@ -631,10 +782,39 @@ abstract public class FileDatabase extends Database
 		String accountDir = (String)getAccountMap().get(accountString);
 		if(accountDir == null)
 			return generateAccount(accountString);
+		waitForAccountToBeCommitted(accountString);
 		return new File(absoluteBaseDir, accountDir);
 	}
 
-	synchronized File generateAccount(String accountString)
+	File generateAccount(String accountString)
+		throws IOException, TooManyAccountsException
+	{
+		File accountDir = null;
+		synchronized(accountMapLock)
+		{
+			String existingAccountDir = (String)getAccountMap().get(accountString);
+			if(existingAccountDir != null)
+				accountDir = new File(absoluteBaseDir, existingAccountDir);
+			else
+				accountDir = createAccountDirectory(accountString);
+		}
+
+		// NOTE: Sign after releasing the lock, so accounts created while 
+		// we are signing get covered by one shared signature
+		waitForAccountToBeCommitted(accountString);
+		return accountDir;
+	}
+
+	// NOTE: A new account is in the map as soon as its line is appended, 
+	// so anyone who finds it there has to wait until that line is signed
+	private void waitForAccountToBeCommitted(String accountString) throws IOException
+	{
+		Long generation = (Long)uncommittedAccountGenerations.get(accountString);
+		if(generation != null)
+			commitAccountMap(generation.longValue());
+	}
+
+	private File createAccountDirectory(String accountString)
 		throws IOException, TooManyAccountsException
 	{
 		int hashValue = getHashValue(accountString) & 0xFF;
@@ -653,8 +833,9 @@ abstract public class FileDatabase extends Database
 			{
 				accountDir.mkdirs();
 				String relativeDirString = convertToRelativePath(accountDir.getPath());
+				long generation = appendToAccountMapFile(accountString, relativeDirString);
+				uncommittedAccountGenerations.put(accountString, new Long(generation));
 				getAccountMap().put(accountString, relativeDirString);
-				appendAccountToMapFile(accountString, relativeDirString);
 				return accountDir;
 			}
 		}
@@ -662,6 +843,16 @@ abstract public class FileDatabase extends Database
 	}
 
 	public void appendAccountToMapFile(String accountString, String accountDir) throws IOException
+	{
+		long generation = 0;
+		synchronized(accountMapLock)
+		{
+			generation = appendToAccountMapFile(accountString, accountDir);
+		}
+		commitAccountMap(generation);
+	}
+
+	private long appendToAccountMapFile(String accountString, String accountDir) throws IOException
 	{
 		FileOutputStream out = new FileOutputStream(accountMapFile.getPath(), true);
 		UnicodeWriter writer = new UnicodeWriter(out);
@@ -673,25 +864,93 @@ abstract public class FileDatabase extends Database
 		{
 			writer.flush();
 			out.flush();
-			out.getFD().sync();
 			writer.close();
 			out.close();
+		}
+		return ++accountMapGeneration;
+	}
+
+	/*
+	 * Makes sure the account map is on disk and signed at least up to
+	 * the given append. Whoever signs covers every line appended so far,
+	 * so a burst of new accounts costs one sync and one signature.
+	 */
+	void commitAccountMap(long generation) throws IOException
+	{
+		synchronized(accountMapCommitLock)
+		{
+			if(signedAccountMapGeneration >= generation)
+				return;
+
+			waitBeforeSigningAccountMap();
+			synchronized(accountMapLock)
+			{
+				long generationToSign = accountMapGeneration;
+				FileOutputStream out = new FileOutputStream(accountMapFile.getPath(), true);
+				try
+				{
+					out.getFD().sync();
+				}
+				finally
+				{
+					out.close();
+				}
+
+				try
+				{
+					signAccountMap();
+				}
+				catch (MartusSignatureException e)
+				{
+					MartusLogger.logException(e);
+					throw new IOException();
+				}
+				signedAccountMapGeneration = generationToSign;
+				forgetCommittedAccounts(generationToSign);
+			}
+		}
+	}
+
+	private void forgetCommittedAccounts(long signedGeneration)
+	{
+		synchronized(uncommittedAccountGenerations)
+		{
+			Iterator it = uncommittedAccountGenerations.values().iterator();
+			while(it.hasNext())
+			{
+				Long generation = (Long)it.next();
+				if(generation.longValue() <= signedGeneration)
+					it.remove();
+			}
+		}
+	}
 
+	protected void waitBeforeSigningAccountMap() throws IOException
+	{
+	}
+
+	public void loadAccountMap() throws FileVerificationException, MissingAccountMapSignatureException
+	{
+		synchronized(accountMapLock)
+		{
+			Map loadedAccountMap = new TreeMap();
 			try
 			{
-				signAccountMap();
+				readAccountMap(loadedAccountMap);
 			}
-			catch (MartusSignatureException e)
+			finally
 			{
-				MartusLogger.logException(e);
-				throw new IOException();
+				synchronized(accountMap)
+				{
+					accountMap.clear();
+					accountMap.putAll(loadedAccountMap);
+				}
 			}
 		}
 	}
 
-	synchronized public void loadAccountMap() throws FileVerificationException, MissingAccountMapSignatureException
+	private void readAccountMap(Map loadedAccountMap) throws FileVerificationException, MissingAccountMapSignatureException
 	{
-		accountMap.clear();
 		if(!accountMapFile.exists())
 			return;
 		try
@@ -701,7 +960,7 @@ abstract public class FileDatabase extends Database
 			String entry = null;
 			while( (entry = reader.readLine()) != null)
 			{
-				addParsedAccountEntry(accountMap, entry);
+				addParsedAccountEntry(loadedAccountMap, entry);
 			}
 			reader.close();
 		}
@@ -770,8 +1029,7 @@ abstract public class FileDatabase extends Database
 	{
 		try
 		{
-			Set accountStrings = getAccountMap().keySet();
-			Iterator iterator = accountStrings.iterator();
+			Iterator iterator = getAccountStrings().iterator();
 			while(iterator.hasNext())
 			{
 				String accountString = (String)iterator.next();
@@ -786,7 +1044,19 @@ abstract public class FileDatabase extends Database
 		return null;
 	}
 
-	private synchronized void writeRecordUsingCopier(DatabaseKey key, InputStream in, StreamFilter copier)
+	private void writeRecordUsingCopier(DatabaseKey key, final InputStream in, final StreamFilter copier)
+		throws IOException, RecordHiddenException
+	{
+		writeRecordUsingWriter(key, new RecordWriter()
+		{
+			public void writeTo(OutputStream out) throws IOException
+			{
+				copier.copyStream(in, out);
+			}
+		});
+	}
+
+	private void writeRecordUsingWriter(DatabaseKey key, RecordWriter writer)
 		throws IOException, RecordHiddenException
 	{
 		if(key == null)
@@ -797,9 +1067,44 @@ abstract public class FileDatabase extends Database
 		try
 		{
 			File file = getFileForRecord(key);
-			OutputStream rawOut = createOutputStream(file, getInterimDirectory(key.getAccountId()));
-			MartusUtilities.copyStreamWithFilter(in, rawOut, copier);
-			mTimeMap.remove(key);
+			// NOTE: The record is produced while we write, so write it to 
+			// an interim file and only replace the existing record once 
+			// the writer has succeeded
+			File interimDirectory = getInterimDirectory(key.getAccountId());
+			File tempFile = File.createTempFile("$$$Martus", null, interimDirectory);
+			boolean completed = false;
+			try
+			{
+				OutputStream rawOut = createOutputStream(tempFile, interimDirectory);
+				BufferedOutputStream out = new BufferedOutputStream(rawOut);
+				try
+				{
+					writer.writeTo(out);
+				}
+				finally
+				{
+					out.close();
+				}
+
+				synchronized(getRecordLock(file))
+				{
+					recordChangeStarting(key, file);
+					mTimeMap.remove(key);
+					file.delete();
+					if(!tempFile.renameTo(file))
+					{
+						recordRemoved(key, file);
+						throw new IOException("renameTo failed: " + tempFile + " -> " + file);
+					}
+					recordWritten(key, file);
+				}
+				completed = true;
+			}
+			finally
+			{
+				if(!completed)
+					tempFile.delete();
+			}
 		}
 		catch(TooManyAccountsException e)
 		{
@@ -808,6 +1113,44 @@ abstract public class FileDatabase extends Database
 			throw new IOException("Too many accounts");
 		}
 	}
+
+	static class EncryptingRecordWriter implements RecordWriter
+	{
+		EncryptingRecordWriter(RecordWriter plainTextWriterToUse, MartusCrypto encrypterToUse)
+		{
+			plainTextWriter = plainTextWriterToUse;
+			encrypter = encrypterToUse;
+		}
+
+		public void writeTo(OutputStream out) throws IOException
+		{
+			// NOTE: Same layout as StreamEncryptor, but the plain text is
+			// encrypted as it is produced instead of being read from a buffer
+			out.write(0);
+			try
+			{
+				OutputStream cipherOut = encrypter.createEncryptingOutputStream(out, encrypter.createSessionKey());
+				plainTextWriter.writeTo(cipherOut);
+				cipherOut.close();
+			}
+			catch(MartusCrypto.CryptoException e)
+			{
+				throw new IOException("MartusCrypto exception");
+			}
+		}
+
+		RecordWriter plainTextWriter;
+		MartusCrypto encrypter;
+	}
+
+	private Object getRecordLock(File file)
+	{
+		// NOTE: Records in different account buckets never share a file,
+		// so writes to them are allowed to proceed in parallel
+		int hashValue = file.getParentFile().getPath().hashCode() & 0x7FFFFFFF;
+		return recordLocks[hashValue % recordLocks.length];
+	}
+
 	protected OutputStream createOutputStream(File file, File tempDirectory)
 		throws IOException
 	{
@@ -842,10 +1185,19 @@ abstract public class FileDatabase extends Database
 		return accountMapFile;
 	}
 	
-	protected synchronized Map getAccountMap()
+	protected Map getAccountMap()
 	{
 		return accountMap;
 	}
+	
+	protected Vector getAccountStrings()
+	{
+		Map map = getAccountMap();
+		synchronized(map)
+		{
+			return new Vector(map.keySet());
+		}
+	}
 
 	protected static final String defaultBucketPrefix = "p";
 	protected static final String mutableBucketPrefix = "d" + defaultBucketPrefix;
@@ -858,11 +1210,19 @@ abstract public class FileDatabase extends Database
 	protected static final String ACCOUNTMAP_FILENAME = "acctmap.txt";
 	public static final String BUR_PREFIX = "BUR-";
 	public static final String DEL_PREFIX = "DEL-";
+	private static final int RECORD_LOCK_STRIPES = 64;
 
 	public MartusCrypto security;
 
 	public File absoluteBaseDir;
 	private Map accountMap;
+	private PacketIndex packetIndex;
+	protected Object accountMapLock;
+	private Object accountMapCommitLock;
+	private long accountMapGeneration;
+	private long signedAccountMapGeneration;
+	private Map uncommittedAccountGenerations;
+	private Object[] recordLocks;
 	public File accountMapFile;
 	public File accountMapSignatureFile;
 }
@@ -55,7 +55,14 @@ public class MSPAFileDatabase extends ServerFileDatabase
 		return super.getAccountMap();
 	}
 
-	synchronized File generateAccount(String accountString) throws IOException, TooManyAccountsException
+	protected boolean usePacketIndex()
+	{
+		// NOTE: MartusServer adds packets behind our back, so always
+		// walk the directories instead of trusting a packet index
+		return false;
+	}
+
+	File generateAccount(String accountString) throws IOException, TooManyAccountsException
 	{
 		throw new RuntimeException("MSPA is not allowed to create accounts!");
 	}
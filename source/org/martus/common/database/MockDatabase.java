@@ -32,6 +32,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -451,7 +452,7 @@ abstract public class MockDatabase extends Database
 	Map incomingInterimMap;
 	Map outgoingInterimMap;
 
-	HashMap streamsThatAreOpen = new HashMap();
+	Map streamsThatAreOpen = Collections.synchronizedMap(new HashMap());
 	
 	private HashSet<String> accounts;
 }
@@ -0,0 +1,606 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.database;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import org.martus.common.MartusLogger;
+import org.martus.util.UnicodeReader;
+import org.martus.util.UnicodeWriter;
+
+/*
+ * Append-only index of every packet file in a FileDatabase, so that
+ * visiting records does not have to list every bucket directory.
+ *
+ * Each mutation is logged as a synced BEGIN line, followed by an ADD or
+ * REMOVE line once the file system work is done. A BEGIN without a
+ * matching result (a crash in between) is resolved against the disk
+ * on the next load. Every line carries a CRC, and if the file is missing
+ * or any line fails to verify, the index is rebuilt from the directories.
+ *
+ * The index also records the last modified time of each bucket and 
+ * account directory as of its own last change there. On load, a bucket
+ * whose time differs is listed again, and an account whose time differs
+ * is checked for buckets the index has never seen, so files added or
+ * removed behind the database's back are picked up for the price of one
+ * stat per directory. Once most of the lines are obsolete, the index is
+ * rewritten in compacted form.
+ */
+class PacketIndex
+{
+	static class CorruptPacketIndexException extends IOException
+	{
+		CorruptPacketIndexException(String message)
+		{
+			super(message);
+		}
+	}
+
+	static class Entry
+	{
+		Entry(String bucketNameToUse, String localIdToUse, long sizeToUse, long mTimeToUse)
+		{
+			bucketName = bucketNameToUse;
+			localId = localIdToUse;
+			size = sizeToUse;
+			lastModified = mTimeToUse;
+		}
+
+		String bucketName;
+		String localId;
+		long size;
+		long lastModified;
+	}
+
+	PacketIndex(FileDatabase databaseToUse, File indexFileToUse)
+	{
+		db = databaseToUse;
+		indexFile = indexFileToUse;
+		entriesByAccount = new HashMap();
+		bucketTimesByAccount = new HashMap();
+		accountTimes = new HashMap();
+		pendingChanges = new LinkedHashMap();
+	}
+
+	public synchronized void load()
+	{
+		clearMaps();
+		try
+		{
+			if(!indexFile.exists())
+				throw new CorruptPacketIndexException("Missing packet index");
+			readIndex();
+			resolvePendingChanges();
+			boolean foundChanges = checkDirectories();
+			if(foundChanges || isMostlyObsolete())
+				writeCompactedIndex();
+		}
+		catch(Exception e)
+		{
+			MartusLogger.log("Rebuilding packet index: " + e.getMessage());
+			rebuild();
+		}
+	}
+
+	public synchronized void clear()
+	{
+		clearMaps();
+	}
+
+	public synchronized void rebuild()
+	{
+		clearMaps();
+		db.addAllRecordFilesToIndex(this);
+		try
+		{
+			writeCompactedIndex();
+		}
+		catch(IOException e)
+		{
+			MartusLogger.logException(e);
+		}
+	}
+
+	public synchronized Entry[] getEntriesForAccount(String accountString)
+	{
+		Map entries = (Map)entriesByAccount.get(accountString);
+		if(entries == null)
+			return new Entry[0];
+		return (Entry[])entries.values().toArray(new Entry[0]);
+	}
+
+	public synchronized boolean contains(String accountString, File file)
+	{
+		Map entries = (Map)entriesByAccount.get(accountString);
+		if(entries == null)
+			return false;
+		return entries.containsKey(getEntryKey(getBucketName(file), file.getName()));
+	}
+
+	public void recordChangeStarting(String accountString, File file) throws IOException
+	{
+		String[] fields = new String[] {BEGIN, accountString, getBucketName(file), file.getName()};
+		FileOutputStream out = null;
+		synchronized(this)
+		{
+			pendingChanges.put(getPendingKey(fields), fields);
+			out = appendLineAndKeepOpen(fields);
+		}
+
+		// NOTE: Sync outside the lock so writers to other buckets don't wait on our disk flush
+		try
+		{
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	public synchronized void recordWritten(String accountString, File file) throws IOException
+	{
+		String bucketName = getBucketName(file);
+		pendingChanges.remove(accountString + FIELD_SEPARATOR + getEntryKey(bucketName, file.getName()));
+		Entry entry = addEntry(accountString, bucketName, file.getName(), file.length(), file.lastModified());
+		long bucketTime = setBucketTime(accountString, file.getParentFile());
+		appendLine(getAddFields(accountString, entry, bucketTime));
+		afterChange(accountString, file);
+	}
+
+	public synchronized void recordRemoved(String accountString, File file) throws IOException
+	{
+		String bucketName = getBucketName(file);
+		pendingChanges.remove(accountString + FIELD_SEPARATOR + getEntryKey(bucketName, file.getName()));
+		removeEntry(accountString, bucketName, file.getName());
+		long bucketTime = setBucketTime(accountString, file.getParentFile());
+		appendLine(new String[] {REMOVE, accountString, bucketName, file.getName(), Long.toString(bucketTime)});
+		afterChange(accountString, file);
+	}
+
+	synchronized boolean knowsBucket(String accountString, File bucketDir)
+	{
+		return getBucketTimes(accountString).containsKey(bucketDir.getName());
+	}
+
+	synchronized void accountWasScanned(String accountString, long accountTime)
+	{
+		accountTimes.put(accountString, new Long(accountTime));
+	}
+
+	synchronized void scanBucket(String accountString, File bucketDir)
+	{
+		String bucketName = bucketDir.getName();
+		long bucketTime = bucketDir.lastModified();
+		Map entries = (Map)entriesByAccount.get(accountString);
+		if(entries != null)
+		{
+			Iterator it = entries.values().iterator();
+			while(it.hasNext())
+			{
+				if(((Entry)it.next()).bucketName.equals(bucketName))
+					it.remove();
+			}
+			if(entries.isEmpty())
+				entriesByAccount.remove(accountString);
+		}
+
+		// NOTE: The time is read before listing, so a change made while
+		// we list is caught by the next load
+		File[] files = bucketDir.listFiles();
+		if(files == null)
+		{
+			getBucketTimes(accountString).remove(bucketName);
+			return;
+		}
+		getBucketTimes(accountString).put(bucketName, new Long(bucketTime));
+		for(int i = 0; i < files.length; ++i)
+			addEntry(accountString, bucketName, files[i].getName(), files[i].length(), files[i].lastModified());
+	}
+
+	private void clearMaps()
+	{
+		entriesByAccount.clear();
+		bucketTimesByAccount.clear();
+		accountTimes.clear();
+		pendingChanges.clear();
+		lineCount = 0;
+		nextCompactionCheck = COMPACTION_MINIMUM_LINES;
+	}
+
+	private void readIndex() throws Exception
+	{
+		UnicodeReader reader = new UnicodeReader(indexFile);
+		try
+		{
+			if(!HEADER.equals(reader.readLine()))
+				throw new CorruptPacketIndexException("Bad packet index header");
+
+			lineCount = 1;
+			String line = null;
+			while( (line = reader.readLine()) != null)
+			{
+				++lineCount;
+				String[] fields = parseLine(line);
+				String op = fields[0];
+				if(op.equals(BEGIN) && fields.length == 4)
+				{
+					pendingChanges.put(getPendingKey(fields), fields);
+				}
+				else if(op.equals(ADD) && fields.length == 7)
+				{
+					addEntry(fields[1], fields[2], fields[3], Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+					getBucketTimes(fields[1]).put(fields[2], new Long(fields[6]));
+					pendingChanges.remove(getPendingKey(fields));
+				}
+				else if(op.equals(REMOVE) && fields.length == 5)
+				{
+					removeEntry(fields[1], fields[2], fields[3]);
+					getBucketTimes(fields[1]).put(fields[2], new Long(fields[4]));
+					pendingChanges.remove(getPendingKey(fields));
+				}
+				else if(op.equals(DIRECTORY) && fields.length == 4)
+				{
+					if(fields[2].length() == 0)
+						accountTimes.put(fields[1], new Long(fields[3]));
+					else
+						getBucketTimes(fields[1]).put(fields[2], new Long(fields[3]));
+				}
+				else
+				{
+					throw new CorruptPacketIndexException("Bad packet index line " + lineCount);
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private void resolvePendingChanges() throws IOException
+	{
+		Iterator iter = new Vector(pendingChanges.values()).iterator();
+		while(iter.hasNext())
+		{
+			String[] fields = (String[])iter.next();
+			String accountString = fields[1];
+			File bucketDir = new File(db.getAbsoluteAccountDirectory(accountString), fields[2]);
+			File file = new File(bucketDir, fields[3]);
+			if(file.exists())
+				recordWritten(accountString, file);
+			else
+				recordRemoved(accountString, file);
+		}
+	}
+
+	private boolean checkDirectories()
+	{
+		boolean foundChanges = false;
+		Iterator accounts = db.getAccountStrings().iterator();
+		while(accounts.hasNext())
+		{
+			String accountString = (String)accounts.next();
+			File accountDir = null;
+			try
+			{
+				accountDir = db.getAbsoluteAccountDirectory(accountString);
+			}
+			catch(FileNotFoundException e)
+			{
+				continue;
+			}
+
+			Iterator buckets = new Vector(getBucketTimes(accountString).keySet()).iterator();
+			while(buckets.hasNext())
+			{
+				String bucketName = (String)buckets.next();
+				File bucketDir = new File(accountDir, bucketName);
+				Long bucketTime = (Long)getBucketTimes(accountString).get(bucketName);
+				if(bucketDir.lastModified() == bucketTime.longValue())
+					continue;
+				scanBucket(accountString, bucketDir);
+				foundChanges = true;
+			}
+
+			Long accountTime = (Long)accountTimes.get(accountString);
+			if(accountTime != null && accountDir.lastModified() == accountTime.longValue())
+				continue;
+			db.addNewBucketsToIndex(this, accountString, accountDir);
+			foundChanges = true;
+		}
+		if(foundChanges)
+			MartusLogger.log("Packet index updated from changed directories");
+		return foundChanges;
+	}
+
+	private void afterChange(String accountString, File file) throws IOException
+	{
+		File accountDir = file.getParentFile().getParentFile();
+		long accountTime = accountDir.lastModified();
+		Long knownTime = (Long)accountTimes.get(accountString);
+		if(knownTime == null || knownTime.longValue() != accountTime)
+		{
+			accountTimes.put(accountString, new Long(accountTime));
+			appendLine(new String[] {DIRECTORY, accountString, "", Long.toString(accountTime)});
+		}
+
+		if(lineCount <= nextCompactionCheck)
+			return;
+		nextCompactionCheck = lineCount + COMPACTION_MINIMUM_LINES;
+		if(isMostlyObsolete())
+			writeCompactedIndex();
+	}
+
+	private boolean isMostlyObsolete()
+	{
+		return (lineCount > COMPACTION_MINIMUM_LINES && lineCount > getCompactedLineCount() * 2);
+	}
+
+	private long setBucketTime(String accountString, File bucketDir)
+	{
+		long bucketTime = bucketDir.lastModified();
+		getBucketTimes(accountString).put(bucketDir.getName(), new Long(bucketTime));
+		return bucketTime;
+	}
+
+	private Map getBucketTimes(String accountString)
+	{
+		Map bucketTimes = (Map)bucketTimesByAccount.get(accountString);
+		if(bucketTimes == null)
+		{
+			bucketTimes = new HashMap();
+			bucketTimesByAccount.put(accountString, bucketTimes);
+		}
+		return bucketTimes;
+	}
+
+	private void writeCompactedIndex() throws IOException
+	{
+		if(entriesByAccount.isEmpty() && !indexFile.exists())
+			return;
+
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tempFile);
+		UnicodeWriter writer = new UnicodeWriter(out);
+		int linesWritten = 0;
+		try
+		{
+			writer.writeln(HEADER);
+			++linesWritten;
+			Iterator accounts = accountTimes.keySet().iterator();
+			while(accounts.hasNext())
+			{
+				String accountString = (String)accounts.next();
+				writer.writeln(buildLine(new String[] {DIRECTORY, accountString, "", accountTimes.get(accountString).toString()}));
+				++linesWritten;
+			}
+
+			accounts = bucketTimesByAccount.keySet().iterator();
+			while(accounts.hasNext())
+			{
+				String accountString = (String)accounts.next();
+				Map bucketTimes = getBucketTimes(accountString);
+				Map entries = (Map)entriesByAccount.get(accountString);
+				if(entries != null)
+				{
+					Iterator it = entries.values().iterator();
+					while(it.hasNext())
+					{
+						Entry entry = (Entry)it.next();
+						Long bucketTime = (Long)bucketTimes.get(entry.bucketName);
+						long time = (bucketTime == null) ? 0 : bucketTime.longValue();
+						writer.writeln(buildLine(getAddFields(accountString, entry, time)));
+						++linesWritten;
+					}
+				}
+
+				// NOTE: Buckets that are now empty still need their time
+				Iterator buckets = bucketTimes.keySet().iterator();
+				while(buckets.hasNext())
+				{
+					String bucketName = (String)buckets.next();
+					writer.writeln(buildLine(new String[] {DIRECTORY, accountString, bucketName, bucketTimes.get(bucketName).toString()}));
+					++linesWritten;
+				}
+			}
+
+			// NOTE: Changes still in progress must survive the rewrite
+			Iterator pending = pendingChanges.values().iterator();
+			while(pending.hasNext())
+			{
+				writer.writeln(buildLine((String[])pending.next()));
+				++linesWritten;
+			}
+		}
+		finally
+		{
+			writer.flush();
+			out.flush();
+			out.getFD().sync();
+			writer.close();
+		}
+
+		indexFile.delete();
+		if(!tempFile.renameTo(indexFile))
+			throw new IOException("renameTo failed: " + tempFile + " -> " + indexFile);
+		lineCount = linesWritten;
+		nextCompactionCheck = lineCount + COMPACTION_MINIMUM_LINES;
+	}
+
+	private synchronized void appendLine(String[] fields) throws IOException
+	{
+		appendLineAndKeepOpen(fields).close();
+	}
+
+	private synchronized FileOutputStream appendLineAndKeepOpen(String[] fields) throws IOException
+	{
+		boolean isNewFile = !indexFile.exists();
+		FileOutputStream out = new FileOutputStream(indexFile.getPath(), true);
+		UnicodeWriter writer = new UnicodeWriter(out);
+		try
+		{
+			if(isNewFile)
+			{
+				writer.writeln(HEADER);
+				++lineCount;
+			}
+			writer.writeln(buildLine(fields));
+			++lineCount;
+		}
+		finally
+		{
+			writer.flush();
+			out.flush();
+		}
+		return out;
+	}
+
+	private Entry addEntry(String accountString, String bucketName, String localId, long size, long lastModified)
+	{
+		Map entries = (Map)entriesByAccount.get(accountString);
+		if(entries == null)
+		{
+			entries = new HashMap();
+			entriesByAccount.put(accountString, entries);
+		}
+		Entry entry = new Entry(bucketName, localId, size, lastModified);
+		entries.put(getEntryKey(bucketName, localId), entry);
+		return entry;
+	}
+
+	private void removeEntry(String accountString, String bucketName, String localId)
+	{
+		Map entries = (Map)entriesByAccount.get(accountString);
+		if(entries == null)
+			return;
+		entries.remove(getEntryKey(bucketName, localId));
+		if(entries.isEmpty())
+			entriesByAccount.remove(accountString);
+	}
+
+	private int getCompactedLineCount()
+	{
+		int count = 1 + accountTimes.size() + pendingChanges.size();
+		Iterator iter = entriesByAccount.values().iterator();
+		while(iter.hasNext())
+			count += ((Map)iter.next()).size();
+		iter = bucketTimesByAccount.values().iterator();
+		while(iter.hasNext())
+			count += ((Map)iter.next()).size();
+		return count;
+	}
+
+	private static String[] getAddFields(String accountString, Entry entry, long bucketTime)
+	{
+		return new String[] {ADD, accountString, entry.bucketName, entry.localId, Long.toString(entry.size), Long.toString(entry.lastModified), Long.toString(bucketTime)};
+	}
+
+	private static String getPendingKey(String[] fields)
+	{
+		return fields[1] + FIELD_SEPARATOR + getEntryKey(fields[2], fields[3]);
+	}
+
+	private static String getBucketName(File file)
+	{
+		return file.getParentFile().getName();
+	}
+
+	private static String getEntryKey(String bucketName, String localId)
+	{
+		return bucketName + FIELD_SEPARATOR + localId;
+	}
+
+	static String buildLine(String[] fields) throws UnsupportedEncodingException
+	{
+		StringBuffer line = new StringBuffer();
+		for(int i = 0; i < fields.length; ++i)
+		{
+			line.append(fields[i]);
+			line.append(FIELD_SEPARATOR);
+		}
+		line.append(Long.toHexString(getChecksum(line.toString())));
+		return line.toString();
+	}
+
+	static String[] parseLine(String line) throws CorruptPacketIndexException, UnsupportedEncodingException
+	{
+		int checksumAt = line.lastIndexOf(FIELD_SEPARATOR) + 1;
+		if(checksumAt <= 0)
+			throw new CorruptPacketIndexException("Missing checksum");
+		String data = line.substring(0, checksumAt);
+		String checksum = line.substring(checksumAt);
+		if(!checksum.equals(Long.toHexString(getChecksum(data))))
+			throw new CorruptPacketIndexException("Bad checksum");
+
+		Vector fields = new Vector();
+		int start = 0;
+		int end = 0;
+		while( (end = data.indexOf(FIELD_SEPARATOR, start)) >= 0)
+		{
+			fields.add(data.substring(start, end));
+			start = end + 1;
+		}
+		if(fields.size() < 4)
+			throw new CorruptPacketIndexException("Too few fields");
+		return (String[])fields.toArray(new String[0]);
+	}
+
+	private static long getChecksum(String data) throws UnsupportedEncodingException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(data.getBytes("UTF-8"));
+		return crc.getValue();
+	}
+
+	static final String INDEX_FILENAME = "packetindex.txt";
+	static final String HEADER = "MartusPacketIndex\t2";
+	private static final String FIELD_SEPARATOR = "\t";
+	private static final String BEGIN = "B";
+	private static final String ADD = "+";
+	private static final String REMOVE = "-";
+	private static final String DIRECTORY = "D";
+	private static final int COMPACTION_MINIMUM_LINES = 1000;
+
+	private FileDatabase db;
+	private File indexFile;
+	private Map entriesByAccount;
+	private Map bucketTimesByAccount;
+	private Map accountTimes;
+	private Map pendingChanges;
+	private int lineCount;
+	private int nextCompactionCheck;
+}
@@ -60,26 +60,29 @@ public class ServerFileDatabase extends FileDatabase
 		return folderName.startsWith(mutableBucketPrefix);
 	}
 
-	public synchronized void loadAccountMap() throws FileVerificationException, MissingAccountMapSignatureException
+	public void loadAccountMap() throws FileVerificationException, MissingAccountMapSignatureException
 	{
-		super.loadAccountMap();
-		if(accountMapFile.exists())
+		synchronized(accountMapLock)
 		{
-			try
+			super.loadAccountMap();
+			if(accountMapFile.exists())
 			{
-				MartusServerUtilities.verifyFileAndLatestSignatureOnServer(accountMapFile, security);
-			}
-			catch (IOException e)
-			{
-				throw new FileVerificationException();
-			}
-			catch (ParseException e)
-			{
-				throw new FileVerificationException();
-			}
-			catch (MartusSignatureFileDoesntExistsException e)
-			{
-				throw new MissingAccountMapSignatureException();
+				try
+				{
+					MartusServerUtilities.verifyFileAndLatestSignatureOnServer(accountMapFile, security);
+				}
+				catch (IOException e)
+				{
+					throw new FileVerificationException();
+				}
+				catch (ParseException e)
+				{
+					throw new FileVerificationException();
+				}
+				catch (MartusSignatureFileDoesntExistsException e)
+				{
+					throw new MissingAccountMapSignatureException();
+				}
 			}
 		}
 	}
@@ -103,6 +106,9 @@ public class ServerFileDatabase extends FileDatabase
 		try
 		{
 			MartusServerUtilities.createSignatureFileFromFileOnServer(accountMapFile, security);
+			// NOTE: The account map is re-signed for every new account, so only 
+			// its recent signatures are kept. Other signed files keep their history
+			MartusServerUtilities.deleteOldSignatures(accountMapFile, MartusServerUtilities.SIGNATURE_FILES_TO_KEEP);
 		}
 		catch(Exception e)
 		{
@@ -111,6 +117,21 @@ public class ServerFileDatabase extends FileDatabase
 		}
 	}
 	
+	protected void waitBeforeSigningAccountMap() throws IOException
+	{
+		// NOTE: Done before taking the account map lock, so new accounts
+		// can still be appended (and share our signature) while we wait
+		try
+		{
+			MartusServerUtilities.waitForUnusedSignatureTimeStamp(accountMapFile);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while signing account map");
+		}
+	}
+	
 	public void deleteSignaturesForFile(File origFile)
 	{
 		MartusServerUtilities.deleteSignaturesForFile(origFile);
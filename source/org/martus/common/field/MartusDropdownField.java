@@ -88,7 +88,7 @@ public class MartusDropdownField extends MartusField
 		return dropDownSpec.convertStoredToHumanReadable(getData(), getReusableChoicesLists(), localization);
 	}
 
-	public boolean contains(String value, MiniLocalization localization)
+	public boolean containsLowerCase(String lowerCaseValue, MiniLocalization localization)
 	{
 		// NOTE: this type doesn't support contains searching at all!
 		return false;
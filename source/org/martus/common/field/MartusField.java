@@ -184,7 +184,17 @@ public class MartusField
 	
 	public boolean contains(String value, MiniLocalization localization)
 	{
-		return (getSearchableData(localization).toLowerCase().indexOf(value.toLowerCase()) >= 0);
+		return containsLowerCase(value.toLowerCase(), localization);
+	}
+	
+	public boolean containsLowerCase(String lowerCaseValue, MiniLocalization localization)
+	{
+		return (getLowerCaseSearchableData(localization).indexOf(lowerCaseValue) >= 0);
+	}
+	
+	public String getLowerCaseSearchableData(MiniLocalization localization)
+	{
+		return getSearchableData(localization).toLowerCase();
 	}
 	
 	public int compareTo(String value, MiniLocalization localization)
@@ -53,6 +53,7 @@ public class AbstractDateOrientedFieldSpec extends FieldSpec
 	public void setMinimumDate(String newMinimumDate)
 	{
 		minimumDate = newMinimumDate;
+		markModified();
 	}
 	
 	public String getMinimumDate()
@@ -63,6 +64,7 @@ public class AbstractDateOrientedFieldSpec extends FieldSpec
 	public void setMaximumDate(String newMaximumDate)
 	{
 		maximumDate = newMaximumDate;
+		markModified();
 	}
 	
 	public String getMaximumDate()
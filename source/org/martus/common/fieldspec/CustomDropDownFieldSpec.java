@@ -56,6 +56,7 @@ public class CustomDropDownFieldSpec extends DropDownFieldSpec
 	public void addReusableChoicesCode(String reusableChoicesCodeToAdd)
 	{
 		reusableChoicesCodes.add(reusableChoicesCodeToAdd);
+		markModified();
 	}
 	
 	public String[] getReusableChoicesCodes()
@@ -126,6 +127,7 @@ public class CustomDropDownFieldSpec extends DropDownFieldSpec
 		gridTag = gridTagToUse;
 		gridColumn = gridColumnToUse;
 		updateDetailsXml();
+		markModified();
 	}
 
 	public Object getDataSource()
@@ -125,13 +125,29 @@ public class DropDownFieldSpec extends FieldSpec
 
 	public String getDetailsXml()
 	{
+		refreshDetailsXmlIfChoicesChanged();
 		return detailsXml;
 	}
 	
-	void updateDetailsXml()
+	public int getModificationCount()
+	{
+		refreshDetailsXmlIfChoicesChanged();
+		return super.getModificationCount();
+	}
+	
+	// NOTE: Choices can be relabeled or sorted in place, behind our back
+	private synchronized void refreshDetailsXmlIfChoicesChanged()
+	{
+		if(choices.getModificationCount() != choicesModificationCount)
+			updateDetailsXml();
+	}
+	
+	synchronized void updateDetailsXml()
 	{
 		detailsXml = getChoicesListAsXml();
+		choicesModificationCount = choices.getModificationCount();
 		clearId();
+		markModified();
 	}
 
 	private String getChoicesListAsXml()
@@ -207,4 +223,5 @@ public class DropDownFieldSpec extends FieldSpec
 	
 	private ReusableChoices choices;
 	private String detailsXml;
+	private int choicesModificationCount;
 }
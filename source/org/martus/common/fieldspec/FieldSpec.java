@@ -206,6 +206,7 @@ public class FieldSpec
 	public void setDefaultValue(String text)
 	{
 		defaultValue = text;
+		markModified();
 	}
 
 	public String getDefaultValue()
@@ -265,11 +266,13 @@ public class FieldSpec
 	public void setKeepWithPrevious()
 	{
 		keepWithPrevious = true;
+		markModified();
 	}
 	
 	public void setRequired()
 	{
 		isRequired = true;
+		markModified();
 	}
 	
 	public String getId()
@@ -282,6 +285,19 @@ public class FieldSpec
 	protected void clearId()
 	{
 		id = null;
+		markModified();
+	}
+	
+	// NOTE: Only ever goes up, so containers like FieldSpecCollection can
+	// tell whether anything they cached about this spec is still current
+	public int getModificationCount()
+	{
+		return modificationCount;
+	}
+	
+	protected void markModified()
+	{
+		++modificationCount;
 	}
 	
 	private void refreshId()
@@ -499,6 +515,7 @@ public class FieldSpec
 	private String defaultValue;
 	
 	private String id;
+	private int modificationCount;
 
 	public static final String FIELD_SPEC_XML_TAG = "Field";
 	public static final String FIELD_SPEC_TAG_XML_TAG = "Tag";
@@ -243,6 +243,7 @@ public class GridFieldSpec extends FieldSpec
 		if(!isValidColumnType(columnSpec.getType()))
 			throw new UnsupportedFieldTypeException(columnSpec.getType());
 		columns.add(columnSpec);
+		markModified();
 	}
 	
 	public boolean isValidColumnType(FieldType columnType)
@@ -271,6 +272,15 @@ public class GridFieldSpec extends FieldSpec
 	public void setColumnZeroLabel(String columnZeroLabelToUse)
 	{
 		columnZeroLabel = columnZeroLabelToUse;
+		markModified();
+	}
+	
+	public int getModificationCount()
+	{
+		int count = super.getModificationCount();
+		for(int i = 0; i < columns.size(); ++i)
+			count += ((FieldSpec)columns.get(i)).getModificationCount();
+		return count;
 	}
 	
 	public String getColumnZeroLabel()
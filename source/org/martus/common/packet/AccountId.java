@@ -35,11 +35,15 @@ public class AccountId
 {
 	public static AccountId create(String accountIdString)
 	{
-		if(accountIds.containsKey(accountIdString))
-			return (AccountId)accountIds.get(accountIdString);
-		AccountId newAccountId = new AccountId(accountIdString);
-		accountIds.put(accountIdString, newAccountId);
-		return newAccountId;
+		synchronized(accountIds)
+		{
+			AccountId existing = (AccountId)accountIds.get(accountIdString);
+			if(existing != null)
+				return existing;
+			AccountId newAccountId = new AccountId(accountIdString);
+			accountIds.put(accountIdString, newAccountId);
+			return newAccountId;
+		}
 	}
 	
 	public int objectId()
@@ -54,6 +58,8 @@ public class AccountId
 	
 	public boolean equals(Object obj)
 	{
+		if(obj == this)
+			return true;
 		return(toString().equals(obj.toString()));
 	}
 
@@ -27,16 +27,16 @@ Boston, MA 02111-1307, USA.
 package org.martus.common.packet;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 
 import org.martus.common.Base64XmlOutputStream;
+import org.martus.common.MartusConstants;
 import org.martus.common.MartusXml;
 import org.martus.common.XmlWriterFilter;
 import org.martus.common.crypto.MartusCrypto;
@@ -47,7 +47,6 @@ import org.martus.common.database.Database.RecordHiddenException;
 import org.martus.util.StreamableBase64;
 import org.martus.util.UnicodeReader;
 import org.martus.util.UnicodeWriter;
-import org.martus.util.inputstreamwithseek.FileInputStreamWithSeek;
 import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
 import org.martus.util.xml.SimpleXmlDefaultLoader;
 import org.martus.util.xml.SimpleXmlParser;
@@ -98,34 +97,38 @@ public class AttachmentPacket extends Packet
 			IOException,
 			MartusCrypto.CryptoException
 	{
-		File temp = db.createTempFile(signer);
-		temp.deleteOnExit();
-		
-		byte[] sig = writeAttachmentXmlFile(signer, temp);
-
 		DatabaseKey headerKey = DatabaseKey.createLegacyKey(getUniversalId());
-		HashMap importMap = new HashMap();
-		importMap.put(headerKey, temp);
+		PacketRecordWriter writer = new PacketRecordWriter(signer);
+		// NOTE: The database only replaces an existing record after the 
+		// whole packet was written, so a failure keeps the old attachment
 		try
 		{
-			db.importFiles(importMap);
+			db.writeRecord(headerKey, writer);
 		}
 		catch (RecordHiddenException e)
 		{
 			e.printStackTrace();
 			throw new IOException(e.toString());
 		}
-		temp.delete();
-		return sig;
+		return writer.getSignature();
 	}
 
+	/**
+	 * @deprecated writeXmlToClientDatabase no longer goes through a file. 
+	 * To write the packet xml elsewhere, call writeXml directly.
+	 */
 	public byte[] writeAttachmentXmlFile(MartusCrypto signer, File temp)
 		throws IOException
 	{
 		UnicodeWriter writer = new UnicodeWriter(temp);
-		byte[] sig = writeXml(writer, signer);
-		writer.close();
-		return sig;
+		try
+		{
+			return writeXml(writer, signer);
+		}
+		finally
+		{
+			writer.close();
+		}
 	}
 
 	public static void exportRawFileFromXml(InputStreamWithSeek xmlIn, SessionKey sessionKey, MartusCrypto security, OutputStream out) throws
@@ -135,55 +138,27 @@ public class AttachmentPacket extends Packet
 		org.martus.common.packet.Packet.WrongPacketTypeException,
 		StreamableBase64.InvalidBase64Exception
 	{
-		File encryptedTempFile = null;
 		try
 		{
+			// NOTE: Verify in a separate pass, so we never write out plain text 
+			// from bytes that turn out to have been tampered with
 			if(security != null)
 				verifyPacketSignature(xmlIn, null, security);
-			
-			encryptedTempFile = File.createTempFile("$$$MartusEncryptedAtt", null);
-			encryptedTempFile.deleteOnExit();
 
-			FileOutputStream outEncrypted = new FileOutputStream(encryptedTempFile);
-		
-			exportEncryptedFileContents(xmlIn, outEncrypted, security);
-			decryptFile(encryptedTempFile, out, sessionKey, security);
+			OutputStream decrypting = security.createDecryptingOutputStream(out, sessionKey);
+			exportEncryptedFileContents(xmlIn, new BufferedOutputStream(decrypting, MartusConstants.streamBufferCopySize), security);
 		}
 		finally
 		{
 			out.close();
-			if(encryptedTempFile != null)
-				encryptedTempFile.delete();
-		}
-	}
-
-	private static void decryptFile(
-		File encryptedFile,
-		OutputStream out,
-		SessionKey sessionKey,
-		MartusCrypto security)
-		throws IOException
-	{
-		InputStreamWithSeek inEncrypted = new FileInputStreamWithSeek(encryptedFile);
-		try
-		{
-			security.decrypt(inEncrypted, out, sessionKey);
-		}
-		catch(Exception e)
-		{
-			throw new IOException(e.toString());
-		}
-		finally
-		{
-			inEncrypted.close();
 		}
 	}
 
 	private static void exportEncryptedFileContents(
 		InputStreamWithSeek xmlIn,
-		FileOutputStream outEncrypted,
+		OutputStream outEncrypted,
 		MartusCrypto security)
-		throws FileNotFoundException, InvalidPacketException, IOException
+		throws InvalidPacketException, IOException
 	{
 		AttachmentPacket dummyPacket = new AttachmentPacket(security);
 		try
@@ -196,10 +171,11 @@ public class AttachmentPacket extends Packet
 			e.printStackTrace();
 			throw new InvalidPacketException(e.toString()); 
 		}
-		finally
-		{
-			outEncrypted.close();
-		}
+
+		// NOTE: Closing finishes the decryption, so only do it once the 
+		// whole packet was parsed. After a failure the caller just closes 
+		// the plain stream and the half-used cipher is dropped
+		outEncrypted.close();
 	}
 
 	protected String getPacketRootElementName()
@@ -41,10 +41,8 @@ import org.martus.common.bulletin.Bulletin.BulletinType;
 import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.database.DatabaseKey;
 import org.martus.util.StreamableBase64;
-import org.martus.util.UnicodeReader;
 import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
 import org.martus.util.inputstreamwithseek.ZipEntryInputStreamWithSeek;
-import org.martus.util.xml.SimpleXmlParser;
 
 
 public class BulletinHeaderPacket extends Packet
@@ -409,13 +407,23 @@ public class BulletinHeaderPacket extends Packet
 		MartusCrypto.DecryptionException,
 		MartusCrypto.NoKeyPairException
 	{
-		if(verifier != null)
-			verifyPacketSignature(inputStream, expectedSig, verifier);
+		String originalAccountId = getAccountId();
+		String originalLocalId = getLocalId();
+		boolean loaded = false;
 		XmlHeaderPacketLoader loader = new XmlHeaderPacketLoader(this);
 		try
 		{
 			knowsWhetherAllPrivate = false;
-			SimpleXmlParser.parse(loader, new UnicodeReader(inputStream));
+			parseAndVerifyXml(loader, inputStream, expectedSig, verifier);
+			loaded = true;
+		}
+		catch (InvalidPacketException e)
+		{
+			throw(e);
+		}
+		catch (SignatureVerificationException e)
+		{
+			throw(e);
 		}
 		catch (Exception e)
 		{
@@ -426,6 +434,24 @@ public class BulletinHeaderPacket extends Packet
 			System.out.println(e.getMessage());
 			throw new InvalidPacketException(e.getMessage());
 		}
+		finally
+		{
+			// NOTE: The packet was filled while its signature was being checked, 
+			// so nothing from a packet that failed may be left behind
+			if(!loaded)
+				forgetUnverifiedData(originalAccountId, originalLocalId);
+		}
+	}
+
+	private void forgetUnverifiedData(String originalAccountId, String originalLocalId)
+	{
+		restoreUniversalId(originalAccountId, originalLocalId);
+		initialize();
+		knowsWhetherAllPrivate = false;
+		fieldDataPacketId = null;
+		privateFieldDataPacketId = null;
+		snapshot = false;
+		immutableOnServer = false;
 	}
 
 	public static BulletinHeaderPacket loadFromZipFile(ZipFile zip, MartusCrypto verifier)
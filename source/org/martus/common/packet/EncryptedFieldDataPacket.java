@@ -26,13 +26,11 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.packet;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import org.martus.common.AuthorizedSessionKeys;
-import org.martus.common.HeadquartersKey;
+import org.martus.common.Base64XmlOutputStream;
 import org.martus.common.HeadquartersKeys;
 import org.martus.common.MartusLogger;
 import org.martus.common.MartusXml;
@@ -41,32 +39,28 @@ import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.crypto.SessionKey;
 import org.martus.common.crypto.MartusCrypto.EncryptionException;
 import org.martus.util.StreamableBase64;
+import org.martus.util.UnicodeWriter;
 import org.martus.util.StreamableBase64.InvalidBase64Exception;
 
 class EncryptedFieldDataPacket extends Packet
 {
-	EncryptedFieldDataPacket(UniversalId uid, String plainTextData, MartusCrypto crypto) throws IOException
+	EncryptedFieldDataPacket(FieldDataPacket packetToEncrypt, MartusCrypto crypto) throws IOException
 	{
-		super(uid);
+		super(packetToEncrypt.getUniversalId());
+		if(crypto.getPublicKeyString() == null)
+			throw new IOException("NoKeyPairException");
+
+		plainPacket = packetToEncrypt;
 		authorizedToReadKeys = new HeadquartersKeys();
 		security = crypto;
+		sessionKey = security.createSessionKey();
+	}
+
+	OutputStream createPlainTextOutputStream(OutputStream encryptedOut) throws IOException
+	{
 		try
 		{
-			sessionKey = security.createSessionKey();
-			byte[] plainTextBytes = plainTextData.getBytes("UTF-8");
-			ByteArrayInputStream inPlain = new ByteArrayInputStream(plainTextBytes);
-			ByteArrayOutputStream outEncrypted = new ByteArrayOutputStream();
-			security.encrypt(inPlain, outEncrypted, sessionKey);
-			byte[] encryptedBytes = outEncrypted.toByteArray();
-			encryptedData = StreamableBase64.encode(encryptedBytes);
-		}
-		catch(UnsupportedEncodingException e)
-		{
-			throw new IOException("UnsupportedEncodingException");
-		}
-		catch(MartusCrypto.NoKeyPairException e)
-		{
-			throw new IOException("NoKeyPairException");
+			return security.createEncryptingOutputStream(encryptedOut, sessionKey);
 		}
 		catch(MartusCrypto.EncryptionException e)
 		{
@@ -93,21 +87,16 @@ class EncryptedFieldDataPacket extends Packet
 		{
 			try
 			{
+				String[] sessionKeyStrings = getSessionKeyStrings();
+
 				//Legacy HQ
-				HeadquartersKey publicKey = authorizedToReadKeys.get(0);
-				String sessionKeyString = getSessionKeyString(publicKey.getPublicKey());
-				writeElement(dest, MartusXml.HQSessionKeyElementName, sessionKeyString);
+				writeElement(dest, MartusXml.HQSessionKeyElementName, sessionKeyStrings[0]);
 				
 				HashMap sessionKeysAndPublicCodes = new HashMap();
-				String publicCode = publicKey.getRawPublicCode();
-				sessionKeysAndPublicCodes.put(publicCode, sessionKeyString);
-
-				for(int i = 1; i < authorizedToReadKeys.size(); ++i)
+				for(int i = 0; i < authorizedToReadKeys.size(); ++i)
 				{
-					publicKey = authorizedToReadKeys.get(i);
-					sessionKeyString = getSessionKeyString(publicKey.getPublicKey());
-					publicCode = publicKey.getRawPublicCode();
-					sessionKeysAndPublicCodes.put(publicCode, sessionKeyString);
+					String publicCode = authorizedToReadKeys.get(i).getRawPublicCode();
+					sessionKeysAndPublicCodes.put(publicCode, sessionKeyStrings[i]);
 				}
 				if(!sessionKeysAndPublicCodes.isEmpty())
 				{
@@ -124,18 +113,40 @@ class EncryptedFieldDataPacket extends Packet
 				throw new IOException("FieldDataPacket.internalWriteXml InvalidBase64 Exception on HQ Public Key");
 			}
 		}
-		writeElement(dest, MartusXml.EncryptedDataElementName, encryptedData);
+		writeEncryptedData(dest);
 	}
 
-	private String getSessionKeyString(String publicCode) throws EncryptionException
+	private void writeEncryptedData(XmlWriterFilter dest) throws IOException
 	{
-		SessionKey encryptedSessionKey = security.encryptSessionKey(sessionKey, publicCode);
-		String sessionKeyString = StreamableBase64.encode(encryptedSessionKey.getBytes());
-		return sessionKeyString;
+		// NOTE: The plain text packet is signed and encrypted as it is 
+		// written here, so the cipher text never has to be held in memory
+		dest.writeStartTag(MartusXml.EncryptedDataElementName);
+		OutputStream encryptedOut = new Base64XmlOutputStream(dest, false);
+		OutputStream plainTextOut = createPlainTextOutputStream(encryptedOut);
+		UnicodeWriter plainTextWriter = new UnicodeWriter(plainTextOut);
+		plainPacket.writeXmlPlainText(plainTextWriter, security);
+		plainTextWriter.flush();
+		plainTextOut.close();
+		dest.writeEndTag(MartusXml.EncryptedDataElementName);
+	}
+
+	private String[] getSessionKeyStrings() throws EncryptionException
+	{
+		// NOTE: Wrap for every HQ in one batch, so the crypto layer can 
+		// spread the RSA work across threads
+		String[] publicKeys = new String[authorizedToReadKeys.size()];
+		for(int i = 0; i < publicKeys.length; ++i)
+			publicKeys[i] = authorizedToReadKeys.get(i).getPublicKey();
+
+		SessionKey[] encryptedSessionKeys = security.encryptSessionKeys(sessionKey, publicKeys);
+		String[] sessionKeyStrings = new String[encryptedSessionKeys.length];
+		for(int i = 0; i < sessionKeyStrings.length; ++i)
+			sessionKeyStrings[i] = StreamableBase64.encode(encryptedSessionKeys[i].getBytes());
+		return sessionKeyStrings;
 	}
 
 	MartusCrypto security;
-	String encryptedData;
+	private FieldDataPacket plainPacket;
 	private HeadquartersKeys authorizedToReadKeys;
 	private SessionKey sessionKey;
 }
@@ -28,7 +28,6 @@ package org.martus.common.packet;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Vector;
 
@@ -51,10 +50,8 @@ import org.martus.common.fieldspec.FieldType;
 import org.martus.common.fieldspec.FieldTypeUnknown;
 import org.martus.util.StreamableBase64;
 import org.martus.util.StreamableBase64.InvalidBase64Exception;
-import org.martus.util.UnicodeReader;
 import org.martus.util.inputstreamwithseek.ByteArrayInputStreamWithSeek;
 import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
-import org.martus.util.xml.SimpleXmlParser;
 import org.xml.sax.SAXException;
 
 
@@ -81,7 +78,7 @@ public class FieldDataPacket extends Packet
 	
 	void setFieldSpecsFromString(String delimitedFieldSpecs) throws Exception
 	{
-		setFieldSpecs(LegacyCustomFields.parseFieldSpecsFromString(delimitedFieldSpecs));
+		setCustomFields(new FieldCollection(LegacyCustomFields.parseFieldSpecsFromString(delimitedFieldSpecs), false));
 	}
 
 	public static UniversalId createUniversalId(MartusCrypto accountSecurity)
@@ -264,11 +261,13 @@ public class FieldDataPacket extends Packet
 	{
 		setEncrypted(false);
 		clearAll();
-		if(security != null)
-			verifyPacketSignature(inputStream, expectedSig, security);
+		String originalAccountId = getAccountId();
+		String originalLocalId = getLocalId();
+		FieldCollection originalFields = fields;
+		boolean loaded = false;
 		try
 		{
-			XmlFieldDataPacketLoader loader = loadXml(inputStream);
+			XmlFieldDataPacketLoader loader = loadXml(inputStream, expectedSig, security);
 			
 			String encryptedData = loader.encryptedData;
 			if(encryptedData != null)
@@ -278,17 +277,39 @@ public class FieldDataPacket extends Packet
 				loadEncryptedXml(encryptedData, encryptedHQSessionKey, security);
 			}
 			
+			fields = fields.withSharedSpecs();
+			loaded = true;
 		}
 		catch(DecryptionException e)
 		{
 			throw(e);
 		}
+		catch(InvalidPacketException e)
+		{
+			throw(e);
+		}
+		catch(SignatureVerificationException e)
+		{
+			throw(e);
+		}
 		catch(Exception e)
 		{
 			// TODO: Be more specific with exceptions!
 			//e.printStackTrace();
 			throw new InvalidPacketException(e);
 		}
+		finally
+		{
+			// NOTE: The packet was filled while its signature was being checked, 
+			// so nothing from a packet that failed may be left behind
+			if(!loaded)
+			{
+				restoreUniversalId(originalAccountId, originalLocalId);
+				fields = originalFields;
+				setEncrypted(false);
+				clearAll();
+			}
+		}
 	}
 
 	private void loadEncryptedXml(
@@ -316,15 +337,14 @@ public class FieldDataPacket extends Packet
 		ByteArrayOutputStream outPlain = new ByteArrayOutputStream();
 		security.decrypt(inEncrypted, outPlain, sessionKey);
 		ByteArrayInputStreamWithSeek inDecrypted = new ByteArrayInputStreamWithSeek(outPlain.toByteArray());
-		verifyPacketSignature(inDecrypted, security);
-		loadXml(inDecrypted);
+		loadXml(inDecrypted, null, security);
 	}
 
-	private XmlFieldDataPacketLoader loadXml(InputStreamWithSeek in)
+	private XmlFieldDataPacketLoader loadXml(InputStreamWithSeek in, byte[] expectedSig, MartusCrypto verifier)
 		throws IOException, ParserConfigurationException, SAXException
 	{
 		XmlFieldDataPacketLoader loader = new XmlFieldDataPacketLoader(this);
-		SimpleXmlParser.parse(loader, new UnicodeReader(in));
+		parseAndVerifyXml(loader, in, expectedSig, verifier);
 		return loader;
 	}
 
@@ -335,11 +355,7 @@ public class FieldDataPacket extends Packet
 
 	public byte[] writeXmlEncrypted(Writer writer, MartusCrypto signer) throws IOException
 	{
-		StringWriter plainTextWriter = new StringWriter();
-		writeXmlPlainText(plainTextWriter, signer);
-		String payload = plainTextWriter.toString();
-
-		EncryptedFieldDataPacket efdp = new EncryptedFieldDataPacket(getUniversalId(), payload, signer);
+		EncryptedFieldDataPacket efdp = new EncryptedFieldDataPacket(this, signer);
 		efdp.setHQPublicKeys(getAuthorizedToReadKeys());
 		return efdp.writeXml(writer, signer);
 	}
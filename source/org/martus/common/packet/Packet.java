@@ -29,10 +29,11 @@ package org.martus.common.packet;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Arrays;
 
+import javax.xml.parsers.ParserConfigurationException;
+
 import org.martus.common.MartusXml;
 import org.martus.common.VersionBuildDate;
 import org.martus.common.XmlWriterFilter;
@@ -48,6 +49,7 @@ import org.martus.util.StreamableBase64;
 import org.martus.util.UnicodeReader;
 import org.martus.util.UnicodeWriter;
 import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
+import org.martus.util.xml.SimpleXmlDefaultLoader;
 import org.martus.util.xml.SimpleXmlParser;
 import org.martus.util.xml.XmlUtilities;
 import org.xml.sax.SAXException;
@@ -155,6 +157,13 @@ public class Packet
 		return hasUnknown;
 	}
 	
+	void restoreUniversalId(String accountId, String localId)
+	{
+		uid.setAccountId(accountId);
+		uid.setLocalId(localId);
+		hasUnknown = false;
+	}
+
 	public void setHasUnknownTags(boolean newState)
 	{
 		hasUnknown = newState;
@@ -222,18 +231,38 @@ public class Packet
 	public byte[] writeXmlToDatabase(Database db, DatabaseKey headerKey, boolean mustEncrypt, MartusCrypto signer)
 		throws IOException, Database.RecordHiddenException, CryptoException
 	{
-		StringWriter headerWriter = new StringWriter();
-		byte[] sig = writeXml(headerWriter, signer);
+		PacketRecordWriter writer = new PacketRecordWriter(signer);
 		if(mustEncrypt && isPublicData())
 		{
 			ensureSignerIsAuthor(headerKey, signer); 
-			db.writeRecordEncrypted(headerKey, headerWriter.toString(), signer);
+			db.writeRecordEncrypted(headerKey, writer, signer);
 		}
 		else
 		{
-			db.writeRecord(headerKey, headerWriter.toString());
+			db.writeRecord(headerKey, writer);
 		}
-		return sig;
+		return writer.getSignature();
+	}
+
+	class PacketRecordWriter implements Database.RecordWriter
+	{
+		PacketRecordWriter(MartusCrypto signerToUse)
+		{
+			signer = signerToUse;
+		}
+
+		public void writeTo(OutputStream out) throws IOException
+		{
+			sig = writeXml(out, signer);
+		}
+
+		byte[] getSignature()
+		{
+			return sig;
+		}
+
+		MartusCrypto signer;
+		byte[] sig;
 	}
 	
 	private void ensureSignerIsAuthor(DatabaseKey headerKey, MartusCrypto signer) throws CryptoException
@@ -245,16 +274,21 @@ public class Packet
 	static public void validateXml(InputStreamWithSeek inputStream, String accountId, String localId, byte[] expectedSig, MartusCrypto verifier) throws
 		Exception
 	{
-		verifyPacketSignature(inputStream, expectedSig, verifier);
-		
 		UniversalId uid = UniversalId.createFromAccountAndLocalId(accountId, localId);
 		Packet dummyPacket = PacketFactory.createEmptyPacket(uid);
 		if(dummyPacket == null)
+		{
+			verifyPacketSignature(inputStream, expectedSig, verifier);
 			throw new InvalidPacketException("Unknown local id type");
+		}
 		XmlPacketLoader verifyLoader = new XmlPacketLoader(dummyPacket);
 		try
 		{
-			SimpleXmlParser.parse(verifyLoader, new UnicodeReader(inputStream));
+			parseAndVerifyXml(verifyLoader, inputStream, expectedSig, verifier);
+		}
+		catch (SignatureVerificationException e)
+		{
+			throw(e);
 		}
 		catch (Exception e)
 		{
@@ -269,6 +303,31 @@ public class Packet
 		
 	}
 
+	// NOTE: Verifies the signature while the loader parses, instead of reading 
+	// the packet twice. A signature failure wins over any parse failure, 
+	// just as if verifyPacketSignature had been called first
+	static void parseAndVerifyXml(SimpleXmlDefaultLoader loader, InputStreamWithSeek in, byte[] expectedSig, MartusCrypto verifier) throws
+			IOException,
+			ParserConfigurationException,
+			SAXException
+	{
+		if(verifier == null)
+		{
+			SimpleXmlParser.parse(loader, new UnicodeReader(in));
+			return;
+		}
+
+		SignatureVerifyingReader reader = new SignatureVerifyingReader(in, expectedSig, verifier);
+		try
+		{
+			SimpleXmlParser.parse(loader, reader);
+		}
+		finally
+		{
+			reader.verify();
+		}
+	}
+
 	public static byte[] verifyPacketSignature(InputStreamWithSeek inputStream, MartusCrypto verifier) throws
 			IOException,
 			InvalidPacketException,
@@ -293,41 +352,39 @@ public class Packet
 		final String accountLine = reader.readLine();
 		final String publicKey = extractPublicKeyFromXmlLine(accountLine);
 
+		// NOTE: Each verifier engine is private to this call, so callers can
+		// verify packets on several threads at once
 		try
 		{
-			synchronized(verifier)
-			{
-				SignatureEngine engine = verifier.createSignatureVerifier(publicKey);
+			SignatureEngine engine = verifier.createSignatureVerifier(publicKey);
 
-				digestOneLine(startComment, engine);
-				digestOneLine(packetType, engine);
-				digestOneLine(accountLine, engine);
+			digestOneLine(startComment, engine);
+			digestOneLine(packetType, engine);
+			digestOneLine(accountLine, engine);
 
-				String sigLine = null;
-				String line = null;
-				while( (line=reader.readLine()) != null)
+			String sigLine = null;
+			String line = null;
+			while( (line=reader.readLine()) != null)
+			{
+				if(line.startsWith(MartusXml.packetSignatureStart))
 				{
-					if(line.startsWith(MartusXml.packetSignatureStart))
-					{
-						sigLine = line;
-						break;
-					}
-
-					digestOneLine(line, engine);
+					sigLine = line;
+					break;
 				}
 
-				byte[] sigBytes = extractSigFromXmlLine(sigLine);
-				if(expectedSig != null && !Arrays.equals(expectedSig, sigBytes))
-					throw new SignatureVerificationException();
+				digestOneLine(line, engine);
+			}
 
-				if(!engine.isValidSignature(sigBytes))
-					throw new SignatureVerificationException();
+			byte[] sigBytes = extractSigFromXmlLine(sigLine);
+			if(expectedSig != null && !Arrays.equals(expectedSig, sigBytes))
+				throw new SignatureVerificationException();
 
-				in.seek(0);
-				++callsToVerifyPacketSignature;
-				millisInVerifyPacketSignature += timer.elapsed();
-				return sigBytes;
-			}
+			if(!engine.isValidSignature(sigBytes))
+				throw new SignatureVerificationException();
+
+			in.seek(0);
+			recordVerifyPacketSignatureCall(timer.elapsed());
+			return sigBytes;
 		}
 		catch(InvalidPacketException e)
 		{
@@ -448,6 +505,15 @@ public class Packet
 		throw new WrongPacketTypeException("Can't call loadFromXml directly on a Packet object!");
 	}
 
+	static void recordVerifyPacketSignatureCall(long millis)
+	{
+		synchronized(statisticsLock)
+		{
+			++callsToVerifyPacketSignature;
+			millisInVerifyPacketSignature += millis;
+		}
+	}
+
 	final static byte[] newlineBytes = "\n".getBytes();
 	UniversalId uid;
 	boolean hasUnknown;
@@ -456,5 +522,6 @@ public class Packet
 	// typically, we print the values to the console when Help/About is done
 	public static int callsToVerifyPacketSignature;
 	public static long millisInVerifyPacketSignature;
+	private static final Object statisticsLock = new Object();
 
 }
@@ -0,0 +1,185 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.packet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.martus.common.MartusXml;
+import org.martus.common.crypto.MartusCrypto;
+import org.martus.common.crypto.SignatureEngine;
+import org.martus.common.packet.Packet.InvalidPacketException;
+import org.martus.common.packet.Packet.SignatureVerificationException;
+import org.martus.util.Stopwatch;
+import org.martus.util.UnicodeReader;
+import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
+
+/*
+ * Hands a packet's text to the XML parser while digesting it the same way
+ * Packet.verifyPacketSignature does (one line at a time, each followed by
+ * a newline), so a packet can be verified and parsed in a single pass.
+ * The parse result must not be trusted until verify() has returned.
+ */
+class SignatureVerifyingReader extends Reader
+{
+	SignatureVerifyingReader(InputStreamWithSeek in, byte[] expectedSigToUse, MartusCrypto verifier) throws
+		IOException,
+		InvalidPacketException,
+		SignatureVerificationException
+	{
+		timer = new Stopwatch();
+		reader = new UnicodeReader(in);
+		expectedSig = expectedSigToUse;
+
+		String startComment = reader.readLine();
+		if(!Packet.isValidStartComment(startComment))
+			throw new InvalidPacketException("No start comment");
+
+		String packetType = reader.readLine();
+		String accountLine = reader.readLine();
+		String publicKey = Packet.extractPublicKeyFromXmlLine(accountLine);
+
+		try
+		{
+			engine = verifier.createSignatureVerifier(publicKey);
+		}
+		catch(Exception e)
+		{
+			throw new SignatureVerificationException();
+		}
+
+		current = "";
+		currentOffset = 0;
+		String[] headerLines = {startComment, packetType, accountLine};
+		for(int i = 0; i < headerLines.length; ++i)
+		{
+			if(!digestLine(headerLines[i]))
+				throw new SignatureVerificationException();
+			current += headerLines[i] + MartusXml.newLine;
+		}
+	}
+
+	public int read(char[] buffer, int offset, int length) throws IOException
+	{
+		while(currentOffset >= current.length())
+		{
+			if(!readNextLine())
+				return -1;
+		}
+
+		int count = Math.min(length, current.length() - currentOffset);
+		current.getChars(currentOffset, currentOffset + count, buffer, offset);
+		currentOffset += count;
+		return count;
+	}
+
+	// NOTE: The parser closes its reader even when it gives up part way, 
+	// but verify still needs to read whatever it didn't
+	public void close() throws IOException
+	{
+	}
+
+	public byte[] verify() throws InvalidPacketException, SignatureVerificationException
+	{
+		try
+		{
+			while(signatureLine == null && readNextLine())
+				;
+			reader.close();
+		}
+		catch(IOException e)
+		{
+			throw new SignatureVerificationException();
+		}
+
+		if(digestFailed)
+			throw new SignatureVerificationException();
+
+		byte[] sigBytes = Packet.extractSigFromXmlLine(signatureLine);
+		if(expectedSig != null && !Arrays.equals(expectedSig, sigBytes))
+			throw new SignatureVerificationException();
+
+		try
+		{
+			if(!engine.isValidSignature(sigBytes))
+				throw new SignatureVerificationException();
+		}
+		catch(SignatureVerificationException e)
+		{
+			throw(e);
+		}
+		catch(Exception e)
+		{
+			throw new SignatureVerificationException();
+		}
+
+		Packet.recordVerifyPacketSignatureCall(timer.elapsed());
+		return sigBytes;
+	}
+
+	private boolean readNextLine() throws IOException
+	{
+		String line = reader.readLine();
+		if(line == null)
+			return false;
+
+		if(signatureLine == null)
+		{
+			if(line.startsWith(MartusXml.packetSignatureStart))
+				signatureLine = line;
+			else if(!digestLine(line))
+				throw new IOException("Signature digest failed");
+		}
+
+		current = line + MartusXml.newLine;
+		currentOffset = 0;
+		return true;
+	}
+
+	private boolean digestLine(String line)
+	{
+		try
+		{
+			Packet.digestOneLine(line, engine);
+			return true;
+		}
+		catch(Exception e)
+		{
+			digestFailed = true;
+			return false;
+		}
+	}
+
+	private UnicodeReader reader;
+	private SignatureEngine engine;
+	private byte[] expectedSig;
+	private Stopwatch timer;
+	private String current;
+	private int currentOffset;
+	private String signatureLine;
+	private boolean digestFailed;
+}
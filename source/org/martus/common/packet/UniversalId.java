@@ -89,7 +89,10 @@ public class UniversalId implements Comparable
 			return false;
 
 		UniversalId otherId = (UniversalId)otherObject;
-		if(!otherId.getAccountId().equals(getAccountId()))
+		if(otherId.hashCode != hashCode)
+			return false;
+		// NOTE: AccountIds are interned, so equal accounts are the same object
+		if(otherId.accountId != accountId)
 			return false;
 		if(!otherId.getLocalId().equals(getLocalId()))
 			return false;
@@ -99,22 +102,47 @@ public class UniversalId implements Comparable
 
 	public int hashCode()
 	{
-		return toString().hashCode();
+		return hashCode;
 	}
 
 	public int compareTo(Object other)
 	{
-		return toString().compareTo(((UniversalId)other).toString());
+		UniversalId otherId = (UniversalId)other;
+		if(otherId.accountId == accountId)
+			return getLocalId().compareTo(otherId.getLocalId());
+
+		// NOTE: Same order as comparing the toString values, which only 
+		// needs the whole strings when one account id is a prefix of the other
+		String thisAccount = getAccountId();
+		String otherAccount = otherId.getAccountId();
+		int commonLength = Math.min(thisAccount.length(), otherAccount.length());
+		for(int i = 0; i < commonLength; ++i)
+		{
+			char thisChar = thisAccount.charAt(i);
+			char otherChar = otherAccount.charAt(i);
+			if(thisChar != otherChar)
+				return thisChar - otherChar;
+		}
+		return toString().compareTo(otherId.toString());
 	}
 
 	public void setAccountId(String newAccountId)
 	{
 		accountId = AccountId.create(newAccountId);
+		updateHashCode();
 	}
 
 	public void setLocalId(String newLocalId)
 	{
 		localId = newLocalId.replace(':', '-');
+		updateHashCode();
+	}
+	
+	private void updateHashCode()
+	{
+		if(accountId == null || localId == null)
+			return;
+		hashCode = 31 * accountId.hashCode() + localId.hashCode();
 	}
 	
 	public static String createLocalIdFromByteArray(String prefix, byte[] originalBytes, String suffix)
@@ -130,5 +158,6 @@ public class UniversalId implements Comparable
 
 	private AccountId accountId;
 	private String localId;
+	private int hashCode;
 	public static final int LOCALID_RANDOM_BYTE_COUNT = 128/8;
 }
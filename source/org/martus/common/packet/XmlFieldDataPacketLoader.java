@@ -98,7 +98,7 @@ public class XmlFieldDataPacketLoader extends XmlPacketLoader
 			else if(tag.equals(MartusXml.CustomFieldSpecsElementName))
 			{
 				XmlCustomFieldsLoader loader = (XmlCustomFieldsLoader)ended;
-				fdp.setCustomFields(new FieldCollection(loader.getFieldSpecs()));
+				fdp.setCustomFields(new FieldCollection(loader.getFieldSpecs(), false));
 				foundModernFieldSpecs = true;
 			}
 			else if (tag.equals(MartusXml.XFormsElementName))
@@ -31,6 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.Arrays;
 
@@ -175,6 +176,35 @@ public class TestAttachmentPacket extends TestCaseEnhanced
 		decryptedFile.delete();
 	}
 
+	public void testWriteXmlThroughput() throws Exception
+	{
+		final int SIZE = DO_SPEED_TESTS ? 4 * 1024 * 1024 : 64 * 1024;
+		File largeFile = createTempFileFromName("$$$MartusTestThroughputAtt");
+		BufferedOutputStream rawOut = new BufferedOutputStream(new FileOutputStream(largeFile));
+		for(int i = 0; i < SIZE; ++i)
+			rawOut.write(i % 251);
+		rawOut.close();
+
+		String account = security.getPublicKeyString();
+		AttachmentPacket ap = new AttachmentPacket(account, security.createSessionKey(), largeFile, security);
+		//Stopwatch timer = new Stopwatch();
+		ap.writeXml(new NullOutputStream(), security);
+		//long millis = timer.elapsed();
+		//System.out.println("AttachmentPacket.writeXml: " + (millis * 1024 * 1024 / SIZE) + " ms per MB");
+		largeFile.delete();
+	}
+
+	static class NullOutputStream extends OutputStream
+	{
+		public void write(int b)
+		{
+		}
+
+		public void write(byte[] bytes, int offset, int length)
+		{
+		}
+	}
+
 	public void testLargeAttachmentSpeed() throws Exception
 	{
 		long createRawStartedAt = System.currentTimeMillis();
@@ -282,6 +312,8 @@ public class TestAttachmentPacket extends TestCaseEnhanced
 	}
 
 */
+	static boolean DO_SPEED_TESTS = false;
+
 	static File tempFile;
 	byte[] sampleBytes = {1,1,2,0,3,5,127,7,11};
 	static MartusCrypto security;
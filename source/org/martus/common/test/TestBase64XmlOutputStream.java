@@ -141,6 +141,39 @@ public class TestBase64XmlOutputStream extends TestCaseEnhanced
 		}
 	}
 
+	public void testChunkSpanningManyLines() throws Exception
+	{
+		for(int length = 1000; length < 1003; ++length)
+		{
+			byte[] data = createBytes(length);
+
+			Writer writer = new StringWriter();
+			XmlWriterFilter wf = new XmlWriterFilter(writer);
+			Base64XmlOutputStream out = new Base64XmlOutputStream(wf);
+			out.write(data, 0, 10);
+			out.write(data, 10, data.length - 10);
+			out.close();
+			assertEquals("wrong result for " + length + "?", getExpectedResult(data), writer.toString());
+		}
+	}
+
+	public void testWithoutLineBreaks() throws Exception
+	{
+		for(int length = 0; length < 200; length += 7)
+		{
+			byte[] data = createBytes(length);
+
+			Writer writer = new StringWriter();
+			XmlWriterFilter wf = new XmlWriterFilter(writer);
+			Base64XmlOutputStream out = new Base64XmlOutputStream(wf, false);
+			out.write(data, 0, length / 2);
+			out.flush();
+			out.write(data, length / 2, length - length / 2);
+			out.close();
+			assertEquals("wrong result for " + length + "?", StreamableBase64.encode(data), writer.toString());
+		}
+	}
+
 	String getExpectedResult(byte[] data)
 	{
 		String expected = "";
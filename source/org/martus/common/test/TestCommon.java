@@ -36,6 +36,7 @@ import org.martus.common.bulletin.TestBulletinHtmlGenerator;
 import org.martus.common.bulletin.TestBulletinLoader;
 import org.martus.common.bulletin.TestBulletinZipImporter;
 import org.martus.common.bulletin.TestBulletinZipUtilities;
+import org.martus.common.bulletinstore.TestBulletinSearchIndex;
 import org.martus.common.bulletinstore.TestBulletinStore;
 import org.martus.common.bulletinstore.TestBulletinStoreCache;
 import org.martus.common.bulletinstore.TestLeafNodeCache;
@@ -86,6 +87,7 @@ public class TestCommon
 		suite.addTest(new TestSuite(TestBulletinHistory.class));
 		suite.addTest(new TestSuite(TestBulletinHtmlGenerator.class));
 		suite.addTest(new TestSuite(TestBulletinLoader.class));
+		suite.addTest(new TestSuite(TestBulletinSearchIndex.class));
 		suite.addTest(new TestSuite(TestBulletinStore.class));
 		suite.addTest(new TestSuite(TestBulletinStoreCache.class));
 		suite.addTest(new TestSuite(TestBulletinStoreSaveBulletin.class));
@@ -112,6 +114,7 @@ public class TestCommon
 		suite.addTest(new TestSuite(TestFieldDataPacket.class));
 		suite.addTest(new TestSuite(TestFieldDeskKeys.class));
 		suite.addTest(new TestSuite(TestFieldSpec.class));
+		suite.addTest(new TestSuite(TestFieldSpecCollectionCache.class));
 		suite.addTest(new TestSuite(TestFileDatabase.class));
 		suite.addTest(new TestSuite(TestFileInputStreamWithSeek.class));
 		suite.addTest(new TestSuite(TestFileOutputStreamViaTemp.class));
@@ -121,6 +124,7 @@ public class TestCommon
 		suite.addTest(new TestSuite(TestHeadquartersKeys.class));
 		suite.addTest(new TestSuite(TestJpegGeoTagReader.class));
 		suite.addTest(new TestSuite(TestLeafNodeCache.class));
+		suite.addTest(new TestSuite(TestLruCache.class));
 		suite.addTest(new TestSuite(TestKeyShareSaveRestore.class));
 		suite.addTest(new TestSuite(TestMagicWordEntry.class));
 		suite.addTest(new TestSuite(TestMagicWords.class));
@@ -137,8 +141,10 @@ public class TestCommon
 		suite.addTest(new TestSuite(TestMiniFieldSpec.class));
 		suite.addTest(new TestSuite(TestMiniLocalization.class));
 		suite.addTest(new TestSuite(TestPacket.class));
+		suite.addTest(new TestSuite(TestPublicKeyCache.class));
 		suite.addTest(new TestSuite(TestServerBulletinSummary.class));
 		suite.addTest(new TestSuite(TestServerFileDatabase.class));
+		suite.addTest(new TestSuite(TestSessionKeyCache.class));
 		suite.addTest(new TestSuite(TestShortServerBulletinSummary.class));
 		suite.addTest(new TestSuite(TestUnicodeFileReader.class));
 		suite.addTest(new TestSuite(TestUnicodeFileWriter.class));
@@ -33,7 +33,9 @@ import org.martus.common.FieldSpecCollection;
 import org.martus.common.LegacyCustomFields;
 import org.martus.common.ReusableChoices;
 import org.martus.common.XmlCustomFieldsLoader;
+import org.martus.common.fieldspec.ChoiceItem;
 import org.martus.common.fieldspec.CustomDropDownFieldSpec;
+import org.martus.common.fieldspec.DropDownFieldSpec;
 import org.martus.common.fieldspec.FieldSpec;
 import org.martus.common.fieldspec.FieldTypeBoolean;
 import org.martus.common.fieldspec.FieldTypeDate;
@@ -65,6 +67,86 @@ public class TestCustomFields extends TestCaseEnhanced
 		assertEquals(xml, fields.toString());
 	}
 
+	public void testCachedXmlFollowsChanges() throws Exception
+	{
+		FieldSpecCollection specs = new FieldSpecCollection(getSampleSpecs());
+		String originalXml = specs.toXml();
+		assertSame("xml not cached?", originalXml, specs.toXml());
+		String originalDigest = specs.getContentDigest();
+
+		FieldSpecCollection sameSpecs = new FieldSpecCollection(getSampleSpecs());
+		assertEquals("same specs not equal?", specs, sameSpecs);
+		assertEquals("same specs different digest?", originalDigest, sameSpecs.getContentDigest());
+
+		specs.get(0).setRequired();
+		assertNotEquals("didn't see modified spec?", originalXml, specs.toXml());
+		assertFalse("modified specs still equal?", specs.equals(sameSpecs));
+
+		sameSpecs.add(FieldSpec.createCustomField("extra", "Extra", new FieldTypeNormal()));
+		assertNotEquals("didn't see added spec?", originalDigest, sameSpecs.getContentDigest());
+
+		String beforeChoices = sameSpecs.toXml();
+		ReusableChoices choices = new ReusableChoices("choices", "Choices");
+		sameSpecs.addReusableChoiceList(choices);
+		String withEmptyChoices = sameSpecs.toXml();
+		assertNotEquals("didn't see added choices?", beforeChoices, withEmptyChoices);
+		choices.add(new ChoiceItem("a", "Apple"));
+		String withApple = sameSpecs.toXml();
+		assertNotEquals("didn't see added choice item?", withEmptyChoices, withApple);
+		choices.get(0).setLabel("Apricot");
+		assertContains("didn't see relabeled choice item?", "Apricot", sameSpecs.toXml());
+	}
+
+	public void testCachedXmlFollowsDropDownChoices() throws Exception
+	{
+		DropDownFieldSpec dropdown = new DropDownFieldSpec(new ChoiceItem[] {new ChoiceItem("a", "Apple")});
+		dropdown.setTag("fruit");
+		FieldSpecCollection specs = new FieldSpecCollection(new FieldSpec[] {dropdown});
+		String originalXml = specs.toXml();
+		int originalCount = dropdown.getModificationCount();
+
+		dropdown.setChoices(new ChoiceItem[] {new ChoiceItem("b", "Banana")});
+		assertTrue("setChoices didn't mark modified?", dropdown.getModificationCount() > originalCount);
+		String withBanana = specs.toXml();
+		assertNotEquals("didn't see new choices?", originalXml, withBanana);
+		assertContains("Banana", withBanana);
+
+		dropdown.getChoice(0).setLabel("Blueberry");
+		assertContains("didn't see relabeled choice?", "Blueberry", specs.toXml());
+		assertContains("details not updated?", "Blueberry", dropdown.getDetailsXml());
+	}
+
+	public void testFindByTag() throws Exception
+	{
+		FieldSpec[] specs = getSampleSpecs();
+		FieldSpec duplicate = FieldSpec.createStandardField(specs[1].getTag(), new FieldTypeMultiline());
+		FieldSpecCollection specCollection = new FieldSpecCollection(specs);
+		specCollection.add(duplicate);
+		FieldCollection fields = new FieldCollection(specCollection);
+		for(int i = 0; i < specs.length; ++i)
+		{
+			assertSame("wrong spec?", specs[i], specCollection.findBytag(specs[i].getTag()));
+			assertSame("wrong field?", specs[i], fields.findByTag(specs[i].getTag()).getFieldSpec());
+		}
+		assertNull("found missing spec?", specCollection.findBytag("missing"));
+		assertNull("found missing field?", fields.findByTag("missing"));
+
+		FieldSpec added = FieldSpec.createStandardField("added", new FieldTypeNormal());
+		specCollection.add(added);
+		assertSame("didn't see added spec?", added, specCollection.findBytag("added"));
+
+		String oldTag = specs[0].getTag();
+		specs[0].setTag("renamed");
+		assertNull("found spec by old tag?", specCollection.findBytag(oldTag));
+		assertSame("didn't see renamed spec?", specs[0], specCollection.findBytag("renamed"));
+		assertNull("found field by old tag?", fields.findByTag(oldTag));
+		assertSame("didn't see renamed field?", specs[0], fields.findByTag("renamed").getFieldSpec());
+
+		specs[2].setTag("renamedWithoutOldLookup");
+		assertSame("didn't see spec renamed after indexing?", specs[2], specCollection.findBytag("renamedWithoutOldLookup"));
+		assertSame("didn't see field renamed after indexing?", specs[2], fields.findByTag("renamedWithoutOldLookup").getFieldSpec());
+	}
+
 	public void testParseXml() throws Exception
 	{
 		FieldSpec[] specs = getSampleSpecs();
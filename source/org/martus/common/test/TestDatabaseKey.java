@@ -115,6 +115,29 @@ public class TestDatabaseKey extends TestCaseEnhanced
 		assertEquals("hash Keys should match", key1.hashCode(), key2.hashCode());
 	}
 
+	public void testCompareTo() throws Exception
+	{
+		UniversalId uid1 = UniversalId.createFromAccountAndLocalId("account", "a");
+		UniversalId uid2 = UniversalId.createFromAccountAndLocalId("account", "b");
+		DatabaseKey[] keys = 
+		{
+			DatabaseKey.createMutableKey(uid2),
+			DatabaseKey.createImmutableKey(uid1),
+			DatabaseKey.createMutableKey(uid1),
+			DatabaseKey.createImmutableKey(uid2),
+		};
+		for(int i = 0; i < keys.length; ++i)
+		{
+			for(int j = 0; j < keys.length; ++j)
+			{
+				int expected = keys[i].toString().compareTo(keys[j].toString());
+				int actual = keys[i].compareTo(keys[j]);
+				assertEquals(keys[i] + " vs " + keys[j], expected < 0, actual < 0);
+				assertEquals(keys[i] + " vs " + keys[j], expected == 0, actual == 0);
+			}
+		}
+	}
+
 	public void testGetAccount() throws Exception
 	{
 		UniversalId uid = UniversalIdForTesting.createDummyUniversalId();
@@ -31,6 +31,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -49,7 +50,12 @@ import org.martus.common.XmlWriterFilter;
 import org.martus.common.bulletin.AttachmentProxy;
 import org.martus.common.crypto.MartusCrypto;
 import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.crypto.SessionKey;
+import org.martus.common.database.ClientFileDatabase;
+import org.martus.common.database.Database;
+import org.martus.common.database.DatabaseKey;
 import org.martus.common.fieldspec.FieldSpec;
+import org.martus.common.fieldspec.FieldTypeNormal;
 import org.martus.common.fieldspec.GridFieldSpec;
 import org.martus.common.fieldspec.StandardFieldSpecs;
 import org.martus.common.packet.FieldDataPacket;
@@ -57,6 +63,7 @@ import org.martus.common.packet.Packet.SignatureVerificationException;
 import org.martus.common.packet.UniversalId;
 import org.martus.util.TestCaseEnhanced;
 import org.martus.util.inputstreamwithseek.ByteArrayInputStreamWithSeek;
+import org.martus.util.inputstreamwithseek.InputStreamWithSeek;
 import org.martus.util.xml.XmlUtilities;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
@@ -636,6 +643,122 @@ public class TestFieldDataPacket extends TestCaseEnhanced
 	}
 
 
+	public void testFieldLookupSpeed() throws Exception
+	{
+		final int FIELD_COUNT = 300;
+		final int BULLETIN_COUNT = DO_SPEED_TESTS ? 10000 : 10;
+		FieldSpecCollection template = new FieldSpecCollection();
+		for(int i = 0; i < FIELD_COUNT; ++i)
+			template.add(FieldSpec.createCustomField("field" + i, "Field " + i, new FieldTypeNormal()));
+
+		//Stopwatch timer = new Stopwatch();
+		for(int b = 0; b < BULLETIN_COUNT; ++b)
+		{
+			FieldDataPacket packet = new FieldDataPacket(FieldDataPacket.createUniversalId(security), template);
+			for(int i = 0; i < FIELD_COUNT; ++i)
+			{
+				String tag = template.get(i).getTag();
+				packet.set(tag, tag);
+				assertEquals(tag, packet.get(tag));
+				assertEquals(template.get(i), template.findBytag(tag));
+			}
+		}
+		//long millis = timer.elapsed();
+		//System.out.println("Touched " + FIELD_COUNT + " fields in " + BULLETIN_COUNT + " packets: " + millis + " ms");
+	}
+
+	public void testWriteToFileDatabase() throws Exception
+	{
+		File dir = createTempDirectory();
+		ClientFileDatabase db = new ClientFileDatabase(dir, security);
+		db.initialize();
+		try
+		{
+			StringBuffer bigData = new StringBuffer();
+			for(int i = 0; i < 20000; ++i)
+				bigData.append("line " + i + " of sample data & more\n");
+			fdp.set(aTag, bigData.toString());
+			fdp.set(bTag, bData);
+			DatabaseKey key = DatabaseKey.createLegacyKey(fdp.getUniversalId());
+
+			fdp.setEncrypted(false);
+			long streamingBytes = getBytesAllocatedBy(new DatabaseWriteTask(db, key, true));
+			verifyFieldDataPacketInDatabase(db, key);
+
+			fdp.setEncrypted(true);
+			fdp.writeXmlToDatabase(db, key, false, security);
+			verifyFieldDataPacketInDatabase(db, key);
+
+			fdp.setEncrypted(false);
+			long bufferedBytes = getBytesAllocatedBy(new DatabaseWriteTask(db, key, false));
+			verifyFieldDataPacketInDatabase(db, key);
+
+			if(!DO_SPEED_TESTS || streamingBytes < 0)
+				return;
+			//System.out.println("Bytes allocated per save: streaming " + streamingBytes + " buffered " + bufferedBytes);
+			assertTrue("Streaming didn't save memory? (" + streamingBytes + " vs " + bufferedBytes + ")", streamingBytes < bufferedBytes);
+		}
+		finally
+		{
+			db.deleteAllData();
+			dir.delete();
+		}
+	}
+
+	class DatabaseWriteTask
+	{
+		DatabaseWriteTask(Database dbToUse, DatabaseKey keyToUse, boolean useStreamingToUse)
+		{
+			db = dbToUse;
+			key = keyToUse;
+			useStreaming = useStreamingToUse;
+		}
+
+		void run() throws Exception
+		{
+			if(useStreaming)
+			{
+				fdp.writeXmlToDatabase(db, key, true, security);
+				return;
+			}
+
+			StringWriter writer = new StringWriter();
+			fdp.writeXml(writer, security);
+			db.writeRecordEncrypted(key, writer.toString(), security);
+		}
+
+		Database db;
+		DatabaseKey key;
+		boolean useStreaming;
+	}
+
+	private long getBytesAllocatedBy(DatabaseWriteTask task) throws Exception
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+		{
+			task.run();
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean)threads;
+		long threadId = Thread.currentThread().getId();
+		long before = allocationCounter.getThreadAllocatedBytes(threadId);
+		task.run();
+		return allocationCounter.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	private void verifyFieldDataPacketInDatabase(Database db, DatabaseKey key) throws Exception
+	{
+		InputStreamWithSeek in = db.openInputStream(key, security);
+		FieldDataPacket got = new FieldDataPacket(fdp.getUniversalId(), fdp.getFieldSpecs());
+		got.loadFromXml(in, security);
+		in.close();
+		assertEquals("a", fdp.get(aTag), got.get(aTag));
+		assertEquals("b", fdp.get(bTag), got.get(bTag));
+		assertEquals("encrypted", fdp.isEncrypted(), got.isEncrypted());
+	}
+
 	public void testWriteAndLoadXmlEncryptedWithHQ() throws Exception
 	{
 		fdp.setEncrypted(true);
@@ -767,6 +890,43 @@ public class TestFieldDataPacket extends TestCaseEnhanced
 	}
 	
 	
+	public void testLoadTamperedLeavesPacketEmpty() throws Exception
+	{
+		FieldSpec customSpec = FieldSpec.createCustomField("tamperedtag", "Tampered Label " + System.currentTimeMillis(), new FieldTypeNormal());
+		FieldSpecCollection customSpecs = new FieldSpecCollection(new FieldSpec[] {customSpec});
+		FieldDataPacket original = new FieldDataPacket(FieldDataPacket.createUniversalId(security), customSpecs);
+		original.set("tamperedtag", "genuine");
+		original.addAttachment(new AttachmentProxy(UniversalIdForTesting.createDummyUniversalId(), "label", new SessionKey(new byte[] {1, 2, 3})));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		original.writeXml(out, security);
+		String tampered = new String(out.toByteArray(), "UTF-8").replaceFirst("genuine", "forged!");
+
+		UniversalId newUid = UniversalIdForTesting.createDummyUniversalId();
+		FieldDataPacket loaded = new FieldDataPacket(newUid, fieldTags);
+		loaded.set(aTag, "old data");
+		long cacheMissesBefore = FieldCollection.existingFieldSpecTemplates.getMissCount();
+		long cacheHitsBefore = FieldCollection.existingFieldSpecTemplates.getHitCount();
+		try
+		{
+			loaded.loadFromXml(new ByteArrayInputStreamWithSeek(tampered.getBytes("UTF-8")), security);
+			fail("Should have thrown!");
+		}
+		catch (SignatureVerificationException ignoreExpectedException)
+		{
+		}
+		assertEquals("kept tampered uid?", newUid, loaded.getUniversalId());
+		assertEquals("kept tampered specs?", fieldTags, loaded.getFieldSpecs());
+		assertNull("kept tampered field?", loaded.getField("tamperedtag"));
+		assertTrue("not empty?", loaded.isEmpty());
+		assertEquals("kept tampered attachments?", 0, loaded.getAttachments().length);
+		assertEquals("cached unverified specs?", cacheMissesBefore, FieldCollection.existingFieldSpecTemplates.getMissCount());
+		assertEquals("looked up unverified specs?", cacheHitsBefore, FieldCollection.existingFieldSpecTemplates.getHitCount());
+
+		loaded.loadFromXml(new ByteArrayInputStreamWithSeek(out.toByteArray()), security);
+		assertEquals("genuine", loaded.get("tamperedtag"));
+		assertEquals(1, loaded.getAttachments().length);
+	}
+
 	public void testInvalidXFormsChildrenValues() throws Exception
 	{
 		verifyInvalidXForms(null, null);
@@ -959,6 +1119,8 @@ public class TestFieldDataPacket extends TestCaseEnhanced
 		LegacyCustomFields.createFromLegacy(cTag)
 	});
 
+	static boolean DO_SPEED_TESTS = false;
+
 	int SHORTEST_LEGAL_KEY_SIZE = 512;
 	static MartusCrypto security;
 	static MartusCrypto securityHQ;
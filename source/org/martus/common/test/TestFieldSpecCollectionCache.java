@@ -0,0 +1,85 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.test;
+
+import org.martus.common.FieldSpecCollection;
+import org.martus.common.FieldSpecCollectionCache;
+import org.martus.common.fieldspec.FieldSpec;
+import org.martus.common.fieldspec.FieldTypeNormal;
+import org.martus.util.TestCaseEnhanced;
+
+public class TestFieldSpecCollectionCache extends TestCaseEnhanced
+{
+	public TestFieldSpecCollectionCache(String name)
+	{
+		super(name);
+	}
+
+	public void testBasics() throws Exception
+	{
+		FieldSpecCollectionCache cache = new FieldSpecCollectionCache();
+		FieldSpecCollection first = createSpecs("a");
+		assertSame("didn't keep first?", first, cache.getCanonical(first));
+		assertEquals("miss not counted?", 1, cache.getMissCount());
+
+		assertSame("didn't reuse?", first, cache.getCanonical(createSpecs("a")));
+		assertEquals("hit not counted?", 1, cache.getHitCount());
+
+		FieldSpecCollection other = createSpecs("b");
+		assertSame("reused a different template?", other, cache.getCanonical(other));
+		assertEquals("wrong size?", 2, cache.size());
+	}
+
+	public void testBounded() throws Exception
+	{
+		FieldSpecCollectionCache cache = new FieldSpecCollectionCache(2);
+		FieldSpecCollection a = createSpecs("a");
+		cache.getCanonical(a);
+		cache.getCanonical(createSpecs("b"));
+		cache.getCanonical(createSpecs("a"));
+		cache.getCanonical(createSpecs("c"));
+		assertEquals("not bounded?", 2, cache.size());
+		assertEquals("eviction not counted?", 1, cache.getEvictionCount());
+		assertSame("evicted most recently used?", a, cache.getCanonical(createSpecs("a")));
+	}
+
+	public void testModifiedAfterCaching() throws Exception
+	{
+		FieldSpecCollectionCache cache = new FieldSpecCollectionCache();
+		FieldSpecCollection modified = createSpecs("a");
+		cache.getCanonical(modified);
+		modified.get(0).setRequired();
+
+		FieldSpecCollection fresh = createSpecs("a");
+		assertSame("reused modified template?", fresh, cache.getCanonical(fresh));
+	}
+
+	private FieldSpecCollection createSpecs(String tag)
+	{
+		FieldSpec[] specs = {FieldSpec.createCustomField(tag, "Label " + tag, new FieldTypeNormal())};
+		return new FieldSpecCollection(specs);
+	}
+}
@@ -33,6 +33,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Random;
@@ -229,6 +230,57 @@ public class TestFileDatabase extends TestCaseEnhanced
 		assertEquals("wasn't discarded?", false, db.doesRecordExist(shortKey));
 	}
 
+	public void testLookupsDontCreateDirectories() throws Exception
+	{
+		assertFalse("unknown account exists?", db.doesRecordExist(otherKey));
+		assertNull("opened unknown account?", db.openInputStream(otherKey, security));
+		assertFalse("unknown account in quarantine?", db.isInQuarantine(otherKey));
+		assertFalse("created account on lookup?", FileDatabase.isAccountMapExpected(dir));
+		assertFalse("created account map on lookup?", db.accountMapFile.exists());
+
+		db.writeRecord(shortKey, sampleString1);
+		File existingBucket = db.getFileForRecord(shortKey).getParentFile();
+		DatabaseKey missingKey = null;
+		File missingBucket = null;
+		do
+		{
+			missingKey = DatabaseKey.createImmutableKey(UniversalIdForTesting.createFromAccountAndPrefix(accountString1, "y"));
+			missingBucket = db.getFileForRecordWithPrefix(missingKey.getUniversalId(), "p").getParentFile();
+		} while(missingBucket.equals(existingBucket));
+
+		assertFalse("missing record exists?", db.doesRecordExist(missingKey));
+		assertNull("opened missing record?", db.openInputStream(missingKey, security));
+		db.discardRecord(missingKey);
+		assertFalse("created bucket on lookup?", missingBucket.exists());
+	}
+
+	public void testDoesRecordExistUsesPacketIndex() throws Exception
+	{
+		db.writeRecord(shortKey, sampleString1);
+		assertTrue("missing after write?", db.doesRecordExist(shortKey));
+
+		File file = db.getFileForRecord(shortKey);
+		db.moveRecordToQuarantine(shortKey);
+		assertFalse("still exists after quarantine?", db.doesRecordExist(shortKey));
+		assertTrue("not in quarantine?", db.isInQuarantine(shortKey));
+		assertFalse("file still there?", file.exists());
+
+		db.writeRecord(shortKey, sampleString2);
+		assertTrue("missing after rewrite?", db.doesRecordExist(shortKey));
+		db.discardRecord(shortKey);
+		assertFalse("exists after discard?", db.doesRecordExist(shortKey));
+
+		db.writeRecord(shortKey, sampleString1);
+		db.initialize();
+		assertTrue("missing after reload?", db.doesRecordExist(shortKey));
+
+		File notIndexed = db.getFileForRecord(shortKey2);
+		FileOutputStream out = new FileOutputStream(notIndexed);
+		out.write(sampleBytes1);
+		out.close();
+		assertTrue("missed a file the index doesn't know?", db.doesRecordExist(shortKey2));
+	}
+
 	public void testDeleteAllData() throws Exception
 	{
 		db.writeRecord(shortKey, sampleString1);
@@ -262,6 +314,102 @@ public class TestFileDatabase extends TestCaseEnhanced
 		assertTrue("missing short?", db.doesRecordExist(shortKey));
 	}
 
+	public void testPacketIndexRebuiltWhenMissing() throws Exception
+	{
+		db.writeRecord(shortKey, sampleString1);
+		db.writeRecord(otherKey, sampleString2);
+		File indexFile = new File(dir, "packetindex.txt");
+		assertTrue("no index?", indexFile.exists());
+		indexFile.delete();
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("didn't rebuild?", 2, getRecordCount());
+		assertTrue("didn't rewrite index?", indexFile.exists());
+		assertTrue("missing short?", db.doesRecordExist(shortKey));
+	}
+
+	public void testPacketIndexRebuiltWhenCorrupt() throws Exception
+	{
+		db.writeRecord(shortKey, sampleString1);
+		db.writeRecord(otherKey, sampleString2);
+		db.discardRecord(otherKey);
+		File indexFile = new File(dir, "packetindex.txt");
+		FileOutputStream out = new FileOutputStream(indexFile.getPath(), true);
+		UnicodeWriter writer = new UnicodeWriter(out);
+		writer.writeln("+\tnot a valid line");
+		writer.close();
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("didn't rebuild?", 1, getRecordCount());
+		db.writeRecord(otherKey, sampleString2);
+		assertEquals("didn't add after rebuild?", 2, getRecordCount());
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("rebuilt index not persisted?", 2, getRecordCount());
+	}
+
+	public void testPacketIndexSeesChangedDirectories() throws Exception
+	{
+		db.writeRecord(shortKey, sampleString1);
+		db.writeRecord(shortKey2, sampleString2);
+		assertEquals(2, getRecordCount());
+
+		File removed = db.getFileForRecord(shortKey2);
+		removed.delete();
+		touch(removed.getParentFile());
+		for(int i = 0; i < 2; ++i)
+		{
+			DatabaseKey key = DatabaseKey.createImmutableKey(UniversalIdForTesting.createFromAccountAndPrefix(accountString1, "z"));
+			File added = db.getFileForRecord(key);
+			added.getParentFile().mkdirs();
+			FileOutputStream out = new FileOutputStream(added);
+			out.write(sampleBytes1);
+			out.close();
+			touch(added.getParentFile());
+			touch(added.getParentFile().getParentFile());
+		}
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("didn't rescan changed directories?", 3, getRecordCount());
+		assertFalse("removed file still exists?", db.doesRecordExist(shortKey2));
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("rescan not persisted?", 3, getRecordCount());
+	}
+
+	public void testPacketIndexCompactsWhileRunning() throws Exception
+	{
+		db.writeRecord(otherKey, sampleString1);
+		for(int i = 0; i < 300; ++i)
+		{
+			db.writeRecord(shortKey, sampleString1);
+			db.discardRecord(shortKey);
+		}
+		File indexFile = new File(dir, "packetindex.txt");
+		UnicodeReader reader = new UnicodeReader(indexFile);
+		int lines = 0;
+		while(reader.readLine() != null)
+			++lines;
+		reader.close();
+		assertTrue("didn't compact? " + lines, lines < 1000);
+
+		db = new MyFileDatabase(dir, security);
+		db.initialize();
+		assertEquals("lost records in compaction?", 1, getRecordCount());
+		assertTrue("lost other?", db.doesRecordExist(otherKey));
+	}
+
+	private void touch(File directory)
+	{
+		// NOTE: Some file systems only keep whole seconds
+		directory.setLastModified(directory.lastModified() + 5000);
+	}
+
 	public void testWriteAndReadRecordEncrypted() throws Exception
 	{
 		try
@@ -544,6 +692,73 @@ public class TestFileDatabase extends TestCaseEnhanced
 
 	}
 	
+	public void testConcurrentWritesToManyAccounts() throws Exception
+	{
+		final int threadCount = 8;
+		final int accountsPerThread = 4;
+		final int recordsPerAccount = 10;
+
+		long singleThreadMillis = timeConcurrentWrites(1, accountsPerThread, recordsPerAccount);
+		long multiThreadMillis = timeConcurrentWrites(threadCount, accountsPerThread, recordsPerAccount);
+		assertEquals("lost records?", (1 + threadCount) * accountsPerThread * recordsPerAccount, getRecordCount());
+
+		if(!DO_SPEED_TESTS)
+			return;
+		long millisPerThreadOfWork = multiThreadMillis / threadCount;
+		assertTrue("writes didn't scale? (" + millisPerThreadOfWork + " vs " + singleThreadMillis + ")", millisPerThreadOfWork < singleThreadMillis);
+	}
+
+	private long timeConcurrentWrites(int threadCount, final int accountsPerThread, final int recordsPerAccount) throws Exception
+	{
+		class Writer extends Thread
+		{
+			Writer(String accountPrefixToUse)
+			{
+				accountPrefix = accountPrefixToUse;
+			}
+
+			public void run()
+			{
+				try
+				{
+					for(int a = 0; a < accountsPerThread; ++a)
+					{
+						String accountId = accountPrefix + a;
+						for(int r = 0; r < recordsPerAccount; ++r)
+						{
+							DatabaseKey key = DatabaseKey.createImmutableKey(UniversalIdForTesting.createFromAccountAndPrefix(accountId, "x"));
+							db.writeRecord(key, sampleString1);
+							if(!sampleString1.equals(db.readRecord(key, security)))
+								throw new Exception("Read back wrong data for " + key);
+						}
+					}
+				}
+				catch(Exception e)
+				{
+					failure = e;
+				}
+			}
+
+			String accountPrefix;
+			Exception failure;
+		}
+
+		Writer[] writers = new Writer[threadCount];
+		for(int i = 0; i < writers.length; ++i)
+			writers[i] = new Writer("concurrent-" + threadCount + "-" + i + "-");
+
+		Stopwatch watch = new Stopwatch();
+		for(int i = 0; i < writers.length; ++i)
+			writers[i].start();
+		for(int i = 0; i < writers.length; ++i)
+		{
+			writers[i].join();
+			if(writers[i].failure != null)
+				throw writers[i].failure;
+		}
+		return watch.elapsed();
+	}
+
 	public void testScrubRecord() throws Exception
 	{
 		db.writeRecord(shortKey, sampleString1);			
@@ -553,6 +768,76 @@ public class TestFileDatabase extends TestCaseEnhanced
 		assertNotEquals("record not match?",scrubbedRecord, sampleString1);												
 	}
 	
+	public void testWriteRecordFromRecordWriter() throws Exception
+	{
+		Database.RecordWriter writer = new Database.RecordWriter()
+		{
+			public void writeTo(OutputStream out) throws IOException
+			{
+				out.write(sampleString1.getBytes("UTF-8"));
+			}
+		};
+
+		db.writeRecord(shortKey, writer);
+		assertEquals("wrong plain text?", sampleString1, db.readRecord(shortKey, security));
+
+		db.writeRecordEncrypted(otherKey, writer, security);
+		assertEquals("wrong decrypted text?", sampleString1, db.readRecord(otherKey, security));
+		InputStream in = new FileInputStream(db.getFileForRecord(otherKey));
+		assertEquals("not flagged as encrypted?", 0, in.read());
+		in.close();
+		assertEquals("wrong count?", 2, getRecordCount());
+	}
+
+	public void testFailedRecordWriterLeavesNoRecord() throws Exception
+	{
+		Database.RecordWriter writer = new Database.RecordWriter()
+		{
+			public void writeTo(OutputStream out) throws IOException
+			{
+				out.write(sampleBytes1);
+				throw new IOException("Simulated failure");
+			}
+		};
+
+		try
+		{
+			db.writeRecord(shortKey, writer);
+			fail("should have thrown");
+		}
+		catch(IOException ignoreExpectedException)
+		{
+		}
+		assertFalse("left partial record?", db.doesRecordExist(shortKey));
+		assertEquals("count not 0?", 0, getRecordCount());
+	}
+
+	public void testFailedRecordWriterKeepsExistingRecord() throws Exception
+	{
+		db.writeRecord(shortKey, sampleString1);
+		Database.RecordWriter writer = new Database.RecordWriter()
+		{
+			public void writeTo(OutputStream out) throws IOException
+			{
+				out.write(sampleBytes2);
+				throw new IOException("Simulated failure");
+			}
+		};
+
+		try
+		{
+			db.writeRecord(shortKey, writer);
+			fail("should have thrown");
+		}
+		catch(IOException ignoreExpectedException)
+		{
+		}
+		assertEquals("damaged existing record?", sampleString1, db.readRecord(shortKey, security));
+		assertEquals("count not still one?", 1, getRecordCount());
+		File interim = db.getInterimDirectory(shortKey.getAccountId());
+		assertEquals("left interim file?", 0, interim.list().length);
+	}
+
 	int getRecordCount()
 	{
 		class PacketCounter implements Database.PacketVisitor
@@ -594,6 +879,8 @@ public class TestFileDatabase extends TestCaseEnhanced
 
 	}
 
+	static boolean DO_SPEED_TESTS = false;
+
 	MockMartusSecurity security;
 	MyFileDatabase db;
 	File dir;
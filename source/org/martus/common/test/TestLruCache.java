@@ -0,0 +1,93 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.test;
+
+import java.util.Vector;
+
+import org.martus.common.LruCache;
+import org.martus.util.TestCaseEnhanced;
+
+public class TestLruCache extends TestCaseEnhanced
+{
+	public TestLruCache(String name)
+	{
+		super(name);
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception
+	{
+		LruCache cache = new LruCache(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		assertEquals("lost a?", "1", cache.get("a"));
+		cache.put("c", "3");
+		assertEquals("not bounded?", 2, cache.size());
+		assertEquals("eviction not counted?", 1, cache.getEvictionCount());
+		assertNull("evicted the wrong entry?", cache.get("b"));
+		assertEquals("evicted most recently used?", "1", cache.get("a"));
+		assertEquals("wrong hit count?", 2, cache.getHitCount());
+		assertEquals("wrong miss count?", 1, cache.getMissCount());
+	}
+
+	public void testDiscardsValuesThatLeave() throws Exception
+	{
+		DiscardTrackingCache cache = new DiscardTrackingCache(1);
+		cache.put("a", "1");
+		cache.put("a", "2");
+		assertEquals("didn't discard replaced value?", "1", cache.discarded.get(0));
+		cache.put("b", "3");
+		assertEquals("didn't discard evicted value?", "2", cache.discarded.get(1));
+		cache.clear();
+		assertEquals("didn't discard cleared value?", "3", cache.discarded.get(2));
+		assertEquals("discarded too much?", 3, cache.discarded.size());
+	}
+
+	public void testSegmentsKeepAtLeastOneEntry() throws Exception
+	{
+		final int SEGMENTS = 4;
+		LruCache cache = new LruCache(1, LruCache.NO_MAXIMUM_AGE, SEGMENTS);
+		for(int i = 0; i < SEGMENTS * 10; ++i)
+			cache.put(new Integer(i), "value");
+		assertTrue("not bounded? (was " + cache.size() + ")", cache.size() <= SEGMENTS);
+		assertEquals("newest not kept?", "value", cache.get(new Integer(SEGMENTS * 10 - 1)));
+	}
+
+	static class DiscardTrackingCache extends LruCache
+	{
+		DiscardTrackingCache(int maximumEntries)
+		{
+			super(maximumEntries);
+			discarded = new Vector();
+		}
+
+		protected void discardValue(Object value)
+		{
+			discarded.add(value);
+		}
+
+		Vector discarded;
+	}
+}
@@ -28,7 +28,9 @@ package org.martus.common.test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.KeyPair;
 import java.security.PublicKey;
@@ -52,6 +54,7 @@ import org.martus.common.crypto.MartusKeyPair;
 import org.martus.common.crypto.MartusSecurity;
 import org.martus.common.crypto.MockMartusSecurity;
 import org.martus.common.crypto.SessionKey;
+import org.martus.common.crypto.SignatureEngine;
 import org.martus.util.StreamableBase64;
 import org.martus.util.TestCaseEnhanced;
 import org.martus.util.inputstreamwithseek.ByteArrayInputStreamWithSeek;
@@ -206,6 +209,43 @@ public class TestMartusSecurity extends TestCaseEnhanced
 		assertTrue(Arrays.equals(data, decryptedStream.toByteArray()));
 	}
 	
+	public void testEncryptSessionKeysForManyRecipients() throws Exception
+	{
+		MartusCrypto[] recipients = 
+		{
+			MockMartusSecurity.createClient(),
+			MockMartusSecurity.createOtherClient(),
+			MockMartusSecurity.createHQ(),
+			MockMartusSecurity.createServer(),
+			MockMartusSecurity.createOtherServer(),
+		};
+		String[] publicKeys = new String[recipients.length + 1];
+		for(int i = 0; i < recipients.length; ++i)
+			publicKeys[i] = recipients[i].getPublicKeyString();
+		publicKeys[recipients.length] = publicKeys[0];
+
+		SessionKey sessionKey = security.createSessionKey();
+		SessionKey[] encrypted = security.encryptSessionKeys(sessionKey, publicKeys);
+		assertEquals("wrong count?", publicKeys.length, encrypted.length);
+		assertSame("wrapped a duplicate twice?", encrypted[0], encrypted[recipients.length]);
+		for(int i = 0; i < recipients.length; ++i)
+		{
+			recipients[i].flushSessionKeyCache();
+			assertEquals("wrong key for " + i + "?", sessionKey, recipients[i].decryptSessionKey(encrypted[i]));
+		}
+
+		try
+		{
+			security.encryptSessionKeys(sessionKey, new String[] {publicKeys[0], publicKeys[1], publicKeys[2], "not a key"});
+			fail("Should have thrown for a bad key");
+		}
+		catch(EncryptionException expectedException)
+		{
+			// expected exception
+		}
+		assertEquals("empty?", 0, security.encryptSessionKeys(sessionKey, new String[0]).length);
+	}
+
 	public void testCacheOfDecryptedSessionKeys() throws Exception
 	{
 		MartusSecurity bigKeySecurity = new MartusSecurity();
@@ -567,6 +607,31 @@ public class TestMartusSecurity extends TestCaseEnhanced
 		TRACE_END();
 	}
 
+	public void testSignatureEnginesOnOneThread() throws Exception
+	{
+		byte[] data = createRandomBytes(1000);
+		SignatureEngine signer = SignatureEngine.createSigner(security.getKeyPair());
+		SignatureEngine otherSigner = SignatureEngine.createSigner(security.getKeyPair());
+		signer.digest(data);
+		otherSigner.digest(data, 0, 10);
+		byte[] signature = signer.getSignature();
+		byte[] partialSignature = otherSigner.getSignature();
+
+		SignatureEngine verifier = security.createSignatureVerifier(security.getPublicKeyString());
+		SignatureEngine partialVerifier = security.createSignatureVerifier(security.getPublicKeyString());
+		verifier.digest(data);
+		partialVerifier.digest(data, 0, 10);
+		assertTrue("interleaved verify failed?", verifier.isValidSignature(signature));
+		assertTrue("interleaved partial verify failed?", partialVerifier.isValidSignature(partialSignature));
+
+		verifier.digest(data);
+		assertTrue("reused verifier failed?", verifier.isValidSignature(signature));
+		verifier.digest(data, 0, 10);
+		assertFalse("reused verifier kept old data?", verifier.isValidSignature(signature));
+		signer.digest(data);
+		assertTrue("reused signer failed?", security.verifySignature(new ByteArrayInputStream(data), signer.getSignature()));
+	}
+
 	public void testEncryptWithoutKeyPair() throws Exception
 	{
 		TRACE_BEGIN("testEncryptWithoutKeyPair");
@@ -683,6 +748,107 @@ public class TestMartusSecurity extends TestCaseEnhanced
 		TRACE_END();
 	}
 
+	public void testDecryptingOutputStream() throws Exception
+	{
+		TRACE_BEGIN("testDecryptingOutputStream");
+		byte[] data = createRandomBytes(1000);
+		ByteArrayOutputStream cipherOutputStream = new ByteArrayOutputStream();
+		security.encrypt(new ByteArrayInputStream(data), cipherOutputStream);
+		byte[] encrypted = cipherOutputStream.toByteArray();
+
+		ByteArrayOutputStream oneByteAtATime = new ByteArrayOutputStream();
+		OutputStream out = security.createDecryptingOutputStream(oneByteAtATime, null);
+		for(int i = 0; i < encrypted.length; ++i)
+			out.write(encrypted[i]);
+		out.close();
+		assertEquals("one byte at a time", true, Arrays.equals(data, oneByteAtATime.toByteArray()));
+
+		ByteArrayOutputStream inChunks = new ByteArrayOutputStream();
+		out = security.createDecryptingOutputStream(inChunks, null);
+		final int CHUNK_SIZE = 7;
+		for(int offset = 0; offset < encrypted.length; offset += CHUNK_SIZE)
+			out.write(encrypted, offset, Math.min(CHUNK_SIZE, encrypted.length - offset));
+		out.close();
+		assertEquals("in chunks", true, Arrays.equals(data, inChunks.toByteArray()));
+
+		out = security.createDecryptingOutputStream(new ByteArrayOutputStream(), null);
+		out.write(encrypted, 0, 6);
+		try
+		{
+			out.close();
+			fail("truncated header worked?");
+		}
+		catch(IOException e)
+		{
+			// expected exception
+		}
+
+		TRACE_END();
+	}
+
+	public void testConcurrentEncryptAndDecrypt() throws Exception
+	{
+		final int threadCount = 8;
+		long oneThreadMillis = timeConcurrentEncryptAndDecrypt(1);
+		long manyThreadMillis = timeConcurrentEncryptAndDecrypt(threadCount);
+		
+		if(!DO_SPEED_TESTS)
+			return;
+		//System.out.println("Decrypt throughput: 1 thread " + oneThreadMillis + "ms, " + threadCount + " threads " + manyThreadMillis + "ms per thread's work " + manyThreadMillis / threadCount);
+		assertTrue("decrypt didn't scale? (" + manyThreadMillis + " vs " + oneThreadMillis + ")", manyThreadMillis / threadCount < oneThreadMillis);
+	}
+
+	private long timeConcurrentEncryptAndDecrypt(int threadCount) throws Exception
+	{
+		class Decryptor extends Thread
+		{
+			Decryptor(int seed)
+			{
+				plainText = new byte[64 * 1024];
+				new Random(seed).nextBytes(plainText);
+			}
+
+			public void run()
+			{
+				try
+				{
+					ByteArrayOutputStream cipherOut = new ByteArrayOutputStream();
+					security.encrypt(new ByteArrayInputStream(plainText), cipherOut);
+					byte[] cipherText = cipherOut.toByteArray();
+					for(int i = 0; i < 20; ++i)
+					{
+						ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+						security.decrypt(new ByteArrayInputStreamWithSeek(cipherText), plainOut);
+						if(!Arrays.equals(plainText, plainOut.toByteArray()))
+							throw new Exception("Decrypted wrong data");
+					}
+				}
+				catch(Exception e)
+				{
+					failure = e;
+				}
+			}
+
+			byte[] plainText;
+			Exception failure;
+		}
+
+		Decryptor[] threads = new Decryptor[threadCount];
+		for(int i = 0; i < threads.length; ++i)
+			threads[i] = new Decryptor(i);
+
+		long startedAt = System.currentTimeMillis();
+		for(int i = 0; i < threads.length; ++i)
+			threads[i].start();
+		for(int i = 0; i < threads.length; ++i)
+		{
+			threads[i].join();
+			if(threads[i].failure != null)
+				throw threads[i].failure;
+		}
+		return System.currentTimeMillis() - startedAt;
+	}
+
 	public void testEncryptAndUnableToDecrypt() throws Exception
     {
         TRACE_BEGIN("testEncryptAndUnableToDecrypt");
@@ -950,6 +1116,8 @@ public class TestMartusSecurity extends TestCaseEnhanced
 	}
 */
 
+	static boolean DO_SPEED_TESTS = false;
+
 	private static MartusSecurity security;
 	private static MartusSecurity securityWithoutKeyPair;
 	private static KeyPair invalidKeyPair;
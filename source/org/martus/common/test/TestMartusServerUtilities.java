@@ -137,6 +137,45 @@ public class TestMartusServerUtilities extends TestCaseEnhanced
 		sigDir.delete();
 	}
 
+	public void testOldSignaturesAreDeleted() throws Exception
+	{
+		File fileToSign = createTempFileWithContents("Line 1 of test text\n");
+		File sigDir = MartusServerUtilities.getSignatureDirectoryForFile(fileToSign);
+		sigDir.mkdirs();
+
+		int oldSignatureCount = MartusServerUtilities.SIGNATURE_FILES_TO_KEEP + 5;
+		for(int i = 0; i < oldSignatureCount; ++i)
+		{
+			String dateStamp = "200101" + (10 + i) + "-120001";
+			File oldFile = new File(sigDir, fileToSign.getName() + "." + dateStamp + ".sig");
+			MartusServerUtilities.writeSignatureFileWithDatestamp(oldFile, dateStamp, fileToSign, serverSecurity);
+		}
+		File oldestKept = new File(sigDir, fileToSign.getName() + ".200101" + (10 + oldSignatureCount - MartusServerUtilities.SIGNATURE_FILES_TO_KEEP + 1) + "-120001.sig");
+		File newestDeleted = new File(sigDir, fileToSign.getName() + ".200101" + (10 + oldSignatureCount - MartusServerUtilities.SIGNATURE_FILES_TO_KEEP) + "-120001.sig");
+		assertTrue("didn't write oldest kept?", oldestKept.exists());
+
+		File newest = MartusServerUtilities.createSignatureFileFromFileOnServer(fileToSign, serverSecurity);
+		assertEquals("signing deleted old ones?", oldSignatureCount + 1, MartusServerUtilities.getSignaturesForFile(fileToSign).size());
+		MartusServerUtilities.deleteOldSignatures(fileToSign, MartusServerUtilities.SIGNATURE_FILES_TO_KEEP);
+		assertEquals("wrong number kept?", MartusServerUtilities.SIGNATURE_FILES_TO_KEEP, MartusServerUtilities.getSignaturesForFile(fileToSign).size());
+		assertTrue("deleted the new one?", newest.exists());
+		assertTrue("deleted a recent one?", oldestKept.exists());
+		assertFalse("kept an old one?", newestDeleted.exists());
+		assertEquals("wrong latest?", newest.getAbsolutePath(), MartusServerUtilities.getLatestSignatureFileFromFile(fileToSign).getAbsolutePath());
+		MartusServerUtilities.verifyFileAndLatestSignatureOnServer(fileToSign, serverSecurity);
+
+		MartusServerUtilities.deleteSignaturesForFile(fileToSign);
+		assertFalse("didn't delete directory?", sigDir.exists());
+		try
+		{
+			MartusServerUtilities.getLatestSignatureFileFromFile(fileToSign);
+			fail("Remembered a deleted signature?");
+		}
+		catch (MartusSignatureFileDoesntExistsException ignoredException)
+		{}
+		fileToSign.delete();
+	}
+
 	public void testWriteContactInfo() throws Exception
 	{
 		try
@@ -139,6 +139,24 @@ public class TestMiniLocalization extends TestCaseEnhanced
 
 
 	
+	public void testConvertStoredDateToDisplayFollowsSettings()
+	{
+		assertEquals("10/20/2005", localization.convertStoredDateToDisplay("2005-10-20"));
+		assertEquals("10/20/2005", localization.convertStoredDateToDisplay("2005-10-20"));
+		localization.setMdyOrder("dmy");
+		assertEquals("didn't follow order?", "20/10/2005", localization.convertStoredDateToDisplay("2005-10-20"));
+		localization.setDateDelimiter('.');
+		assertEquals("didn't follow delimiter?", "20.10.2005", localization.convertStoredDateToDisplay("2005-10-20"));
+		localization.setCurrentCalendarSystem(MiniLocalization.THAI_SYSTEM);
+		assertEquals("didn't follow calendar?", "20.10.2548", localization.convertStoredDateToDisplay("2005-10-20"));
+		assertEquals("bad date not blank?", "", localization.convertStoredDateToDisplay("not a date"));
+
+		String unknownDate = MartusFlexidate.toStoredDateFormat(MultiCalendar.UNKNOWN);
+		assertEquals("<field:DateNotSpecified>", localization.convertStoredDateToDisplay(unknownDate));
+		localization.addEnglishTranslations(new String[] {"field:DateNotSpecified=Unknown"});
+		assertEquals("didn't follow translation?", "Unknown", localization.convertStoredDateToDisplay(unknownDate));
+	}
+
 	public void testConvertStoredDateToDisplayNoTimeZoneOffset() throws Exception
 	{
 		TimeZone defaultTimeZone = TimeZone.getDefault();
@@ -246,6 +264,31 @@ public class TestMiniLocalization extends TestCaseEnhanced
     	assertEquals("Should return '' for an unknown date", "", loc.formatDateTime(MiniLocalization.DATE_UNKNOWN));
     }
     
+	public void testGetLabel()
+	{
+		MiniLocalization loc = new MiniLocalization(new String[] {
+				"field:title=Title",
+				"field:custom:tag=Custom",
+				"button:yes=Yes",
+		});
+		loc.addTranslation(MiniLocalization.SPANISH, "field:title=Titulo");
+		loc.addTranslation(MiniLocalization.SPANISH, "field:unknown=Ignored");
+
+		assertEquals("Title", loc.getLabel(MiniLocalization.ENGLISH, "field", "title"));
+		assertEquals("Title", loc.getLabel(MiniLocalization.ENGLISH, "field:title"));
+		assertEquals("Titulo", loc.getLabel(MiniLocalization.SPANISH, "field", "title"));
+		assertEquals("Custom", loc.getLabel(MiniLocalization.ENGLISH, "field", "custom:tag"));
+		assertEquals("didn't fall back to English?", "<Yes>", loc.getLabel(MiniLocalization.SPANISH, "button", "yes"));
+		assertEquals("unknown key not marked?", "<field:unknown>", loc.getLabel(MiniLocalization.SPANISH, "field", "unknown"));
+		assertEquals("unknown category not marked?", "<nosuch:title>", loc.getLabel(MiniLocalization.ENGLISH, "nosuch", "title"));
+
+		loc.addTranslation(MiniLocalization.SPANISH, "button:yes=Si");
+		assertEquals("didn't see new translation?", "Si", loc.getLabel(MiniLocalization.SPANISH, "button", "yes"));
+		loc.addEnglishTranslations(new String[] {"field:unknown=Now Known"});
+		assertEquals("didn't see new key?", "<Now Known>", loc.getLabel(MiniLocalization.SPANISH, "field", "unknown"));
+		assertEquals("Title", loc.getLabel(MiniLocalization.ENGLISH, "field", "title"));
+	}
+
 	public void testGetMdyOrder()
 	{
 		MiniLocalization loc = new MiniLocalization();
@@ -287,6 +287,25 @@ public class TestPacket extends TestCaseEnhanced
 		}
 	}
 
+	public void testVerifyPacketSignatureSpeed() throws Exception
+	{
+		BulletinHeaderPacket bhp = new BulletinHeaderPacket(security);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bhp.writeXml(out, security);
+		byte[] bytes = out.toByteArray();
+
+		final int VERIFY_COUNT = DO_SPEED_TESTS ? 10000 : 10;
+		final int WARMUP_COUNT = VERIFY_COUNT / 10;
+		for(int i = 0; i < WARMUP_COUNT; ++i)
+			Packet.verifyPacketSignature(new ByteArrayInputStreamWithSeek(bytes), security);
+
+		//Stopwatch timer = new Stopwatch();
+		for(int i = 0; i < VERIFY_COUNT; ++i)
+			Packet.verifyPacketSignature(new ByteArrayInputStreamWithSeek(bytes), security);
+		//long elapsed = timer.elapsed();
+		//System.out.println("verifyPacketSignature of a " + bytes.length + " byte packet: " + (elapsed * 1000 / VERIFY_COUNT) + " microseconds each");
+	}
+
 	public void testVerifyGoodPacket() throws Exception
 	{
 		BulletinHeaderPacket bhp = new BulletinHeaderPacket(security);
@@ -393,6 +412,59 @@ public class TestPacket extends TestCaseEnhanced
 		}
 	}
 
+	public void testLoadPacketWithCorruptedData() throws Exception
+	{
+		BulletinHeaderPacket bhp = new BulletinHeaderPacket(security);
+		bhp.setFieldDataPacketId("none");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] sig = bhp.writeXml(out, security);
+		String xml = new String(out.toByteArray(), "UTF-8");
+
+		BulletinHeaderPacket loaded = new BulletinHeaderPacket(security);
+		loaded.loadFromXml(new ByteArrayInputStreamWithSeek(out.toByteArray()), sig, security);
+		assertEquals("none", loaded.getFieldDataPacketId());
+
+		String tamperedXml = xml.replaceFirst(">none<", ">nine<");
+		try
+		{
+			loaded.loadFromXml(new ByteArrayInputStreamWithSeek(tamperedXml.getBytes("UTF-8")), null, security);
+			fail("tampered data should have thrown SignatureVerificationException");
+		}
+		catch(Packet.SignatureVerificationException e)
+		{
+			// expected exception
+		}
+		assertNull("kept tampered data?", loaded.getFieldDataPacketId());
+		assertEquals("kept tampered uid?", bhp.getUniversalId(), loaded.getUniversalId());
+
+		loaded.loadFromXml(new ByteArrayInputStreamWithSeek(out.toByteArray()), sig, security);
+
+		String rootEndTag = MartusXml.getTagEnd(MartusXml.BulletinHeaderPacketElementName);
+		String brokenXml = xml.replaceFirst(rootEndTag, "</Broken>");
+		try
+		{
+			loaded.loadFromXml(new ByteArrayInputStreamWithSeek(brokenXml.getBytes("UTF-8")), null, security);
+			fail("tampered bad xml should have thrown SignatureVerificationException");
+		}
+		catch(Packet.SignatureVerificationException e)
+		{
+			// expected exception
+		}
+		assertNull("kept data from bad xml?", loaded.getFieldDataPacketId());
+
+		sig[0] ^= 0xFF;
+		try
+		{
+			loaded.loadFromXml(new ByteArrayInputStreamWithSeek(out.toByteArray()), sig, security);
+			fail("unexpected sig should have thrown SignatureVerificationException");
+		}
+		catch(Packet.SignatureVerificationException e)
+		{
+			// expected exception
+		}
+		assertNull("kept data with unexpected sig?", loaded.getFieldDataPacketId());
+	}
+
 	public void testVerifyPacketWithCorruptedSignature() throws Exception
 	{
 		BulletinHeaderPacket bhp = new BulletinHeaderPacket(security);
@@ -546,5 +618,7 @@ public class TestPacket extends TestCaseEnhanced
 
 	}
 
+	static boolean DO_SPEED_TESTS = false;
+
 	static MartusCrypto security;
 }
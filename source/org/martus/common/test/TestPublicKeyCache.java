@@ -0,0 +1,85 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.test;
+
+import java.security.PublicKey;
+
+import org.martus.common.crypto.MartusJceKeyPair;
+import org.martus.common.crypto.MockMartusSecurity;
+import org.martus.common.crypto.PublicKeyCache;
+import org.martus.util.StreamableBase64;
+import org.martus.util.TestCaseEnhanced;
+
+public class TestPublicKeyCache extends TestCaseEnhanced
+{
+	public TestPublicKeyCache(String name)
+	{
+		super(name);
+	}
+
+	public void testBasics() throws Exception
+	{
+		String keyString = MockMartusSecurity.createClient().getPublicKeyString();
+		PublicKey parsed = MartusJceKeyPair.extractPublicKey(keyString);
+		PublicKeyCache cache = new PublicKeyCache();
+		assertNull("already there?", cache.get(keyString));
+		assertEquals("miss not counted?", 1, cache.getMissCount());
+
+		cache.put(keyString, parsed);
+		assertSame("wrong key?", parsed, cache.get(new String(keyString)));
+		assertEquals("hit not counted?", 1, cache.getHitCount());
+
+		cache.clear();
+		assertEquals("not cleared?", 0, cache.size());
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception
+	{
+		final int SEGMENTS = 16;
+		PublicKey parsed = MartusJceKeyPair.extractPublicKey(MockMartusSecurity.createClient().getPublicKeyString());
+		PublicKeyCache cache = new PublicKeyCache(SEGMENTS);
+		final int count = SEGMENTS * 4;
+		for(int i = 0; i < count; ++i)
+			cache.put("key " + i, parsed);
+		assertTrue("not bounded? (was " + cache.size() + ")", cache.size() <= SEGMENTS);
+		assertEquals("evictions not counted?", count - cache.size(), cache.getEvictionCount());
+		assertSame("evicted the newest?", parsed, cache.get("key " + (count - 1)));
+	}
+
+	public void testExtractPublicKeyUsesCache() throws Exception
+	{
+		String keyString = MockMartusSecurity.createOtherClient().getPublicKeyString();
+		PublicKeyCache cache = MartusJceKeyPair.getPublicKeyCache();
+		PublicKey first = MartusJceKeyPair.extractPublicKey(keyString);
+		PublicKey second = MartusJceKeyPair.extractPublicKey(keyString);
+		assertSame("parsed again?", first, second);
+		assertSame("not in shared cache?", first, cache.get(keyString));
+
+		String invalid = StreamableBase64.encode(new byte[] {1,2,3});
+		assertNull("invalid key parsed?", MartusJceKeyPair.extractPublicKey(invalid));
+		assertNull("cached invalid key?", cache.get(invalid));
+	}
+}
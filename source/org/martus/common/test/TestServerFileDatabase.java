@@ -25,6 +25,8 @@ Boston, MA 02111-1307, USA.
 */
 package org.martus.common.test;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Vector;
 
 import org.martus.common.crypto.MartusCrypto;
@@ -35,6 +37,7 @@ import org.martus.common.database.DeleteRequestRecord;
 import org.martus.common.database.ServerFileDatabase;
 import org.martus.common.packet.UniversalId;
 import org.martus.common.utilities.MartusServerUtilities;
+import org.martus.util.Stopwatch;
 import org.martus.util.TestCaseEnhanced;
 
 public class TestServerFileDatabase extends TestCaseEnhanced
@@ -108,6 +111,159 @@ public class TestServerFileDatabase extends TestCaseEnhanced
 	
 
 	
+	public void testConcurrentAccountCreation() throws Exception
+	{
+		final int accountCount = 8;
+		final String[] folders = new String[accountCount];
+		final Exception[] errors = new Exception[accountCount];
+		Thread[] threads = new Thread[accountCount];
+		for(int i = 0; i < accountCount; ++i)
+		{
+			final int index = i;
+			threads[i] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						folders[index] = db.getFolderForAccount("concurrent account " + index);
+					}
+					catch(Exception e)
+					{
+						errors[index] = e;
+					}
+				}
+			};
+		}
+
+		Stopwatch sw = new Stopwatch();
+		for(int i = 0; i < accountCount; ++i)
+			threads[i].start();
+		for(int i = 0; i < accountCount; ++i)
+			threads[i].join();
+		long elapsed = sw.elapsed();
+		for(int i = 0; i < accountCount; ++i)
+			assertNull("error creating account " + i + "?", errors[i]);
+		if(DO_SPEED_TESTS)
+			assertTrue("account creation not batched? " + elapsed, elapsed < accountCount * 1000 / 2);
+
+		db.verifyAccountMap();
+		ServerFileDatabase reopened = new ServerFileDatabase(db.absoluteBaseDir, security);
+		reopened.initialize();
+		for(int i = 0; i < accountCount; ++i)
+			assertEquals("lost account " + i + "?", folders[i], reopened.getFolderForAccount("concurrent account " + i));
+	}
+
+	public void testNewAccountNotReturnedBeforeSigned() throws Exception
+	{
+		SlowSigningDatabase slowDb = new SlowSigningDatabase(createTempDirectory(), security);
+		slowDb.initialize();
+		try
+		{
+			final String account = "account being signed";
+			final String[] folders = new String[2];
+			slowDb.blockSigning();
+			Thread creator = new AccountLookupThread(slowDb, account, folders, 0);
+			creator.start();
+			slowDb.waitForSigningToStart();
+
+			Thread finder = new AccountLookupThread(slowDb, account, folders, 1);
+			finder.start();
+			finder.join(500);
+			assertTrue("returned account before it was signed?", finder.isAlive());
+
+			slowDb.allowSigning();
+			creator.join();
+			finder.join();
+			assertNotNull("didn't create account?", folders[0]);
+			assertEquals("found different folder?", folders[0], folders[1]);
+		}
+		finally
+		{
+			slowDb.allowSigning();
+			slowDb.deleteAllData();
+		}
+	}
+
+	static class AccountLookupThread extends Thread
+	{
+		AccountLookupThread(ServerFileDatabase dbToUse, String accountToFind, String[] foldersToFill, int indexToFill)
+		{
+			database = dbToUse;
+			account = accountToFind;
+			folders = foldersToFill;
+			index = indexToFill;
+		}
+
+		public void run()
+		{
+			try
+			{
+				folders[index] = database.getFolderForAccount(account);
+			}
+			catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		ServerFileDatabase database;
+		String account;
+		String[] folders;
+		int index;
+	}
+
+	static class SlowSigningDatabase extends ServerFileDatabase
+	{
+		SlowSigningDatabase(File directory, MartusCrypto security)
+		{
+			super(directory, security);
+			signingAllowed = true;
+		}
+
+		protected void waitBeforeSigningAccountMap() throws IOException
+		{
+			synchronized(this)
+			{
+				signingStarted = true;
+				notifyAll();
+				try
+				{
+					while(!signingAllowed)
+						wait();
+				}
+				catch(InterruptedException e)
+				{
+					throw new IOException("Interrupted");
+				}
+			}
+			super.waitBeforeSigningAccountMap();
+		}
+
+		synchronized void blockSigning()
+		{
+			signingAllowed = false;
+			signingStarted = false;
+		}
+
+		synchronized void waitForSigningToStart() throws InterruptedException
+		{
+			while(!signingStarted)
+				wait();
+		}
+
+		synchronized void allowSigning()
+		{
+			signingAllowed = true;
+			notifyAll();
+		}
+
+		boolean signingStarted;
+		boolean signingAllowed;
+	}
+
+	static boolean DO_SPEED_TESTS = false;
+
 	static MockMartusSecurity security; 
 	static ServerFileDatabase db;
 }
@@ -0,0 +1,169 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
+
+import org.martus.common.crypto.SessionKey;
+import org.martus.common.crypto.SessionKeyCache;
+import org.martus.util.TestCaseEnhanced;
+
+public class TestSessionKeyCache extends TestCaseEnhanced
+{
+	public TestSessionKeyCache(String name)
+	{
+		super(name);
+	}
+
+	public void testBasics() throws Exception
+	{
+		SessionKeyCache cache = new SessionKeyCache();
+		SessionKey encrypted = createKey(1);
+		SessionKey decrypted = createKey(2);
+		assertNull("already there?", cache.get(encrypted));
+		assertEquals("miss not counted?", 1, cache.getMissCount());
+
+		cache.put(encrypted, decrypted);
+		SessionKey got = cache.get(createKey(1));
+		assertEquals("wrong key?", decrypted, got);
+		assertNotSame("not a copy?", decrypted, got);
+		assertEquals("hit not counted?", 1, cache.getHitCount());
+
+		got.wipe();
+		assertEquals("wiping our copy damaged the cache?", decrypted, cache.get(encrypted));
+	}
+
+	public void testEvictsLeastRecentlyUsed() throws Exception
+	{
+		final int SEGMENTS = 16;
+		SessionKeyCache cache = new SessionKeyCache(SEGMENTS, 0);
+		SessionKey[] decrypted = new SessionKey[SEGMENTS * 4];
+		for(int i = 0; i < decrypted.length; ++i)
+		{
+			decrypted[i] = createKey(1000 + i);
+			cache.put(createKey(i), decrypted[i]);
+		}
+		assertTrue("not bounded? (was " + cache.size() + ")", cache.size() <= SEGMENTS);
+		assertEquals("evictions not counted?", decrypted.length - cache.size(), cache.getEvictionCount());
+
+		SessionKey last = createKey(decrypted.length - 1);
+		assertEquals("evicted the newest?", decrypted[decrypted.length - 1], cache.get(last));
+	}
+
+	public void testWipesEvictedKeys() throws Exception
+	{
+		final int SEGMENTS = 16;
+		StoredKeyTrackingCache cache = new StoredKeyTrackingCache(1, 0);
+		for(int i = 0; i <= SEGMENTS; ++i)
+			cache.put(createKey(i), createKey(1000 + i));
+		assertTrue("not bounded? (was " + cache.size() + ")", cache.size() <= SEGMENTS);
+		assertTrue("nothing evicted?", cache.getEvictionCount() > 0);
+		assertEquals("wrong keys wiped?", cache.getEvictionCount(), countWiped(cache.stored));
+		for(int i = 0; i <= SEGMENTS; ++i)
+		{
+			SessionKey stored = (SessionKey)cache.stored.get(i);
+			if(!isWiped(stored))
+				assertEquals("damaged a cached key?", createKey(1000 + i), cache.get(createKey(i)));
+		}
+
+		Map before = cache.getSnapshot();
+		SessionKey snapshotKey = (SessionKey)before.values().iterator().next();
+		byte[] snapshotBytes = (byte[])snapshotKey.getBytes().clone();
+
+		cache.clear();
+		assertEquals("not cleared?", 0, cache.size());
+		assertNull("still there?", cache.get(createKey(SEGMENTS)));
+		assertEquals("didn't wipe cleared keys?", cache.stored.size(), countWiped(cache.stored));
+		assertTrue("snapshot was not a copy?", Arrays.equals(snapshotBytes, snapshotKey.getBytes()));
+	}
+
+	public void testKeepsOneKeyPerSegment() throws Exception
+	{
+		final int SEGMENTS = 16;
+		SessionKeyCache cache = new SessionKeyCache(1, 0);
+		for(int i = 0; i < SEGMENTS * 4; ++i)
+			cache.put(createKey(i), createKey(1000 + i));
+		assertTrue("kept nothing?", cache.size() >= 1);
+		assertTrue("more than one per segment? (was " + cache.size() + ")", cache.size() <= SEGMENTS);
+		assertEquals("lost the newest?", createKey(1000 + SEGMENTS * 4 - 1), cache.get(createKey(SEGMENTS * 4 - 1)));
+	}
+
+	public void testExpiresOldKeys() throws Exception
+	{
+		SessionKeyCache cache = new SessionKeyCache(100, 1);
+		cache.put(createKey(1), createKey(2));
+		Thread.sleep(20);
+		assertNull("didn't expire?", cache.get(createKey(1)));
+		assertEquals("expiration not counted as eviction?", 1, cache.getEvictionCount());
+		assertEquals("expired key still present?", 0, cache.size());
+	}
+
+	private int countWiped(Vector keys)
+	{
+		int count = 0;
+		for(int i = 0; i < keys.size(); ++i)
+		{
+			if(isWiped((SessionKey)keys.get(i)))
+				++count;
+		}
+		return count;
+	}
+
+	private boolean isWiped(SessionKey key)
+	{
+		SessionKey wiped = key.copy();
+		wiped.wipe();
+		return Arrays.equals(wiped.getBytes(), key.getBytes());
+	}
+
+	static class StoredKeyTrackingCache extends SessionKeyCache
+	{
+		StoredKeyTrackingCache(int maximumEntries, long maximumAgeMillis)
+		{
+			super(maximumEntries, maximumAgeMillis);
+			stored = new Vector();
+		}
+
+		protected SessionKey copyForStorage(SessionKey decryptedSessionKey)
+		{
+			SessionKey copy = super.copyForStorage(decryptedSessionKey);
+			stored.add(copy);
+			return copy;
+		}
+
+		Vector stored;
+	}
+
+	private SessionKey createKey(int seed)
+	{
+		byte[] bytes = new byte[16];
+		for(int i = 0; i < bytes.length; ++i)
+			bytes[i] = (byte)(seed >> (i % 4) * 8);
+		return new SessionKey(bytes);
+	}
+}
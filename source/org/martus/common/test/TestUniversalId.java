@@ -26,8 +26,15 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.test;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
 import org.bouncycastle.util.Arrays;
 import org.martus.common.packet.UniversalId;
+import org.martus.util.Stopwatch;
+import org.martus.util.StreamableBase64;
 import org.martus.util.TestCaseEnhanced;
 
 
@@ -119,6 +126,86 @@ public class TestUniversalId extends TestCaseEnhanced
 		assertNotEquals("hashCode 3 4", uid3.hashCode(), uid4.hashCode());
 	}
 
+	public void testCompareTo()
+	{
+		String[] accounts = {sampleAccountId, sampleAccountId + "x", sampleAccountId + "-", "an", "another account", };
+		String[] localIds = {sampleLocalId, sampleLocalId + "x", "a", "", };
+		Vector uids = new Vector();
+		for(int a = 0; a < accounts.length; ++a)
+			for(int l = 0; l < localIds.length; ++l)
+				uids.add(UniversalId.createFromAccountAndLocalId(accounts[a], localIds[l]));
+
+		for(int i = 0; i < uids.size(); ++i)
+		{
+			UniversalId uid1 = (UniversalId)uids.get(i);
+			for(int j = 0; j < uids.size(); ++j)
+			{
+				UniversalId uid2 = (UniversalId)uids.get(j);
+				int expected = sign(uid1.toString().compareTo(uid2.toString()));
+				assertEquals(uid1 + " vs " + uid2, expected, sign(uid1.compareTo(uid2)));
+			}
+		}
+	}
+
+	public void testHashCodeAfterSetters()
+	{
+		UniversalId uid1 = UniversalId.createFromAccountAndLocalId(sampleAccountId, sampleLocalId);
+		UniversalId uid2 = UniversalId.createFromAccountAndLocalId("other", "other");
+		uid2.setAccountId(sampleAccountId);
+		uid2.setLocalId(sampleLocalId);
+		assertEquals("not equal?", uid1, uid2);
+		assertEquals("hash not updated?", uid1.hashCode(), uid2.hashCode());
+	}
+
+	public void testHashMapSpeed()
+	{
+		if(!DO_SPEED_TESTS)
+			return;
+
+		byte[] publicKeyBytes = new byte[294];
+		new Random(1234).nextBytes(publicKeyBytes);
+		String[] accounts = new String[20];
+		for(int i = 0; i < accounts.length; ++i)
+		{
+			publicKeyBytes[0] = (byte)i;
+			accounts[i] = StreamableBase64.encode(publicKeyBytes);
+		}
+
+		UniversalId[] uids = new UniversalId[20000];
+		for(int i = 0; i < uids.length; ++i)
+			uids[i] = UniversalIdForTesting.createFromAccountAndPrefix(accounts[i % accounts.length], "B-");
+
+		Stopwatch sw = new Stopwatch();
+		for(int pass = 0; pass < 10; ++pass)
+		{
+			HashSet set = new HashSet();
+			HashMap map = new HashMap();
+			for(int i = 0; i < uids.length; ++i)
+			{
+				set.add(uids[i]);
+				map.put(uids[i], uids[i]);
+			}
+			for(int i = 0; i < uids.length; ++i)
+			{
+				UniversalId copy = UniversalId.createFromAccountAndLocalId(uids[i].getAccountId(), uids[i].getLocalId());
+				assertTrue(set.contains(copy));
+				assertNotNull(map.get(copy));
+			}
+		}
+		long elapsed = sw.elapsed();
+		//System.out.println("TestUniversalId.testHashMapSpeed: " + elapsed + " ms for " + (uids.length * 10) + " keys");
+		assertTrue("too slow? " + elapsed, elapsed < 2000);
+	}
+
+	private static int sign(int value)
+	{
+		if(value < 0)
+			return -1;
+		if(value > 0)
+			return 1;
+		return 0;
+	}
+
 	public void testCreateFromString() throws Exception
 	{
 		UniversalId uid1 = UniversalId.createFromAccountAndLocalId(sampleAccountId, sampleLocalId);
@@ -136,6 +223,8 @@ public class TestUniversalId extends TestCaseEnhanced
 		}
 	}
 	
+	static boolean DO_SPEED_TESTS = false;
+
 	final String sampleAccountId = "an account id";
 	final String sampleLocalId = "a local id";
 }
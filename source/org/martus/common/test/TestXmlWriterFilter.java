@@ -92,6 +92,28 @@ public class TestXmlWriterFilter extends TestCaseEnhanced
 
 	}
 
+	public void testSigningAsciiAndNonAscii() throws Exception
+	{
+		MartusCrypto security = MockMartusSecurity.createClient();
+
+		String expectedText = "<a>\u00e9\u4e00</a>\nQUJD\n";
+		ByteArrayInputStream expectedIn = new ByteArrayInputStream(expectedText.getBytes("UTF-8"));
+		byte[] expectedSig = security.createSignatureOfStream(expectedIn);
+		expectedIn.close();
+
+		StringWriter stringWriter = new StringWriter();
+		XmlWriterFilter filter = new XmlWriterFilter(stringWriter);
+		filter.startSignature(security);
+		filter.writeStartTag("a");
+		filter.writeDirect("\u00e9\u4e00");
+		filter.writeEndTag("a");
+		char[] ascii = "xQUJD\ny".toCharArray();
+		filter.writeAsciiDirect(ascii, 1, 5);
+		byte[] sig = filter.getSignature();
+		assertEquals("bad sig?", true, Arrays.equals(expectedSig, sig));
+		assertEquals(expectedText, stringWriter.toString());
+	}
+
 	public void testSigningNotInitialized()
 	{
 		try
@@ -26,8 +26,6 @@ Boston, MA 02111-1307, USA.
 
 package org.martus.common.utilities;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -63,9 +61,7 @@ public class DateUtilities
 	
 	public static String formatIsoDateTime(Date dateTime) throws Exception
 	{
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		df.setTimeZone(TimeZone.getTimeZone("UTC"));
-		String isoDateTime = df.format(dateTime);
+		String isoDateTime = isoDateTimeFormat.format(dateTime);
 		return isoDateTime;
 	}
 	
@@ -74,9 +70,9 @@ public class DateUtilities
 		if(isoDateTime.length() == 0)
 			return new Date(0L);
 					
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-		df.setTimeZone(TimeZone.getTimeZone("UTC"));
-		Date date = df.parse(isoDateTime);
+		Date date = isoDateTimeFormat.parse(isoDateTime);
 		return date;
 	}
+
+	private static PerThreadDateFormat isoDateTimeFormat = new PerThreadDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", TimeZone.getTimeZone("UTC"));
 }
@@ -36,10 +36,12 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.sql.Timestamp;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 
 import org.martus.common.LoggerInterface;
@@ -88,13 +90,10 @@ public class MartusServerUtilities
 			return null;
 		}
 		
-		SimpleDateFormat formatDate = new SimpleDateFormat(MARTUS_SIGNATURE_FILE_DATE_FORMAT);
-		formatDate.setCalendar(Calendar.getInstance());
-		
 		Date date;
 		try
 		{
-			date = formatDate.parse(timestampDate);
+			date = signatureFileDateFormat.parse(timestampDate);
 		}
 		catch (ParseException e)
 		{
@@ -107,6 +106,11 @@ public class MartusServerUtilities
 	public static File getLatestSignatureFileFromFile(File originalFile)
 		throws IOException, ParseException, MartusSignatureFileDoesntExistsException
 	{
+		File cachedSignatureFile = getCachedLatestSignatureFile(originalFile);
+		if(cachedSignatureFile != null)
+			return cachedSignatureFile;
+
+		long directoryLastModified = getSignatureDirectoryForFile(originalFile).lastModified();
 		Vector signatureFiles =  getSignaturesForFile(originalFile);
 		
 		if(signatureFiles.size() == 0)
@@ -134,9 +138,36 @@ public class MartusServerUtilities
 			throw new MartusSignatureFileDoesntExistsException();
 		}
 		 
+		rememberLatestSignatureFile(originalFile, latestSignatureFile, directoryLastModified);
 		return latestSignatureFile;
 	}
 
+	private static File getCachedLatestSignatureFile(File originalFile)
+	{
+		LatestSignature latest = (LatestSignature)latestSignatures.get(originalFile.getAbsolutePath());
+		if(latest == null)
+			return null;
+
+		// NOTE: Adding or deleting any signature file touches the directory, 
+		// so an unchanged directory means the cached answer still holds. 
+		// Directory times are coarse, though, so a change within the same 
+		// tick would look unchanged until the directory is older than that
+		long directoryLastModified = getSignatureDirectoryForFile(originalFile).lastModified();
+		boolean mightHaveChangedUnseen = (System.currentTimeMillis() - directoryLastModified < DIRECTORY_TIMESTAMP_GRANULARITY_MILLIS);
+		if(directoryLastModified != latest.directoryLastModified || mightHaveChangedUnseen || !latest.signatureFile.exists())
+		{
+			latestSignatures.remove(originalFile.getAbsolutePath());
+			return null;
+		}
+		
+		return latest.signatureFile;
+	}
+
+	private static void rememberLatestSignatureFile(File originalFile, File signatureFile, long directoryLastModified)
+	{
+		latestSignatures.put(originalFile.getAbsolutePath(), new LatestSignature(signatureFile, directoryLastModified));
+	}
+
 	public static boolean isMatchingSigFile(File originalFile, File nextSignatureFile)
 	{
 		String orginalFilename = originalFile.getName();
@@ -165,11 +196,11 @@ public class MartusServerUtilities
 	public synchronized static File createSignatureFileFromFileOnServer(File fileToSign, MartusCrypto signer)
 		throws IOException, MartusSignatureException, InterruptedException, MartusSignatureFileAlreadyExistsException
 	{
-		Thread.sleep(1000);
+		waitForUnusedSignatureTimeStamp(fileToSign);
 		String dateStamp = createTimeStamp();
 		
 		File sigDir = getSignatureDirectoryForFile(fileToSign);
-		File signatureFile = new File(sigDir.getPath() + File.separatorChar + fileToSign.getName() + "." + dateStamp + ".sig");
+		File signatureFile = getSignatureFileForTimeStamp(fileToSign, dateStamp);
 		
 		if(signatureFile.exists() )
 		{
@@ -182,11 +213,65 @@ public class MartusServerUtilities
 		}
 		
 		writeSignatureFileWithDatestamp(signatureFile, dateStamp, fileToSign, signer);
-
+		rememberLatestSignatureFile(fileToSign, signatureFile, sigDir.lastModified());
 
 		return signatureFile;
 	}
 
+	public static void deleteOldSignatures(File originalFile, int signaturesToKeep)
+	{
+		Vector signatureFiles = getSignaturesForFile(originalFile);
+		if(signatureFiles.size() <= signaturesToKeep)
+			return;
+
+		Vector datedSignatures = new Vector();
+		for(int i = 0; i < signatureFiles.size(); ++i)
+		{
+			File signatureFile = (File)signatureFiles.get(i);
+			try
+			{
+				Date date = getDateOfSignatureFile(signatureFile);
+				if(date != null)
+					datedSignatures.add(new Object[] {date, signatureFile});
+			}
+			catch(IOException e)
+			{
+				MartusLogger.log("Unable to read signature date: " + signatureFile.getAbsolutePath());
+			}
+		}
+
+		Collections.sort(datedSignatures, new Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				Date date1 = (Date)((Object[])o1)[0];
+				Date date2 = (Date)((Object[])o2)[0];
+				return date2.compareTo(date1);
+			}
+		});
+
+		for(int i = signaturesToKeep; i < datedSignatures.size(); ++i)
+		{
+			File oldSignatureFile = (File)((Object[])datedSignatures.get(i))[1];
+			if(!oldSignatureFile.delete())
+				MartusLogger.log("Unable to delete old signature: " + oldSignatureFile.getAbsolutePath());
+		}
+	}
+
+	public static void waitForUnusedSignatureTimeStamp(File fileToSign) throws InterruptedException
+	{
+		// NOTE: Signature files are named by the second they were created in,
+		// so only a second signature within the same second has to wait
+		while(getSignatureFileForTimeStamp(fileToSign, createTimeStamp()).exists())
+			Thread.sleep(SIGNATURE_TIMESTAMP_POLL_MILLIS);
+	}
+
+	private static File getSignatureFileForTimeStamp(File fileToSign, String dateStamp)
+	{
+		File sigDir = getSignatureDirectoryForFile(fileToSign);
+		return new File(sigDir.getPath() + File.separatorChar + fileToSign.getName() + "." + dateStamp + ".sig");
+	}
+
 	public static String createTimeStamp()
 	{
 		long millisSince1970 = System.currentTimeMillis();
@@ -196,15 +281,13 @@ public class MartusServerUtilities
 	public static String getFormattedTimeStamp(long millisSince1970)
 	{
 		Timestamp stamp = new Timestamp(millisSince1970);
-		SimpleDateFormat formatDate = new SimpleDateFormat(MARTUS_SIGNATURE_FILE_DATE_FORMAT);
-		String dateStamp = formatDate.format(stamp);
+		String dateStamp = signatureFileDateFormat.format(stamp);
 		return dateStamp;
 	}
 	
 	public static Date getDateFromFormattedTimeStamp(String formattedTimeStamp) throws ParseException
 	{
-		SimpleDateFormat date = new SimpleDateFormat(MARTUS_SIGNATURE_FILE_DATE_FORMAT);
-		return date.parse(formattedTimeStamp);
+		return signatureFileDateFormat.parse(formattedTimeStamp);
 	}
 	
 	public synchronized static void writeSignatureFileWithDatestamp(File signatureFile, String date, File fileToSign, MartusCrypto signer)
@@ -333,6 +416,7 @@ public class MartusServerUtilities
 		
 		File sigDir = MartusServerUtilities.getSignatureDirectoryForFile(originalFile);
 		sigDir.delete();
+		latestSignatures.remove(originalFile.getAbsolutePath());
 	}
 	
 	public static byte [] getFileContents(File plainTextFile) throws IOException
@@ -492,10 +576,28 @@ public class MartusServerUtilities
 	{
 	}
 
+	private static class LatestSignature
+	{
+		LatestSignature(File signatureFileToUse, long directoryLastModifiedToUse)
+		{
+			signatureFile = signatureFileToUse;
+			directoryLastModified = directoryLastModifiedToUse;
+		}
+		
+		File signatureFile;
+		long directoryLastModified;
+	}
+
 	private static final String MARTUS_SIGNATURE_FILE_DATE_FORMAT = "yyyyMMdd-HHmmss";
 	private static final String MARTUS_SIGNATURE_FILE_IDENTIFIER = "Martus Signature File";
 	private static final String MARTUS_SIGNATURE_FILE_DIRECTORY_NAME = "signatures";
 	private static final int MAX_ALLOWED_ENCRYPTED_FILESIZE = 1000*1000;
+	private static final int SIGNATURE_TIMESTAMP_POLL_MILLIS = 50;
+	public static final int SIGNATURE_FILES_TO_KEEP = 10;
+	private static final long DIRECTORY_TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+	private static Map latestSignatures = Collections.synchronizedMap(new HashMap());
+	private static PerThreadDateFormat signatureFileDateFormat = new PerThreadDateFormat(MARTUS_SIGNATURE_FILE_DATE_FORMAT);
 
 	
 }
@@ -0,0 +1,88 @@
+/*
+
+The Martus(tm) free, social justice documentation and
+monitoring software. Copyright (C) 2015, Beneficent
+Technology, Inc. (Benetech).
+
+Martus is free software; you can redistribute it and/or
+modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation; either
+version 2 of the License, or (at your option) any later
+version with the additions and exceptions described in the
+accompanying Martus license file entitled "license.txt".
+
+It is distributed WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, including warranties of fitness of purpose or
+merchantability.  See the accompanying Martus License and
+GPL license for more details on the required license terms
+for this software.
+
+You should have received a copy of the GNU General Public
+License along with this program; if not, write to the Free
+Software Foundation, Inc., 59 Temple Place - Suite 330,
+Boston, MA 02111-1307, USA.
+
+*/
+package org.martus.common.utilities;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/*
+ * SimpleDateFormat is expensive to create and not thread safe, so this
+ * keeps one instance per thread for a given pattern. Without a fixed
+ * time zone, each use picks up the current default time zone, just as
+ * a freshly created SimpleDateFormat would.
+ */
+public class PerThreadDateFormat
+{
+	public PerThreadDateFormat(String patternToUse)
+	{
+		this(patternToUse, null);
+	}
+
+	public PerThreadDateFormat(String patternToUse, TimeZone fixedTimeZoneToUse)
+	{
+		pattern = patternToUse;
+		fixedTimeZone = fixedTimeZoneToUse;
+		formats = new ThreadLocal();
+	}
+
+	public String getPattern()
+	{
+		return pattern;
+	}
+
+	public String format(Date date)
+	{
+		return getFormat().format(date);
+	}
+
+	public Date parse(String text) throws ParseException
+	{
+		return getFormat().parse(text);
+	}
+
+	private DateFormat getFormat()
+	{
+		DateFormat format = (DateFormat)formats.get();
+		if(format == null)
+		{
+			format = new SimpleDateFormat(pattern);
+			if(fixedTimeZone != null)
+				format.setTimeZone((TimeZone)fixedTimeZone.clone());
+			formats.set(format);
+		}
+
+		if(fixedTimeZone == null)
+			format.setTimeZone(TimeZone.getDefault());
+		return format;
+	}
+
+	private String pattern;
+	private TimeZone fixedTimeZone;
+	private ThreadLocal formats;
+}
@@ -28,7 +28,9 @@ package org.martus.common.utilities;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.SimpleTimeZone;
 import java.util.TimeZone;
+import java.util.Vector;
 
 import org.martus.util.TestCaseEnhanced;
 
@@ -59,5 +61,60 @@ public class TestDateUtilities extends TestCaseEnhanced
 		assertEquals("2014-07-16T10:19:53.263Z", isoDateTime);
 		assertEquals(dateTime, DateUtilities.parseIsoDateTime(isoDateTime));
 	}
-	
+
+	public void testFormatAndParseIsoOnManyThreads() throws Exception
+	{
+		final int THREAD_COUNT = 8;
+		final int ITERATIONS = 500;
+		final Vector errors = new Vector();
+		Thread[] threads = new Thread[THREAD_COUNT];
+		for(int t = 0; t < threads.length; ++t)
+		{
+			final long base = 1405505993263L + t * 86400000L;
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						for(int i = 0; i < ITERATIONS; ++i)
+						{
+							Date dateTime = new Date(base + i * 1001L);
+							String isoDateTime = DateUtilities.formatIsoDateTime(dateTime);
+							if(!dateTime.equals(DateUtilities.parseIsoDateTime(isoDateTime)))
+								errors.add(isoDateTime);
+						}
+					}
+					catch(Exception e)
+					{
+						errors.add(e);
+					}
+				}
+			};
+		}
+
+		for(int t = 0; t < threads.length; ++t)
+			threads[t].start();
+		for(int t = 0; t < threads.length; ++t)
+			threads[t].join();
+		assertEquals("formats interfered with each other? " + errors, 0, errors.size());
+	}
+
+	public void testPerThreadDateFormatFollowsDefaultTimeZone() throws Exception
+	{
+		PerThreadDateFormat format = new PerThreadDateFormat("HH:mm");
+		TimeZone realTimeZone = TimeZone.getDefault();
+		try
+		{
+			TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+			assertEquals("00:00", format.format(new Date(0L)));
+			TimeZone.setDefault(new SimpleTimeZone(2 * 60 * 60 * 1000, "test"));
+			assertEquals("didn't follow time zone?", "02:00", format.format(new Date(0L)));
+			assertEquals(new Date(0L), format.parse("02:00"));
+		}
+		finally
+		{
+			TimeZone.setDefault(realTimeZone);
+		}
+	}
 }